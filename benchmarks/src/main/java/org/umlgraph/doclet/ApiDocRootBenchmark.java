@@ -0,0 +1,60 @@
+package org.umlgraph.doclet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookup of the API documentation root of the classes not
+ * being documented, with the patterns a <code>-link</code> to a
+ * package-list of the specified number of packages would add.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiDocRootBenchmark {
+    /** The number of packages linked */
+    @Param({ "10", "200", "2000" })
+    public int packages;
+
+    private Options opt;
+    private String linked;
+
+    @Setup
+    public void setup() {
+	opt = new Options();
+	for (int i = 0; i < packages; i++) {
+	    // as added by Options.addApiDocRoots
+	    String line = "org.example.p" + i + ".";
+	    opt.apiDocMap.put(Pattern.compile(line.replace(".", "\\.") + "[^\\.]*"),
+		"http://example.org/api/");
+	}
+	linked = "org.example.p" + (packages / 2) + ".Class0";
+    }
+
+    /** Looks up a class of a linked package */
+    @Benchmark
+    public String linkedPackage() {
+	return opt.getApiDocRoot(linked);
+    }
+
+    /** Looks up a class no pattern matches, testing them all */
+    @Benchmark
+    public String unknownPackage() {
+	return opt.getApiDocRoot("com.example.Unknown");
+    }
+}
@@ -0,0 +1,103 @@
+package org.umlgraph.doclet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.RootDoc;
+
+/**
+ * Measures the printing of the class nodes, whose cost grows with the
+ * number of members, and of the relations between the classes, explicit
+ * and inferred. Each invocation prints the whole model to a fresh graph
+ * writing to a null stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassGraphBenchmark {
+    /** The number of classes of the model */
+    static final int CLASSES = 32;
+
+    /** The number of fields and of methods of each class */
+    @Param({ "4", "64", "512" })
+    public int width;
+
+    private RootDoc root;
+    private Options opt;
+
+    /** A stream discarding the graph */
+    private static class NullOutputStream extends OutputStream {
+	public void write(int b) {}
+
+	public void write(byte[] b, int off, int len) {}
+    }
+
+    @Setup
+    public void setup() {
+	root = SyntheticDocs.model(CLASSES, width).root();
+	opt = new Options();
+	opt.setOptions(root.options());
+	opt.setAll();
+	opt.setOption(new String[] { "-inferrel" });
+	opt.setOption(new String[] { "-inferdep" });
+	opt.setOption(new String[] { "-hide", "java\\.lang\\..*" });
+    }
+
+    private ClassGraph graph() throws IOException {
+	ClassGraph c = new ClassGraph(root, opt, null);
+	c.prologue(new NullOutputStream());
+	return c;
+    }
+
+    /** Prints every class of the model as a node */
+    @Benchmark
+    public long printClass() throws IOException {
+	ClassGraph c = graph();
+	for (ClassDoc cd : root.classes())
+	    c.printClass(cd, true);
+	c.epilogue();
+	return c.bytesWritten();
+    }
+
+    /** Prints the relations of every class of the model */
+    @Benchmark
+    public long printRelations() throws IOException {
+	ClassGraph c = graph();
+	for (ClassDoc cd : root.classes())
+	    c.printRelations(cd);
+	c.epilogue();
+	return c.relationsPrinted();
+    }
+
+    /** Prints the relations, then infers the other relations and the dependencies */
+    @Benchmark
+    public long printInferred() throws IOException {
+	ClassGraph c = graph();
+	ClassDoc[] classes = root.classes();
+	for (ClassDoc cd : classes)
+	    c.printRelations(cd);
+	for (ClassDoc cd : classes)
+	    c.printInferredRelations(cd);
+	for (ClassDoc cd : classes)
+	    c.printInferredDependencies(cd);
+	c.epilogue();
+	return c.relationsPrinted();
+    }
+}
@@ -0,0 +1,102 @@
+package org.umlgraph.doclet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.RootDoc;
+import com.sun.javadoc.Tag;
+
+/**
+ * Measures the option handling done for every class drawn: cloning the
+ * options, setting them, and deriving the options of a class in a view
+ * (with class pattern overrides) and in a UmlGraphDoc context view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionsBenchmark {
+    /** The options set by the setOption benchmark, as given by a view */
+    private static final String[][] OPTIONS = {
+	{ "-attributes" }, { "-operations" }, { "-visibility" }, { "-types" },
+	{ "-nodefontsize", "9" }, { "-nodefillcolor", "lemonChiffon" },
+	{ "-edgecolor", "gray" }, { "-qualify" }, { "-postfixpackage" },
+	{ "-hide", "java\\.lang\\..*" }, { "-collpackages", "java\\.util\\..*" },
+    };
+
+    private Options opt;
+    private View view;
+    private ContextView contextView;
+    private ClassDoc[] classes;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+	SyntheticDocs docs = SyntheticDocs.model(32, 8);
+	ClassDoc viewDoc = docs.classDoc("org.example.views", "Overview");
+	SyntheticDocs.set(viewDoc, "tags", new Tag[] {
+	    docs.tag("@view", ""),
+	    docs.tag("@opt", "attributes"),
+	    docs.tag("@opt", "hide java.lang.*"),
+	    docs.tag("@match", "class org.example.p1.*"),
+	    docs.tag("@opt", "nodefillcolor lightGray"),
+	    docs.tag("@match", "class .*Class1.*"),
+	    docs.tag("@opt", "!attributes"),
+	});
+	RootDoc root = docs.root();
+	opt = new Options();
+	opt.setOptions(root.options());
+	view = new View(root, viewDoc, opt);
+	classes = root.classes();
+	contextView = new ContextView(System.getProperty("java.io.tmpdir"), classes[0], root, opt);
+    }
+
+    private ClassDoc nextClass() {
+	ClassDoc c = classes[next];
+	next = (next + 1) % classes.length;
+	return c;
+    }
+
+    @Benchmark
+    public Object cloneOptions() {
+	return opt.clone();
+    }
+
+    /** Sets the options on a clone, as done when building the options of a class */
+    @Benchmark
+    public Object setOption() {
+	Options o = (Options) opt.clone();
+	for (String[] option : OPTIONS)
+	    o.setOption(option);
+	return o;
+    }
+
+    @Benchmark
+    public Object getOptionsForView() {
+	return view.getOptionsFor(nextClass());
+    }
+
+    @Benchmark
+    public Object getOptionsForViewByName() {
+	return view.getOptionsFor(nextClass().qualifiedName());
+    }
+
+    @Benchmark
+    public Object getOptionsForContextView() {
+	return contextView.getOptionsFor(nextClass());
+    }
+}
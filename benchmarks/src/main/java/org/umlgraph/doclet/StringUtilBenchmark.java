@@ -0,0 +1,69 @@
+package org.umlgraph.doclet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the string utilities called for every tag, member and class
+ * name, on typical inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark {
+    private final String[] tagTexts = {
+	"1 uses * org.example.p1.Class2",
+	"- - - Class3",
+	"\"1..*\" \"has many\" \"0..1\" org.example.Other",
+	"nodefontsize 9",
+	"context org\\.example\\.p1\\..*",
+    };
+    private final String[] htmlTexts = {
+	"Plain text without markup",
+	"List<Map<String, Integer>> values",
+	"a < b && b > c",
+    };
+    private final String[] classNames = {
+	"org.example.p1.Class1",
+	"java.util.Map<java.lang.String, java.util.List<java.lang.Integer>>",
+	"org.example.p1.Outer.Inner<T>",
+	"Unqualified",
+    };
+
+    @Benchmark
+    public void tokenize(Blackhole bh) {
+	for (String s : tagTexts)
+	    bh.consume(StringUtil.tokenize(s));
+    }
+
+    @Benchmark
+    public void escape(Blackhole bh) {
+	for (String s : htmlTexts)
+	    bh.consume(StringUtil.escape(s));
+    }
+
+    @Benchmark
+    public void removeTemplate(Blackhole bh) {
+	for (String s : classNames)
+	    bh.consume(StringUtil.removeTemplate(s));
+    }
+
+    @Benchmark
+    public void splitPackageClass(Blackhole bh) {
+	for (String s : classNames)
+	    bh.consume(StringUtil.splitPackageClass(s));
+    }
+}
@@ -0,0 +1,232 @@
+package org.umlgraph.doclet;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.ConstructorDoc;
+import com.sun.javadoc.FieldDoc;
+import com.sun.javadoc.MethodDoc;
+import com.sun.javadoc.PackageDoc;
+import com.sun.javadoc.Parameter;
+import com.sun.javadoc.RootDoc;
+import com.sun.javadoc.Tag;
+import com.sun.javadoc.Type;
+
+/**
+ * An in-memory javadoc model, so that the benchmarks can drive the doclet
+ * code without the cost of javadoc parsing sources.
+ * <p>
+ * The docs are dynamic proxies answering each method by name from a map,
+ * so only the methods used by the doclet need to be filled in; the others
+ * return false, zero, an empty array, an empty string or null.
+ * <code>tags(name)</code> filters the tags, <code>findClass</code> and
+ * <code>classNamed</code> look up the classes of the model, a class is its
+ * own type, and docs print and compare as their qualified name.
+ */
+class SyntheticDocs {
+    /** The classes of the model, by qualified name */
+    private final Map<String, ClassDoc> classes = new LinkedHashMap<String, ClassDoc>();
+    private final Map<String, PackageDoc> packages = new HashMap<String, PackageDoc>();
+    private final RootDoc root;
+
+    /** Answers the methods of a doc from its map */
+    private class Answers implements InvocationHandler {
+	final Map<String, Object> answers = new HashMap<String, Object>();
+
+	public Object invoke(Object proxy, Method m, Object[] args) {
+	    String name = m.getName();
+	    int argc = args == null ? 0 : args.length;
+	    if (name.equals("equals") && argc == 1)
+		return proxy == args[0];
+	    if (name.equals("hashCode") && argc == 0)
+		return System.identityHashCode(proxy);
+	    if (name.equals("toString") && argc == 0)
+		return String.valueOf(answers.get("qualifiedName"));
+	    if (name.equals("compareTo") && argc == 1)
+		return proxy.toString().compareTo(args[0].toString());
+	    if ((name.equals("findClass") || name.equals("classNamed")) && argc == 1)
+		return classes.get(args[0]);
+	    if (name.equals("tags") && argc == 1)
+		return tags((Tag[]) answers.get("tags"), (String) args[0]);
+	    if (answers.containsKey(name))
+		return answers.get(name);
+	    if (name.equals("asClassDoc") && proxy instanceof ClassDoc)
+		return proxy;
+	    return defaultValue(m.getReturnType());
+	}
+    }
+
+    /** Creates an empty model */
+    SyntheticDocs() {
+	root = doc(RootDoc.class, "root", "root");
+	set(root, "options", new String[0][]);
+    }
+
+    /** Return the root doc of the model */
+    RootDoc root() {
+	set(root, "classes", classes.values().toArray(new ClassDoc[classes.size()]));
+	return root;
+    }
+
+    /** Return a doc of the specified interface, with its name answers set */
+    <T> T doc(Class<T> type, String name, String qualifiedName) {
+	Answers a = new Answers();
+	a.answers.put("name", name);
+	a.answers.put("qualifiedName", qualifiedName);
+	a.answers.put("tags", new Tag[0]);
+	a.answers.put("commentText", "");
+	return type.cast(Proxy.newProxyInstance(SyntheticDocs.class.getClassLoader(),
+	    new Class<?>[] { type }, a));
+    }
+
+    /** Sets the answer of the named method of the specified doc, returning the doc */
+    static <T> T set(T doc, String method, Object answer) {
+	((Answers) Proxy.getInvocationHandler(doc)).answers.put(method, answer);
+	return doc;
+    }
+
+    /** Return the named package, creating it when first used */
+    PackageDoc packageDoc(String name) {
+	PackageDoc p = packages.get(name);
+	if (p == null)
+	    packages.put(name, p = doc(PackageDoc.class, name, name));
+	return p;
+    }
+
+    /** Return a new class of the model, without members */
+    ClassDoc classDoc(String packageName, String name) {
+	String qualifiedName = packageName + "." + name;
+	ClassDoc c = doc(ClassDoc.class, name, qualifiedName);
+	set(c, "containingPackage", packageDoc(packageName));
+	set(c, "typeName", name);
+	set(c, "qualifiedTypeName", qualifiedName);
+	set(c, "isClass", true);
+	classes.put(qualifiedName, c);
+	return c;
+    }
+
+    /** Return a primitive type */
+    Type primitive(String name) {
+	Type t = doc(Type.class, name, name);
+	set(t, "typeName", name);
+	set(t, "qualifiedTypeName", name);
+	set(t, "isPrimitive", true);
+	return t;
+    }
+
+    /** Return a tag, such as "@assoc", with the specified text */
+    Tag tag(String name, String text) {
+	Tag t = doc(Tag.class, name, name);
+	set(t, "kind", name);
+	set(t, "text", text);
+	return t;
+    }
+
+    /** Return a field of the specified type */
+    FieldDoc field(ClassDoc owner, String name, Type type) {
+	FieldDoc f = doc(FieldDoc.class, name, owner.qualifiedName() + "." + name);
+	set(f, "containingClass", owner);
+	set(f, "type", type);
+	return f;
+    }
+
+    /** Return a method of the specified return and parameter types */
+    MethodDoc method(ClassDoc owner, String name, Type returnType, Type... parameterTypes) {
+	MethodDoc m = doc(MethodDoc.class, name, owner.qualifiedName() + "." + name);
+	set(m, "containingClass", owner);
+	set(m, "returnType", returnType);
+	Parameter[] parameters = new Parameter[parameterTypes.length];
+	for (int i = 0; i < parameters.length; i++) {
+	    parameters[i] = doc(Parameter.class, "p" + i, "p" + i);
+	    set(parameters[i], "type", parameterTypes[i]);
+	    set(parameters[i], "typeName", parameterTypes[i].typeName());
+	}
+	set(m, "parameters", parameters);
+	return m;
+    }
+
+    /** Return a constructor with the specified parameter types */
+    ConstructorDoc constructor(ClassDoc owner, Type... parameterTypes) {
+	ConstructorDoc c = doc(ConstructorDoc.class, owner.name(), owner.qualifiedName());
+	set(c, "containingClass", owner);
+	Parameter[] parameters = new Parameter[parameterTypes.length];
+	for (int i = 0; i < parameters.length; i++) {
+	    parameters[i] = doc(Parameter.class, "p" + i, "p" + i);
+	    set(parameters[i], "type", parameterTypes[i]);
+	}
+	set(c, "parameters", parameters);
+	return c;
+    }
+
+    /**
+     * Return a model of the specified number of classes in a few packages,
+     * each one having the specified number of fields and methods (of mixed
+     * visibility, half of them referring to other classes), extending the
+     * previous class and tagged with relations to the next ones.
+     */
+    static SyntheticDocs model(int classCount, int width) {
+	SyntheticDocs docs = new SyntheticDocs();
+	Type intType = docs.primitive("int");
+	Type voidType = docs.primitive("void");
+	ClassDoc[] cs = new ClassDoc[classCount];
+	for (int i = 0; i < classCount; i++)
+	    cs[i] = docs.classDoc("org.example.p" + (i % 4), "Class" + i);
+	for (int i = 0; i < classCount; i++) {
+	    ClassDoc c = cs[i];
+	    ClassDoc next = cs[(i + 1) % classCount], other = cs[(i + 7) % classCount];
+	    FieldDoc[] fields = new FieldDoc[width];
+	    MethodDoc[] methods = new MethodDoc[width];
+	    for (int j = 0; j < width; j++) {
+		Type t = j % 2 == 0 ? intType : cs[(i + j) % classCount];
+		fields[j] = set(docs.field(c, "field" + j, t), j % 3 == 0 ? "isPrivate" : "isProtected", true);
+		methods[j] = docs.method(c, "method" + j, j % 2 == 0 ? voidType : t, t, intType);
+		set(methods[j], "isPublic", true);
+	    }
+	    set(c, "fields", fields);
+	    set(c, "methods", methods);
+	    set(c, "constructors", new ConstructorDoc[] { docs.constructor(c), docs.constructor(c, intType, next) });
+	    if (i > 0)
+		set(c, "superclassType", cs[i - 1]);
+	    set(c, "tags", new Tag[] {
+		docs.tag("@assoc", "1 uses * " + next.qualifiedName()),
+		docs.tag("@navhas", "- - - " + other.qualifiedName()),
+		docs.tag("@depend", "- - - " + cs[(i + 3) % classCount].qualifiedName()),
+		docs.tag("@stereotype", "entity"),
+		docs.tag("@tagvalue", "version " + i),
+	    });
+	}
+	return docs;
+    }
+
+    /** Return the tags with the specified name, with or without the leading @ */
+    private static Tag[] tags(Tag[] all, String name) {
+	String tagName = name.startsWith("@") ? name : "@" + name;
+	List<Tag> found = new ArrayList<Tag>();
+	for (Tag t : all)
+	    if (t.name().equals(tagName))
+		found.add(t);
+	return found.toArray(new Tag[found.size()]);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+	if (type == boolean.class)
+	    return false;
+	if (type == int.class)
+	    return 0;
+	if (type == long.class)
+	    return 0L;
+	if (type == String.class)
+	    return "";
+	if (type.isArray())
+	    return Array.newInstance(type.getComponentType(), 0);
+	return null;
+    }
+}
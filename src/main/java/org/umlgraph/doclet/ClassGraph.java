@@ -32,17 +32,22 @@ import static org.umlgraph.doclet.StringUtil.tokenize;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.sun.javadoc.ClassDoc;
 import com.sun.javadoc.ConstructorDoc;
@@ -81,9 +86,14 @@ class ClassGraph {
     };
 
     protected Map<String, ClassInfo> classnames = new HashMap<String, ClassInfo>();
+    // the number of the next class alias; kept per graph, so that graphs can be built concurrently
+    protected int classNumber;
     protected Set<String> rootClasses;
 	protected Map<String, ClassDoc> rootClassdocs = new HashMap<String, ClassDoc>();
     protected OptionProvider optionProvider;
+    protected Options commentOptions;
+    protected TagIndex tagIndex;
+    protected MemberIndex memberIndex;
     protected PrintWriter w;
     protected ClassDoc collectionClassDoc;
     protected ClassDoc mapClassDoc;
@@ -93,6 +103,24 @@ class ClassGraph {
     // used only when generating context class diagrams in UMLDoc, to generate the proper
     // relative links to other classes in the image map
     protected final String contextPackageName;
+
+    // used when the graph exceeds the node budget: the classes drawn as package nodes,
+    // mapped to their package, the number of classes of each package, the package node
+    // aliases and the counts of the relations between package nodes, by dot edge
+    protected Map<String, String> collapsedClasses = Collections.emptyMap();
+    protected Map<String, Integer> collapsedCounts = Collections.emptyMap();
+    protected Map<String, String> packageNodes = new HashMap<String, String>();
+    protected Map<String, Integer> collapsedRelations = new LinkedHashMap<String, Integer>();
+
+    // used by UMLDoc to aggregate the relations between packages, may be null
+    protected PackageDependencies packageDependencies;
+
+    // inferred dependencies held back for the transitive reduction, as (from, to) pairs
+    protected List<ClassDoc[]> inferredDependencies = new ArrayList<ClassDoc[]>();
+
+    // the number of relations printed and of bytes written, reported to the flight recorder
+    protected int relationsPrinted;
+    protected long bytesWritten;
       
     /**
      * Create a new ClassGraph.  <p>The packages passed as an
@@ -105,6 +133,7 @@ class ClassGraph {
      */
     public ClassGraph(RootDoc root, OptionProvider optionProvider, Doc contextDoc) {
 	this.optionProvider = optionProvider;
+	this.commentOptions = UmlGraph.getCommentOptions(root);
 	this.collectionClassDoc = root.classNamed("java.util.Collection");
 	this.mapClassDoc = root.classNamed("java.util.Map");
 	
@@ -126,6 +155,8 @@ class ClassGraph {
 	    contextPackageName = null; // Not available
 	
 	Options opt = optionProvider.getGlobalOptions();
+	tagIndex = opt.tagIndex;
+	memberIndex = opt.memberIndex;
 	linePrefix = opt.compact ? "" : "\t";
 	linePostfix = opt.compact ? "" : "\n";
     }
@@ -217,18 +248,16 @@ class ClassGraph {
 	return " : " + type(opt, t, false) + t.dimension();
     }
 
-    /** Print the class's attributes fd */
-    private void attributes(Options opt, FieldDoc fd[]) {
-	for (FieldDoc f : fd) {
-	    if (hidden(f))
-		continue;
+    /** Print the class's attributes fd, within the member budget */
+    private void attributes(Options opt, FieldDoc fd[], String url) {
+	List<FieldDoc> fields = visibleMembers(fd);
+	List<FieldDoc> shown = budget(opt, fields);
+	for (FieldDoc f : shown) {
 	    stereotype(opt, f, Align.LEFT);
-	    String att = visibility(opt, f) + f.name();
-	    if (opt.showType)
-		att += typeAnnotation(opt, f.type());
-	    tableLine(Align.LEFT, att);
+	    tableLine(Align.LEFT, label(opt, f));
 	    tagvalue(opt, f);
 	}
+	moreLine(fields.size() - shown.size(), url, "field.summary");
     }
 
     /*
@@ -237,41 +266,81 @@ class ClassGraph {
      * ExecutableMemberDoc, doesn't support returnType for ctors.
      */
 
-    /** Print the class's constructors m */
-    private boolean operations(Options opt, ConstructorDoc m[]) {
-	boolean printed = false;
-	for (ConstructorDoc cd : m) {
-	    if (hidden(cd))
-		continue;
-	    stereotype(opt, cd, Align.LEFT);
-	    String cs = visibility(opt, cd) + cd.name() //
-		    + (opt.showType ? "(" + parameter(opt, cd.parameters()) + ")" : "()");
-	    tableLine(Align.LEFT, cs);
-	    tagvalue(opt, cd);
-	    printed = true;
-	}
-	return printed;
+    /** Print a class's constructor cd */
+    private void operation(Options opt, ConstructorDoc cd) {
+	stereotype(opt, cd, Align.LEFT);
+	tableLine(Align.LEFT, label(opt, cd));
+	tagvalue(opt, cd);
+    }
+
+    /** Print a class's operation md */
+    private void operation(Options opt, MethodDoc md) {
+	stereotype(opt, md, Align.LEFT);
+	tableLine(Align.LEFT, (md.isAbstract() ? Font.ABSTRACT : Font.NORMAL).wrap(opt, label(opt, md)));
+	tagvalue(opt, md);
     }
 
-    /** Print the class's operations m */
-    private boolean operations(Options opt, MethodDoc m[]) {
-	boolean printed = false;
-	for (MethodDoc md : m) {
-	    if (hidden(md))
+    /**
+     * Return the label of a field, constructor or method: its visibility,
+     * name and type, as shown with the options it depends on
+     */
+    private String label(Options opt, ProgramElementDoc m) {
+	int mode = MemberIndex.mode(opt);
+	String label = memberIndex.label(m, mode);
+	if (label != null)
+	    return label;
+	label = visibility(opt, m) + m.name();
+	if (m instanceof FieldDoc) {
+	    if (opt.showType)
+		label += typeAnnotation(opt, ((FieldDoc) m).type());
+	} else if (!opt.showType)
+	    label += "()";
+	else if (m instanceof MethodDoc)
+	    label += "(" + parameter(opt, ((MethodDoc) m).parameters()) + ")"
+		+ typeAnnotation(opt, ((MethodDoc) m).returnType());
+	else
+	    label += "(" + parameter(opt, ((ConstructorDoc) m).parameters()) + ")";
+	memberIndex.label(m, mode, label);
+	return label;
+    }
+
+    /** Return the members that are not hidden, in their original order */
+    private <T extends ProgramElementDoc> List<T> visibleMembers(T[] members) {
+	List<T> visible = new ArrayList<T>(members.length);
+	for (T m : members) {
+	    if (hidden(m))
 		continue;
 	    // Filter-out static initializer method
-	    if (md.name().equals("<clinit>") && md.isStatic() && md.isPackagePrivate())
+	    if (m.name().equals("<clinit>") && m.isStatic() && m.isPackagePrivate())
 		continue;
-	    stereotype(opt, md, Align.LEFT);
-	    String op = visibility(opt, md) + md.name() + //
-		    (opt.showType ? "(" + parameter(opt, md.parameters()) + ")" + typeAnnotation(opt, md.returnType())
-			    : "()");
-	    tableLine(Align.LEFT, (md.isAbstract() ? Font.ABSTRACT : Font.NORMAL).wrap(opt, op));
-	    printed = true;
-
-	    tagvalue(opt, md);
+	    visible.add(m);
 	}
-	return printed;
+	return visible;
+    }
+
+    /**
+     * Return the members to show in a compartment: all of them if they fit
+     * in the member budget, otherwise the most visible ones, in their
+     * original order.
+     */
+    private static <T extends ProgramElementDoc> List<T> budget(Options opt, final List<T> members) {
+	if (opt.memberBudget <= 0 || members.size() <= opt.memberBudget)
+	    return members;
+	// Rank by visibility; the sort is stable, so ties keep their order
+	List<Integer> ranked = new ArrayList<Integer>(members.size());
+	for (int i = 0; i < members.size(); i++)
+	    ranked.add(i);
+	Collections.sort(ranked, new Comparator<Integer>() {
+	    public int compare(Integer i1, Integer i2) {
+		return Visibility.get(members.get(i2)).compareTo(Visibility.get(members.get(i1)));
+	    }
+	});
+	List<Integer> kept = new ArrayList<Integer>(ranked.subList(0, opt.memberBudget));
+	Collections.sort(kept);
+	List<T> shown = new ArrayList<T>(kept.size());
+	for (int i : kept)
+	    shown.add(members.get(i));
+	return shown;
     }
 
     /** Print the common class node's properties */
@@ -295,7 +364,7 @@ class ClassGraph {
      * @param term the termination character for each tagged value
      */
     private void tagvalue(Options opt, Doc c) {
-	Tag tags[] = c.tags("tagvalue");
+	Tag tags[] = tagIndex.tags(c, "tagvalue");
 	if (tags.length == 0)
 	    return;
 	
@@ -314,7 +383,7 @@ class ClassGraph {
      * terminated by the escape character term
      */
     private void stereotype(Options opt, Doc c, Align align) {
-	for (Tag tag : c.tags("stereotype")) {
+	for (Tag tag : tagIndex.tags(c, "stereotype")) {
 	    String t[] = tokenize(tag.text());
 	    if (t.length != 1) {
 		System.err.println("@stereotype expects one field: " + tag.text());
@@ -326,7 +395,9 @@ class ClassGraph {
 
     /** Return true if c has a @hidden tag associated with it */
     private boolean hidden(ProgramElementDoc c) {
-	if (c.tags("hidden").length > 0 || c.tags("view").length > 0)
+	if (HotPathCounters.enabled)
+	    HotPathCounters.hiddenTests.increment();
+	if (tagIndex.has(c, "hidden") || tagIndex.has(c, "view"))
 	    return true;
 	Options opt = optionProvider.getOptionsFor(c instanceof ClassDoc ? (ClassDoc) c : c.containingClass());
 	return opt.matchesHideExpression(c.toString()) //
@@ -344,9 +415,14 @@ class ClassGraph {
     protected ClassInfo getClassInfo(ClassDoc cd, String className, boolean create) {
 	className = removeTemplate(className);
 	ClassInfo ci = classnames.get(className);
+	if (HotPathCounters.enabled) {
+	    HotPathCounters.classInfoLookups.increment();
+	    if (ci != null)
+		HotPathCounters.classInfoHits.increment();
+	}
 	if (ci == null && create) {
 	    boolean hidden = cd != null ? hidden(cd) : optionProvider.getOptionsFor(className).matchesHideExpression(className);
-	    ci = new ClassInfo(hidden);
+	    ci = new ClassInfo(hidden, "c" + classNumber++);
 	    classnames.put(className, ci);
 	}
 	return ci;
@@ -356,6 +432,11 @@ class ClassGraph {
     private boolean hidden(String className) {
 	className = removeTemplate(className);
 	ClassInfo ci = classnames.get(className);
+	if (HotPathCounters.enabled) {
+	    HotPathCounters.hiddenTests.increment();
+	    if (ci != null)
+		HotPathCounters.hiddenCacheHits.increment();
+	}
 	return ci != null ? ci.hidden : optionProvider.getOptionsFor(className).matchesHideExpression(className);
     }
 
@@ -374,16 +455,23 @@ class ClassGraph {
 	if (c.isEnum() && !opt.showEnumerations)
 	    return ci.name;
 	String className = c.toString();
+	String collapsedPackage = collapsedClasses.get(removeTemplate(className));
+	if (collapsedPackage != null) {
+	    ci.nodePrinted = true;
+	    return packageNode(collapsedPackage);
+	}
+	Object event = FlightEvents.beginClass();
 	// Associate classname's alias
 	w.println(linePrefix + "// " + className);
 	// Create label
 	w.print(linePrefix + ci.name + " [label=");
 
+	MemberIndex.Members members = memberIndex.members(c);
 	boolean showMembers =
-		(opt.showAttributes && c.fields().length > 0) ||
-		(c.isEnum() && opt.showEnumConstants && c.enumConstants().length > 0) ||
-		(opt.showOperations && c.methods().length > 0) ||
-		(opt.showConstructors && c.constructors().length > 0);
+		(opt.showAttributes && members.fields().length > 0) ||
+		(c.isEnum() && opt.showEnumConstants && members.enumConstants().length > 0) ||
+		(opt.showOperations && members.methods().length > 0) ||
+		(opt.showConstructors && members.constructors().length > 0);
 
 	final String url = classToUrl(c, rootClass);
 	externalTableStart(opt, c.qualifiedName(), url);
@@ -418,12 +506,12 @@ class ClassGraph {
 	if (showMembers) {
 	    if (opt.showAttributes) {
 		innerTableStart();
-		FieldDoc[] fields = c.fields();
+		FieldDoc[] fields = members.fields();
 		// if there are no fields, print an empty line to generate proper HTML
 		if (fields.length == 0)
 		    tableLine(Align.LEFT, "");
 		else
-		    attributes(opt, c.fields());
+		    attributes(opt, fields, url);
 		innerTableEnd();
 	    } else if(!c.isEnum() && (opt.showConstructors || opt.showOperations)) {
 		// show an emtpy box if we don't show attributes but
@@ -434,26 +522,39 @@ class ClassGraph {
 	    }
 	    if (c.isEnum() && opt.showEnumConstants) {
 		innerTableStart();
-		FieldDoc[] ecs = c.enumConstants();
+		FieldDoc[] ecs = members.enumConstants();
 		// if there are no constants, print an empty line to generate proper HTML
 		if (ecs.length == 0) {
 		    tableLine(Align.LEFT, "");
 		} else {
-		    for (FieldDoc fd : c.enumConstants()) {
+		    List<FieldDoc> constants = Arrays.asList(ecs);
+		    List<FieldDoc> shown = budget(opt, constants);
+		    for (FieldDoc fd : shown) {
 			tableLine(Align.LEFT, fd.name());
 		    }
+		    moreLine(constants.size() - shown.size(), url, "enum.constant.summary");
 		}
 		innerTableEnd();
 	    }
 	    if (!c.isEnum() && (opt.showConstructors || opt.showOperations)) {
 		innerTableStart();
-		boolean printedLines = false;
+		// constructors and operations share the compartment's budget
+		List<ProgramElementDoc> operations = new ArrayList<ProgramElementDoc>();
 		if (opt.showConstructors)
-		    printedLines |= operations(opt, c.constructors());
+		    operations.addAll(visibleMembers(members.constructors()));
 		if (opt.showOperations)
-		    printedLines |= operations(opt, c.methods());
+		    operations.addAll(visibleMembers(members.methods()));
+		List<ProgramElementDoc> shown = budget(opt, operations);
+		for (ProgramElementDoc m : shown) {
+		    if (m instanceof ConstructorDoc)
+			operation(opt, (ConstructorDoc) m);
+		    else
+			operation(opt, (MethodDoc) m);
+		}
+		moreLine(operations.size() - shown.size(), url,
+			opt.showOperations ? "method.summary" : "constructor.summary");
 
-		if (!printedLines)
+		if (operations.isEmpty())
 		    // if there are no operations nor constructors,
 		    // print an empty line to generate proper HTML
 		    tableLine(Align.LEFT, "");
@@ -468,24 +569,121 @@ class ClassGraph {
 
 	// If needed, add a note for this node
 	int ni = 0;
-	for (Tag t : c.tags("note")) {
+	for (Tag t : tagIndex.tags(c, "note")) {
 	    String noteName = "n" + ni + "c" + ci.name;
 	    w.print(linePrefix + "// Note annotation\n");
 	    w.print(linePrefix + noteName + " [label=");
-	    externalTableStart(UmlGraph.getCommentOptions(), c.qualifiedName(), url);
+	    externalTableStart(commentOptions, c.qualifiedName(), url);
 	    innerTableStart();
-	    tableLine(Align.LEFT, Font.CLASS.wrap(UmlGraph.getCommentOptions(), htmlNewline(escape(t.text()))));
+	    tableLine(Align.LEFT, Font.CLASS.wrap(commentOptions, htmlNewline(escape(t.text()))));
 	    innerTableEnd();
 	    externalTableEnd();
-	    nodeProperties(UmlGraph.getCommentOptions());
+	    nodeProperties(commentOptions);
 	    ClassInfo ci1 = getClassInfo(c, true);
 	    w.print(linePrefix + noteName + " -> " + ci1.name + "[arrowhead=none];\n");
 	    ni++;
 	}
 	ci.nodePrinted = true;
+	FlightEvents.classPrinted(event, className, rootClass);
 	return ci.name;
     }
 
+    /**
+     * Have the specified classes drawn as the nodes of the packages they
+     * are mapped to, with the relations between these nodes aggregated
+     * into a single edge per relation type, labeled with their count.
+     */
+    public void setCollapsedClasses(Map<String, String> collapsedClasses) {
+	this.collapsedClasses = collapsedClasses;
+	collapsedCounts = PackageCollapser.counts(collapsedClasses);
+    }
+
+    /** Return the classes printed as nodes, mapped to their package */
+    public Map<String, String> printedClasses() {
+	Map<String, String> printed = new TreeMap<String, String>();
+	for (Map.Entry<String, ClassInfo> e : classnames.entrySet()) {
+	    if (!e.getValue().nodePrinted)
+		continue;
+	    printed.put(e.getKey(), packageName(rootClassdocs.get(e.getKey()), e.getKey()));
+	}
+	return printed;
+    }
+
+    /** Return the number of classes printed as nodes */
+    int printedCount() {
+	int n = 0;
+	for (ClassInfo ci : classnames.values())
+	    if (ci.nodePrinted)
+		n++;
+	return n;
+    }
+
+    /** Return the number of relations printed so far, including those between package nodes */
+    int relationsPrinted() {
+	return relationsPrinted + collapsedRelations.size();
+    }
+
+    /** Return the number of bytes of the graph written so far */
+    long bytesWritten() {
+	return bytesWritten;
+    }
+
+    /** Return the package of a class, guessing it from the class name if its ClassDoc is null */
+    private static String packageName(ClassDoc cd, String className) {
+	if (cd != null)
+	    return cd.containingPackage().name();
+	int split = splitPackageClass(removeTemplate(className));
+	return split > 0 ? className.substring(0, split) : "";
+    }
+
+    /** Have the relations between the classes aggregated into the specified package dependencies */
+    public void setPackageDependencies(PackageDependencies packageDependencies) {
+	this.packageDependencies = packageDependencies;
+    }
+
+    /** Prints the node of a package whose classes are collapsed, if needed, and returns its alias */
+    private String packageNode(String packageName) {
+	String name = packageNodes.get(packageName);
+	if (name != null)
+	    return name;
+	name = "p" + packageNodes.size();
+	packageNodes.put(packageName, name);
+	Options opt = optionProvider.getGlobalOptions();
+	String url = packageToUrl(packageName);
+	String bgcolor = opt.nodeFillColor == null ? "" : (" bgcolor=\"" + opt.nodeFillColor + "\"");
+	String href = url == null ? "" : (" href=\"" + url + "\" target=\"_parent\"");
+	w.println(linePrefix + "// " + packageName);
+	w.print(linePrefix + name + " [label=<<table title=\"" + packageName + "\" border=\"0\" cellborder=\"0\" "
+		+ "cellspacing=\"0\" cellpadding=\"2\"" + bgcolor + href + ">" + linePostfix);
+	innerTableStart();
+	tableLine(Align.CENTER, Font.CLASS.wrap(opt, packageName.length() > 0 ? packageName : "(unnamed package)"));
+	Integer count = collapsedCounts.get(packageName);
+	tableLine(Align.CENTER, Font.PACKAGE.wrap(opt, count + (count == 1 ? " class" : " classes")));
+	innerTableEnd();
+	externalTableEnd();
+	if (url != null)
+	    w.print(", URL=\"" + url + "\"");
+	w.print(Shape.PACKAGE.style);
+	w.println("];");
+	return name;
+    }
+
+    /** Convert the name of a package among the documented ones into the URL of its summary */
+    private String packageToUrl(String packageName) {
+	boolean documented = false;
+	for (ClassDoc cd : rootClassdocs.values())
+	    if (cd.containingPackage().name().equals(packageName)) {
+		documented = true;
+		break;
+	    }
+	if (!documented)
+	    return null;
+	if (contextPackageName != null)
+	    return buildRelativePathFromClassNames(contextPackageName, packageName) + "package-summary.html";
+	String docRoot = optionProvider.getGlobalOptions().apiDocRoot;
+	return docRoot == null ? null : docRoot + packageName.replace('.', '/') + "/package-summary.html";
+    }
+
     /**
      * Print all relations for a given's class's tag
      * @param tagname the tag containing the given relation
@@ -494,7 +692,7 @@ class ClassGraph {
      */
     private void allRelation(Options opt, RelationType rt, ClassDoc from) {
 	String tagname = rt.lower;
-	for (Tag tag : from.tags(tagname)) {
+	for (Tag tag : tagIndex.tags(from, tagname)) {
 	    String t[] = tokenize(tag.text());    // l-src label l-dst target
 	    t = t.length == 1 ? new String[] { "-", "-", "-", t[0] } : t; // Shorthand
 	    if (t.length != 4) {
@@ -530,32 +728,50 @@ class ClassGraph {
 
 	ClassInfo ci1 = getClassInfo(from, fromName, true), ci2 = getClassInfo(to, toName, true);
 	String n1 = ci1.name, n2 = ci2.name;
+	String p1 = collapsedClasses.get(removeTemplate(fromName)), p2 = collapsedClasses.get(removeTemplate(toName));
+	boolean collapsed = p1 != null || p2 != null;
+	if (p1 != null)
+	    n1 = packageNode(p1);
+	if (p2 != null)
+	    n2 = packageNode(p2);
 	// For ranking we need to output extends/implements backwards.
 	if (rt.backorder) { // Swap:
-	    n1 = ci2.name;
-	    n2 = ci1.name;
+	    String tmpName = n1;
+	    n1 = n2;
+	    n2 = tmpName;
 	    String tmp = tailLabel;
 	    tailLabel = headLabel;
 	    headLabel = tmp;
 	}
 	Options def = opt.getGlobalOptions();
-	// print relation
-	w.println(linePrefix + "// " + fromName + " " + rt.lower + " " + toName);
-	w.println(linePrefix + n1 + " -> " + n2 + " [" + rt.style +
-		(opt.edgeColor != def.edgeColor ? ",color=\"" + opt.edgeColor + "\"" : "") +
-		(unLabeled ? "" :
-		    (opt.edgeFontName != def.edgeFontName ? ",fontname=\"" + opt.edgeFontName + "\"" : "") +
-		    (opt.edgeFontColor != def.edgeFontColor ? ",fontcolor=\"" + opt.edgeFontColor + "\"" : "") +
-		    (opt.edgeFontSize != def.edgeFontSize ? ",fontsize=" + fmt(opt.edgeFontSize) : "")) +
-		tailLabel + label + headLabel +
-		"];");
-	
+	// print relation, or count it among the ones of its package nodes
+	if (collapsed) {
+	    if (!n1.equals(n2)) {
+		String edge = n1 + " -> " + n2 + " [" + rt.style;
+		Integer count = collapsedRelations.get(edge);
+		collapsedRelations.put(edge, count == null ? 1 : count + 1);
+	    }
+	} else {
+	    relationsPrinted++;
+	    w.println(linePrefix + "// " + fromName + " " + rt.lower + " " + toName);
+	    w.println(linePrefix + n1 + " -> " + n2 + " [" + rt.style +
+		    (opt.edgeColor != def.edgeColor ? ",color=\"" + opt.edgeColor + "\"" : "") +
+		    (unLabeled ? "" :
+			(opt.edgeFontName != def.edgeFontName ? ",fontname=\"" + opt.edgeFontName + "\"" : "") +
+			(opt.edgeFontColor != def.edgeFontColor ? ",fontcolor=\"" + opt.edgeFontColor + "\"" : "") +
+			(opt.edgeFontSize != def.edgeFontSize ? ",fontsize=" + fmt(opt.edgeFontSize) : "")) +
+		    tailLabel + label + headLabel +
+		    "];");
+	}
+
 	// update relation info
 	RelationDirection d = RelationDirection.BOTH;
 	if(rt == RelationType.NAVASSOC || rt == RelationType.DEPEND)
 	    d = RelationDirection.OUT;
 	ci1.addRelation(toName, rt, d);
 	ci2.addRelation(fromName, rt, d.inverse());
+	if (packageDependencies != null)
+	    packageDependencies.addRelation(packageName(from, fromName), packageName(to, toName));
     }
 
     /**
@@ -580,7 +796,7 @@ class ClassGraph {
 	if (sc != null && !c.isEnum() && !hidden(sc))
 	    relation(opt, RelationType.EXTENDS, c, sc, null, null, null);
 	// Print generalizations (through @extends tags)
-	for (Tag tag : c.tags("extends"))
+	for (Tag tag : tagIndex.tags(c, "extends"))
 	    if (!hidden(tag.text()))
 		relation(opt, RelationType.EXTENDS, c, c.findClass(tag.text()), null, null, null);
 	// Print realizations (Java interfaces)
@@ -615,6 +831,12 @@ class ClassGraph {
 	    Options opt = optionProvider.getOptionsFor(className);
 	    if(opt.matchesHideExpression(className))
 		continue;
+	    info.nodePrinted = true;
+	    String collapsedPackage = collapsedClasses.get(className);
+	    if (collapsedPackage != null) {
+		packageNode(collapsedPackage);
+		continue;
+	    }
 	    w.println(linePrefix + "// " + className);
 	    w.print(linePrefix  + info.name + "[label=");
 	    externalTableStart(opt, className, classToUrl(className));
@@ -650,7 +872,7 @@ class ClassGraph {
 
 	Options opt = optionProvider.getOptionsFor(c);
 
-	for (FieldDoc field : c.fields(false)) {
+	for (FieldDoc field : memberIndex.members(c).declaredFields()) {
 	    if(hidden(field))
 		continue;
 	    // skip statics
@@ -669,7 +891,9 @@ class ClassGraph {
 	    if (rp == null) {
 		String destAdornment = fri.multiple ? "*" : "";
 		relation(opt, opt.inferRelationshipType, c, fri.cd, "", "", destAdornment);
-            }
+            } else if (packageDependencies != null)
+		// not drawn, but still a dependency between the packages
+		packageDependencies.addRelation(packageName(c, null), packageName(fri.cd, null));
 	}
     }
 
@@ -694,8 +918,9 @@ class ClassGraph {
 
 	Options opt = optionProvider.getOptionsFor(c);
 	Set<Type> types = new HashSet<Type>();
+	MemberIndex.Members members = memberIndex.members(c);
 	// harvest method return and parameter types
-	for (MethodDoc method : filterByVisibility(c.methods(false), opt.inferDependencyVisibility)) {
+	for (MethodDoc method : filterByVisibility(members.declaredMethods(), opt.inferDependencyVisibility)) {
 	    types.add(method.returnType());
 	    for (Parameter parameter : method.parameters()) {
 		types.add(parameter.type());
@@ -703,7 +928,7 @@ class ClassGraph {
 	}
 	// and the field types
 	if (!opt.inferRelationships) {
-	    for (FieldDoc field : filterByVisibility(c.fields(false), opt.inferDependencyVisibility)) {
+	    for (FieldDoc field : filterByVisibility(members.declaredFields(), opt.inferDependencyVisibility)) {
 		types.add(field.type());
 	    }
 	}
@@ -744,12 +969,75 @@ class ClassGraph {
 	    // if source and dest are not already linked, add a dependency
 	    RelationPattern rp = getClassInfo(c, true).getRelation(fc.toString());
 	    if (rp == null || rp.matchesOne(new RelationPattern(RelationDirection.OUT))) {
-		relation(opt, RelationType.DEPEND, c, fc, "", "", "");
-	    }
+		if (optionProvider.getGlobalOptions().inferDepReduce) {
+		    // record it now, so that inference works as usual, but print it later
+		    getClassInfo(c, true).addRelation(fc.toString(), RelationType.DEPEND, RelationDirection.OUT);
+		    getClassInfo(fc, true).addRelation(c.toString(), RelationType.DEPEND, RelationDirection.IN);
+		    inferredDependencies.add(new ClassDoc[] { c, fc });
+		} else
+		    relation(opt, RelationType.DEPEND, c, fc, "", "", "");
+	    } else if (packageDependencies != null)
+		// not drawn, but still a dependency between the packages
+		packageDependencies.addRelation(packageName(c, null), packageName(fc, null));
 	    
 	}
     }
     
+    /**
+     * Prints the inferred dependencies held back by the inferdepreduce option,
+     * except for those implied by a path of other dependencies. The
+     * dependencies are examined in turn, each one left out only if its target
+     * is still reachable without it, so that no reachability is lost even
+     * when the dependencies form cycles.
+     * @return the number of dependencies left out
+     */
+    public int printReducedDependencies() {
+	// the dependency graph, both tagged and inferred
+	Map<String, Set<String>> graph = new HashMap<String, Set<String>>();
+	for (Map.Entry<String, ClassInfo> e : classnames.entrySet()) {
+	    Set<String> targets = new HashSet<String>();
+	    for (Map.Entry<String, RelationPattern> r : e.getValue().relatedClasses.entrySet())
+		if (r.getValue().directions[RelationType.DEPEND.ordinal()].contains(RelationDirection.OUT))
+		    targets.add(removeTemplate(r.getKey()));
+	    graph.put(e.getKey(), targets);
+	}
+
+	int dropped = 0;
+	for (ClassDoc[] dep : inferredDependencies) {
+	    String from = removeTemplate(dep[0].toString()), to = removeTemplate(dep[1].toString());
+	    Set<String> targets = graph.get(from);
+	    targets.remove(to);
+	    if (reachable(graph, from, to)) {
+		dropped++;
+		continue;
+	    }
+	    targets.add(to);
+	    relation(optionProvider.getOptionsFor(dep[0]), RelationType.DEPEND, dep[0], dep[1], "", "", "");
+	}
+	inferredDependencies.clear();
+	return dropped;
+    }
+
+    /** Return true if the dependency graph has a path between the specified classes */
+    private static boolean reachable(Map<String, Set<String>> graph, String from, String to) {
+	Set<String> visited = new HashSet<String>();
+	List<String> pending = new ArrayList<String>();
+	pending.add(from);
+	visited.add(from);
+	while (!pending.isEmpty()) {
+	    Set<String> targets = graph.get(pending.remove(pending.size() - 1));
+	    if (targets == null)
+		continue;
+	    for (String t : targets) {
+		if (t.equals(to))
+		    return true;
+		if (visited.add(t))
+		    pending.add(t);
+	    }
+	}
+	return false;
+    }
+
     /**
      * Returns all program element docs that have a visibility greater or
      * equal than the specified level
@@ -851,24 +1139,30 @@ class ClassGraph {
     /** Dot prologue 
      * @throws IOException */
     public void prologue() throws IOException {
+	prologue(null);
+    }
+
+    /** Dot prologue, writing the graph to the specified stream
+     * instead of the configured output file, unless it is null
+     * @throws IOException */
+    public void prologue(OutputStream os) throws IOException {
 	Options opt = optionProvider.getGlobalOptions();
-	OutputStream os;
 
-	if (opt.outputFileName.equals("-"))
-	    os = System.out;
-	else {
-	    // prepare output file. Use the output file name as a full path unless the output
-	    // directory is specified
-	    File file = new File(opt.outputDirectory, opt.outputFileName);
-	    // make sure the output directory are there, otherwise create them
-	    if (file.getParentFile() != null
-		&& !file.getParentFile().exists())
-		file.getParentFile().mkdirs();
-	    os = new FileOutputStream(file);
-	}
+	if (os == null)
+	    os = openOutput(opt);
 
 	// print prologue
-	w = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(os), opt.outputEncoding));
+	w = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FilterOutputStream(os) {
+	    public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		bytesWritten += len;
+	    }
+
+	    public void write(int b) throws IOException {
+		out.write(b);
+		bytesWritten++;
+	    }
+	}), opt.outputEncoding));
 	w.println(
 	    "#!/usr/local/bin/dot\n" +
 	    "#\n" +
@@ -897,8 +1191,24 @@ class ClassGraph {
 	    w.println(linePrefix + "bgcolor=\"" + opt.bgColor + "\";\n");
     }
 
+    /** Open the output file specified by the options */
+    static OutputStream openOutput(Options opt) throws IOException {
+	if (opt.outputFileName.equals("-"))
+	    return System.out;
+	// prepare output file. Use the output file name as a full path unless the output
+	// directory is specified
+	File file = new File(opt.outputDirectory, opt.outputFileName);
+	// make sure the output directory are there, otherwise create them
+	if (file.getParentFile() != null
+	    && !file.getParentFile().exists())
+	    file.getParentFile().mkdirs();
+	return new FileOutputStream(file);
+    }
+
     /** Dot epilogue */
     public void epilogue() {
+	for (Map.Entry<String, Integer> e : collapsedRelations.entrySet())
+	    w.println(linePrefix + e.getKey() + ",label=\"" + e.getValue() + "\"];");
 	w.println("}\n");
 	w.flush();
 	w.close();
@@ -949,6 +1259,20 @@ class ClassGraph {
 		+ " </td></tr>" + linePostfix);
     }
 
+    /**
+     * Print the row standing for the members left out of a compartment,
+     * linking to their summary in the class's javadoc
+     */
+    private void moreLine(int omitted, String url, String anchor) {
+	if (omitted <= 0)
+	    return;
+	String href = url == null ? "" : (" href=\"" + url + "#" + anchor + "\" target=\"_parent\"");
+	w.print(linePrefix + linePrefix //
+		+ "<tr><td align=\"left\" balign=\"left\"" + href + "> " //
+		+ "<i>+" + omitted + " more</i>" //
+		+ " </td></tr>" + linePostfix);
+    }
+
     private static class FieldRelationInfo {
 	ClassDoc cd;
 	boolean multiple;
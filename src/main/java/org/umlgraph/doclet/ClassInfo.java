@@ -29,7 +29,6 @@ import java.util.Map;
  * @author <a href="http://www.spinellis.gr">Diomidis Spinellis</a>
  */
 class ClassInfo {
-    private static int classNumber;
     /** Alias name for the class */
     final String name;
     /** True if the class class node has been printed */
@@ -43,10 +42,13 @@ class ClassInfo {
      */
     Map<String, RelationPattern> relatedClasses = new HashMap<String, RelationPattern>();
 
-    ClassInfo(boolean h) {
+    /**
+     * @param h true if the class is hidden
+     * @param n the alias name, unique within its graph
+     */
+    ClassInfo(boolean h, String n) {
 	hidden = h;
-	name = "c" + classNumber;
-	classNumber++;
+	name = n;
     }
     
     public void addRelation(String dest, RelationType rt, RelationDirection d) {
@@ -62,11 +64,6 @@ class ClassInfo {
 	return relatedClasses.get(dest);
     }
 
-    /** Start numbering from zero. */
-    public static void reset() {
-	classNumber = 0;
-    }
-
     
 }
 
@@ -0,0 +1,192 @@
+package org.umlgraph.doclet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.sun.javadoc.RootDoc;
+
+/**
+ * The model of the documented classes, written once as JSON for the viewer
+ * script that draws the context of each class in its javadoc page, instead
+ * of a context diagram rendered by Graphviz for every class.
+ * <p>
+ * The model is taken from the dot graph of all classes, so that it has the
+ * same nodes, compartments and relations as the diagrams would. The JSON
+ * is assigned to a script variable, which, unlike a plain JSON file, can
+ * also be loaded by pages browsed from the file system.
+ *
+ * @depend - - - DotGraph
+ * @depend - - - HtmlLabel
+ * @depend - - - RelationType
+ */
+class ContextModel {
+    /** The files written to the javadoc root */
+    static final String MODEL_FILE = "umlgraph-model.js", VIEWER_FILE = "umlgraph-viewer.js";
+
+    /** The edge attributes telling the relation types apart */
+    private static final String[] STYLE_KEYS = { "arrowhead", "arrowtail", "dir", "style" };
+    /** The ids of the class nodes; notes and other nodes are left out */
+    private static final Pattern CLASS_NODE = Pattern.compile("c\\d+");
+
+    private ContextModel() {}
+
+    /** Writes the model of the classes and the viewer script to the output folder */
+    static void write(RootDoc root, Options opt, String outputFolder) throws IOException {
+	Options modelOpt = (Options) opt.clone();
+	// the links are relative to the javadoc root, where the model is
+	modelOpt.apiDocRoot = "";
+	ClassGraph c = new ClassGraph(root, modelOpt, null);
+	ByteArrayOutputStream dot = new ByteArrayOutputStream();
+	UmlGraph.printGraph(root, c, dot);
+	DotGraph graph = DotGraph.parse(new String(dot.toByteArray(), opt.outputEncoding));
+
+	Writer w = new OutputStreamWriter(new FileOutputStream(new File(outputFolder, MODEL_FILE)), "UTF-8");
+	try {
+	    w.write("var umlgraphModel = ");
+	    w.write(toJson(graph));
+	    w.write(";\n");
+	} finally {
+	    w.close();
+	}
+	copyViewer(new File(outputFolder, VIEWER_FILE));
+    }
+
+    /** Return the JSON form of the classes and relations of a graph */
+    static String toJson(DotGraph graph) {
+	String face = graph.nodeDefaults.get("fontname");
+	double size = 10;
+	try {
+	    size = Double.parseDouble(graph.nodeDefaults.get("fontsize"));
+	} catch (Exception e) {
+	    // keep the default size
+	}
+
+	StringBuilder sb = new StringBuilder("{\"nodes\":[");
+	Map<DotGraph.Node, Integer> index = new HashMap<DotGraph.Node, Integer>();
+	for (DotGraph.Node n : graph.nodes.values()) {
+	    if (!CLASS_NODE.matcher(n.id).matches() || graph.attribute(n, "label") == null)
+		continue;
+	    HtmlLabel label = HtmlLabel.parse(graph.attribute(n, "label"), face, size);
+	    if (label.title == null)
+		continue;
+	    if (!index.isEmpty())
+		sb.append(',');
+	    index.put(n, index.size());
+	    sb.append("{\"name\":").append(string(label.title));
+	    String url = graph.attribute(n, "URL");
+	    if (url != null)
+		sb.append(",\"url\":").append(string(url));
+	    sb.append(",\"compartments\":[");
+	    for (int i = 0; i < label.compartments.size(); i++) {
+		sb.append(i > 0 ? ",[" : "[");
+		List<HtmlLabel.Line> lines = label.compartments.get(i).lines;
+		for (int j = 0; j < lines.size(); j++) {
+		    StringBuilder text = new StringBuilder();
+		    for (HtmlLabel.Span s : lines.get(j).spans)
+			text.append(s.text);
+		    sb.append(j > 0 ? "," : "").append(string(HtmlLabel.plainText(text.toString())));
+		}
+		sb.append(']');
+	    }
+	    sb.append("]}");
+	}
+
+	sb.append("],\"edges\":[");
+	boolean first = true;
+	for (DotGraph.Edge e : graph.edges) {
+	    Integer from = index.get(e.tail), to = index.get(e.head);
+	    RelationType rt = relationType(graph, e);
+	    if (from == null || to == null || rt == null)
+		continue;
+	    String fromLabel = graph.attribute(e, "taillabel"), toLabel = graph.attribute(e, "headlabel");
+	    // undo the swap ClassGraph applies to rank the general classes higher
+	    if (rt.backorder) {
+		Integer t = from;
+		from = to;
+		to = t;
+		String l = fromLabel;
+		fromLabel = toLabel;
+		toLabel = l;
+	    }
+	    sb.append(first ? "" : ",").append("{\"from\":").append(from).append(",\"to\":").append(to)
+		.append(",\"type\":").append(string(rt.lower));
+	    label(sb, "fromLabel", fromLabel);
+	    label(sb, "label", graph.attribute(e, "label"));
+	    label(sb, "toLabel", toLabel);
+	    sb.append('}');
+	    first = false;
+	}
+	return sb.append("]}").toString();
+    }
+
+    /** Return the relation type drawn by an edge, or null if none */
+    private static RelationType relationType(DotGraph graph, DotGraph.Edge e) {
+	for (RelationType rt : RelationType.values()) {
+	    Map<String, String> style = new HashMap<String, String>();
+	    for (String s : rt.style.split(",")) {
+		String[] kv = s.split("=", 2);
+		style.put(kv[0], kv[1]);
+	    }
+	    boolean matches = true;
+	    for (String key : STYLE_KEYS) {
+		String v = graph.attribute(e, key);
+		if (v == null ? style.get(key) != null : !v.equals(style.get(key)))
+		    matches = false;
+	    }
+	    if (matches)
+		return rt;
+	}
+	return null;
+    }
+
+    private static void label(StringBuilder sb, String key, String value) {
+	if (value != null && value.length() > 0)
+	    sb.append(",\"").append(key).append("\":").append(string(HtmlLabel.plainText(value)));
+    }
+
+    /** Return a JSON string literal, also safe within a script element */
+    static String string(String s) {
+	StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+	for (int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c == '"' || c == '\\')
+		sb.append('\\').append(c);
+	    else if (c == '/' && i > 0 && s.charAt(i - 1) == '<')
+		sb.append("\\/");
+	    else if (c < ' ')
+		sb.append(String.format("\\u%04x", (int) c));
+	    else
+		sb.append(c);
+	}
+	return sb.append('"').toString();
+    }
+
+    /** Copies the viewer script, shipped along with the classes */
+    private static void copyViewer(File target) throws IOException {
+	InputStream in = ContextModel.class.getResourceAsStream(VIEWER_FILE);
+	if (in == null)
+	    throw new IOException("Missing resource " + VIEWER_FILE);
+	OutputStream out = null;
+	try {
+	    out = new FileOutputStream(target);
+	    byte[] buf = new byte[8192];
+	    int n;
+	    while ((n = in.read(buf)) > 0)
+		out.write(buf, 0, n);
+	} finally {
+	    in.close();
+	    if (out != null)
+		out.close();
+	}
+    }
+}
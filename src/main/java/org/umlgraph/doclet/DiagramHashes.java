@@ -0,0 +1,116 @@
+package org.umlgraph.doclet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The canonical hashes of the UmlGraphDoc diagrams, kept from one run to
+ * the next in the output folder (see the reusediagrams option). A diagram
+ * whose dot graph has the same hash as in the previous run, see
+ * {@link DotDiff#hash(java.io.Reader)}, and whose SVG file is still there,
+ * need not be rendered again.
+ * <p>
+ * The hashes are only valid for the UMLGraph version and the rendering
+ * options they were recorded with; a run with others renders all diagrams.
+ *
+ * @depend - - - DotDiff
+ */
+class DiagramHashes {
+    /** The file written to the javadoc root */
+    static final String HASH_FILE = "umlgraph-diagrams.properties";
+    /** The key of the version and rendering options */
+    private static final String FINGERPRINT = "fingerprint";
+
+    private final File file;
+    private final URI base;
+    private final boolean svgz;
+    private final String fingerprint;
+    /** The hashes of the previous run, by dot file path relative to the output folder */
+    private final Properties previous = new Properties();
+    /** The hashes of this run */
+    private final Map<String, String> current = new ConcurrentHashMap<String, String>();
+
+    DiagramHashes(String outputFolder, Options opt) {
+	File folder = new File(outputFolder);
+	this.file = new File(folder, HASH_FILE);
+	this.base = folder.toURI();
+	this.svgz = opt.svgz;
+	this.fingerprint = Version.VERSION + " " + opt.dotExecutable + " " + opt.svgMinify + " " + opt.svgz
+	    + " " + opt.builtinLayoutNodes + " " + opt.dotLargeNodes + " " + opt.dotLargeEdges
+	    + " " + opt.dotLargeEngine + " " + opt.dotTimeout;
+	load();
+    }
+
+    /** Loads the hashes of the previous run, if any was made with the same options */
+    private void load() {
+	if (!file.exists())
+	    return;
+	InputStream is = null;
+	try {
+	    is = new BufferedInputStream(new FileInputStream(file));
+	    previous.load(is);
+	} catch (IOException e) {
+	    // the diagrams are all rendered again
+	    previous.clear();
+	} finally {
+	    if (is != null)
+		try {
+		    is.close();
+		} catch (IOException e) {}
+	}
+	if (!fingerprint.equals(previous.getProperty(FINGERPRINT)))
+	    previous.clear();
+    }
+
+    private String key(File dotFile) {
+	return base.relativize(dotFile.toURI()).getPath();
+    }
+
+    /**
+     * Records the hash of a diagram, returning true if it was the same in
+     * the previous run and its SVG file is still there
+     */
+    boolean unchanged(File dotFile, long hash) {
+	String key = key(dotFile);
+	String value = Long.toHexString(hash);
+	current.put(key, value);
+	return value.equals(previous.getProperty(key)) && rendered(dotFile);
+    }
+
+    /** Forgets the hash of a diagram that failed to render, its SVG file being stale */
+    void failed(File dotFile) {
+	current.remove(key(dotFile));
+    }
+
+    /** True if the SVG file of a diagram, and its compressed copy when used, are there */
+    private boolean rendered(File dotFile) {
+	File svgFile = GraphvizRunner.svgFile(dotFile);
+	return svgFile.length() > 0 && (!svgz || SvgPostProcessor.svgzFile(svgFile).length() > 0);
+    }
+
+    /** Writes the hashes of the diagrams rendered by this run, for the next one */
+    void write() throws IOException {
+	Properties hashes = new Properties();
+	hashes.setProperty(FINGERPRINT, fingerprint);
+	File folder = new File(base);
+	for (Map.Entry<String, String> e : current.entrySet())
+	    if (rendered(new File(folder, e.getKey())))
+		hashes.setProperty(e.getKey(), e.getValue());
+	OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+	try {
+	    hashes.store(os, "Canonical hashes of the UMLGraph diagrams, see -reusediagrams");
+	} finally {
+	    os.close();
+	}
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * UmlGraph structural comparison of dot graphs
+ *
+ * Contibuted by Andrea Aime
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.doclet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Structural comparison of the dot graphs written by UmlGraph.
+ * <p>
+ * Two graphs are structurally equal if they have the same nodes, compared
+ * by their labels (by their names if they have none) and attributes, the
+ * same arcs, compared by the labels of their ends and their attributes,
+ * and the same other statements, regardless of their order, of the node
+ * names and of the edge ports. Numbers are compared by their value, and
+ * HTML labels without the white space next to their tags.
+ * <p>
+ * {@link #hash(Reader)} reduces a graph to a canonical hash in a single
+ * pass over its text, the hash of each element being summed up so that
+ * the order of the elements does not matter; UmlGraphDoc uses it to skip
+ * the diagrams that have not changed since the previous run (see the
+ * reusediagrams option). The constructor compares two graphs, listing
+ * the elements found in one of them only.
+ */
+public class DotDiff {
+
+    /** A node, arc, or other statement of a graph, in its canonical form */
+    public static class Element {
+	/** The canonical text of the element, used for comparing it */
+	final String key;
+	private final String description;
+
+	Element(String key, String description) {
+	    this.key = key;
+	    this.description = description;
+	}
+
+	public boolean equals(Object other) {
+	    return other instanceof Element && ((Element) other).key.equals(key);
+	}
+
+	public int hashCode() {
+	    return key.hashCode();
+	}
+
+	public String toString() {
+	    return description;
+	}
+    }
+
+    /** The elements of a graph, by kind */
+    private static class Elements {
+	final List<Element> nodes = new ArrayList<Element>();
+	final List<Element> arcs = new ArrayList<Element>();
+	final List<Element> statements = new ArrayList<Element>();
+	long hash;
+
+	void add(List<Element> list, String key, String description) {
+	    hash += mix(key);
+	    if (list != null)
+		list.add(new Element(key, description.replace("\n", "\\n")));
+	}
+    }
+
+    private final Elements first, second;
+
+    /**
+     * Builds a dot differ on the two files
+     */
+    public DotDiff(File dotFirst, File dotSecond) throws IOException {
+	first = read(dotFirst, true);
+	second = read(dotSecond, true);
+	removeCommon(first.statements, second.statements);
+	removeCommon(first.nodes, second.nodes);
+	removeCommon(first.arcs, second.arcs);
+    }
+
+    /** Removes from both lists the elements they have in common */
+    private static void removeCommon(List<Element> l1, List<Element> l2) {
+	Map<Element, Integer> counts = new HashMap<Element, Integer>();
+	for (Element e : l2) {
+	    Integer n = counts.get(e);
+	    counts.put(e, n == null ? 1 : n + 1);
+	}
+	Map<Element, Integer> matched = new HashMap<Element, Integer>();
+	for (Iterator<Element> it = l1.iterator(); it.hasNext();) {
+	    Element e = it.next();
+	    Integer n = counts.get(e);
+	    if (n != null && n > 0) {
+		counts.put(e, n - 1);
+		Integer m = matched.get(e);
+		matched.put(e, m == null ? 1 : m + 1);
+		it.remove();
+	    }
+	}
+	for (Iterator<Element> it = l2.iterator(); it.hasNext();) {
+	    Element e = it.next();
+	    Integer m = matched.get(e);
+	    if (m != null && m > 0) {
+		matched.put(e, m - 1);
+		it.remove();
+	    }
+	}
+    }
+
+    /**
+     * Returns true if the dot files are structurally equal, that is, if every
+     * node, arc and statement of the first file appears in the second, and
+     * conversely.
+     */
+    public boolean graphEquals() {
+	return (first.statements.size() + second.statements.size() + first.nodes.size()
+		+ second.nodes.size() + first.arcs.size() + second.arcs.size()) == 0;
+    }
+
+    public List<Element> getArcs1() {
+	return first.arcs;
+    }
+
+    public List<Element> getArcs2() {
+	return second.arcs;
+    }
+
+    public List<Element> getExtraLines1() {
+	return first.statements;
+    }
+
+    public List<Element> getExtraLines2() {
+	return second.statements;
+    }
+
+    public List<Element> getNodes1() {
+	return first.nodes;
+    }
+
+    public List<Element> getNodes2() {
+	return second.nodes;
+    }
+
+    /** Return the canonical hash of a dot graph; structurally equal graphs have the same hash */
+    public static long hash(Reader r) throws IOException {
+	Elements elements = new Elements();
+	parse(r, elements, false);
+	return elements.hash;
+    }
+
+    /** Return the canonical hash of a dot file, read as UTF-8 */
+    public static long hash(File dotFile) throws IOException {
+	return read(dotFile, false).hash;
+    }
+
+    private static Elements read(File dotFile, boolean keep) throws IOException {
+	Elements elements = new Elements();
+	Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(dotFile), "UTF-8"));
+	try {
+	    parse(r, elements, keep);
+	} finally {
+	    r.close();
+	}
+	return elements;
+    }
+
+    /** An arc whose ends are resolved to their labels at the end of the graph */
+    private static class Arc {
+	final String from, to, attributes;
+
+	Arc(String from, String to, String attributes) {
+	    this.from = from;
+	    this.to = to;
+	    this.attributes = attributes;
+	}
+    }
+
+    /**
+     * Parses a graph, adding the hash of its elements, and the elements
+     * themselves if keep is true. The nodes and statements are added as they
+     * are read; the arcs are added at the end, once all node labels are known.
+     */
+    private static void parse(Reader r, Elements elements, boolean keep) throws IOException {
+	Lexer lex = new Lexer(r);
+	Map<String, String> labels = new HashMap<String, String>();
+	List<Arc> arcs = new ArrayList<Arc>();
+	int depth = 0;
+	for (String t = lex.next(); t != null; t = lex.next()) {
+	    if (lex.punct && t.equals(";"))
+		continue;
+	    if (lex.punct && t.equals("{")) {
+		depth++;
+		continue;
+	    }
+	    if (lex.punct && t.equals("}")) {
+		depth--;
+		continue;
+	    }
+	    if (!lex.quoted && t.equals("strict"))
+		continue;
+	    if (!lex.quoted && (t.equals("digraph") || t.equals("graph") || t.equals("subgraph"))) {
+		// a graph or subgraph header, or a graph attribute statement
+		String next = lex.next();
+		if (t.equals("graph") && depth > 0 && "[".equals(next)) {
+		    statement(elements, keep, "graph", attributes(lex));
+		    continue;
+		}
+		if (next != null && !(lex.punct && next.equals("{")))
+		    next = lex.next();
+		if (next != null && !(lex.punct && next.equals("{")))
+		    lex.pushBack();
+		else if (next != null)
+		    depth++;
+		continue;
+	    }
+	    String id = t;
+	    boolean keyword = !lex.quoted && (id.equals("node") || id.equals("edge"));
+	    String next = lex.next();
+	    if (keyword && "[".equals(next)) {
+		statement(elements, keep, id, attributes(lex));
+	    } else if (lex.punct && "=".equals(next)) {
+		Map<String, String> attribute = new TreeMap<String, String>();
+		attribute.put(id, value(lex.next()));
+		statement(elements, keep, "", attribute);
+	    } else {
+		if (lex.punct && ":".equals(next))
+		    next = skipPort(lex);
+		if (lex.punct && ("->".equals(next) || "--".equals(next))) {
+		    List<String> ends = new ArrayList<String>();
+		    ends.add(id);
+		    while (lex.punct && ("->".equals(next) || "--".equals(next))) {
+			ends.add(lex.next());
+			next = lex.next();
+			if (lex.punct && ":".equals(next))
+			    next = skipPort(lex);
+		    }
+		    String attrs = "";
+		    if (lex.punct && "[".equals(next))
+			attrs = attributes(lex).toString();
+		    else if (next != null)
+			lex.pushBack();
+		    for (int i = 1; i < ends.size(); i++)
+			arcs.add(new Arc(ends.get(i - 1), ends.get(i), attrs));
+		} else {
+		    Map<String, String> attrs;
+		    if (lex.punct && "[".equals(next))
+			attrs = attributes(lex);
+		    else {
+			attrs = new TreeMap<String, String>();
+			if (next != null)
+			    lex.pushBack();
+		    }
+		    String label = attrs.get("label");
+		    if (label != null)
+			labels.put(id, label);
+		    String key = "N" + (label == null ? "#" + id : "") + attrs;
+		    elements.add(keep ? elements.nodes : null, key,
+			"Node: " + (label == null ? id : label) + "; " + attrs);
+		}
+	    }
+	}
+	for (Arc a : arcs) {
+	    String from = end(labels, a.from), to = end(labels, a.to);
+	    elements.add(keep ? elements.arcs : null, "A" + from + "\u0000" + to + a.attributes,
+		"Arc: " + from + " -> " + to + "; " + a.attributes);
+	}
+    }
+
+    /** Adds a graph, node or edge statement, or a graph attribute if the keyword is empty */
+    private static void statement(Elements elements, boolean keep, String keyword,
+	    Map<String, String> attrs) {
+	elements.add(keep ? elements.statements : null, "S" + keyword + attrs,
+	    keyword.length() > 0 ? keyword + " " + attrs : attrs.toString());
+    }
+
+    /** Return what an arc end is compared by: the label of the node, or its name */
+    private static String end(Map<String, String> labels, String name) {
+	String label = labels.get(name);
+	return label != null ? label : "#" + name;
+    }
+
+    /** Skips the port (and compass point) after a node name; returns the token following them */
+    private static String skipPort(Lexer lex) throws IOException {
+	lex.next();
+	String next = lex.next();
+	if (lex.punct && ":".equals(next)) {
+	    lex.next();
+	    next = lex.next();
+	}
+	return next;
+    }
+
+    /** Parse an attribute list, after the opening bracket, into a sorted map */
+    private static Map<String, String> attributes(Lexer lex) throws IOException {
+	Map<String, String> attrs = new TreeMap<String, String>();
+	for (String t = lex.next(); t != null; t = lex.next()) {
+	    if (lex.punct && t.equals("]"))
+		return attrs;
+	    if (lex.punct && (t.equals(",") || t.equals(";")))
+		continue;
+	    String key = t;
+	    t = lex.next();
+	    if (lex.punct && "=".equals(t)) {
+		attrs.put(key, value(lex.next()));
+	    } else {
+		attrs.put(key, "true");
+		if (t != null)
+		    lex.pushBack();
+	    }
+	}
+	throw new IOException("Unterminated attribute list");
+    }
+
+    /** Return the canonical form of a value: numbers are compared by their value */
+    private static String value(String v) {
+	if (v == null)
+	    return "";
+	int i = 0, n = v.length();
+	if (n == 0 || n > 24)
+	    return v;
+	if (v.charAt(0) == '-')
+	    i++;
+	boolean digits = false, point = false;
+	for (; i < n; i++) {
+	    char c = v.charAt(i);
+	    if (c >= '0' && c <= '9')
+		digits = true;
+	    else if (c == '.' && !point)
+		point = true;
+	    else
+		return v;
+	}
+	return digits ? String.valueOf(Double.parseDouble(v)) : v;
+    }
+
+    /** Return the hash of an element, spread over all bits so that sums of them rarely collide */
+    private static long mix(String key) {
+	// 64 bit FNV-1a
+	long h = 0xcbf29ce484222325L;
+	for (int i = 0; i < key.length(); i++) {
+	    h ^= key.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	// the finalizer of MurmurHash3
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+    /** A tokenizer for the dot language, reading its input once */
+    private static class Lexer {
+	private final Reader r;
+	/** The next character, or -1 at the end of the input */
+	private int c;
+	/** True if the next character starts a line */
+	private boolean lineStart = true;
+	private String last;
+	private boolean lastPunct, lastQuoted, pushedBack;
+	/** True if the last token was punctuation */
+	boolean punct;
+	/** True if the last token was a quoted or HTML string */
+	boolean quoted;
+	private final StringBuilder sb = new StringBuilder();
+
+	Lexer(Reader r) throws IOException {
+	    this.r = r;
+	    c = r.read();
+	}
+
+	/** Has the last token returned again by the next call to next() */
+	void pushBack() {
+	    pushedBack = true;
+	}
+
+	private void advance() throws IOException {
+	    // a line start is only left at its first non blank character
+	    lineStart = c == '\n' || (lineStart && (c == ' ' || c == '\t'));
+	    c = r.read();
+	}
+
+	/** Return the next token, or null at the end of the input */
+	String next() throws IOException {
+	    if (pushedBack) {
+		pushedBack = false;
+		punct = lastPunct;
+		quoted = lastQuoted;
+		return last;
+	    }
+	    last = token();
+	    lastPunct = punct;
+	    lastQuoted = quoted;
+	    return last;
+	}
+
+	private String token() throws IOException {
+	    skipBlanks();
+	    punct = quoted = false;
+	    if (c < 0)
+		return null;
+	    sb.setLength(0);
+	    if (c == '"') {
+		for (advance(); c >= 0 && c != '"'; advance()) {
+		    if (c == '\\') {
+			advance();
+			if (c == '\n')
+			    continue;
+			if (c != '"')
+			    sb.append('\\');
+			if (c < 0)
+			    break;
+		    }
+		    sb.append((char) c);
+		}
+		advance();
+		quoted = true;
+		return sb.toString();
+	    }
+	    if (c == '<') {
+		// white space runs are collapsed, and dropped next to the tags
+		int depth = 0;
+		boolean space = false;
+		for (; c >= 0; advance()) {
+		    if (Character.isWhitespace(c)) {
+			space = true;
+			continue;
+		    }
+		    if (space && c != '<' && sb.charAt(sb.length() - 1) != '>')
+			sb.append(' ');
+		    space = false;
+		    sb.append((char) c);
+		    if (c == '<')
+			depth++;
+		    else if (c == '>' && --depth == 0)
+			break;
+		}
+		if (c < 0)
+		    throw new IOException("Unterminated HTML string");
+		advance();
+		quoted = true;
+		// Keep the outer angle brackets, to tell HTML labels from plain ones
+		return sb.toString();
+	    }
+	    if (c == '-') {
+		advance();
+		if (c == '>' || c == '-') {
+		    sb.append('-').append((char) c);
+		    advance();
+		    punct = true;
+		    return sb.toString();
+		}
+		sb.append('-');
+		// a negative number
+		while (c >= 0 && isIdChar((char) c)) {
+		    sb.append((char) c);
+		    advance();
+		}
+		return sb.toString();
+	    }
+	    if (isIdChar((char) c)) {
+		while (c >= 0 && isIdChar((char) c)) {
+		    sb.append((char) c);
+		    advance();
+		}
+		return sb.toString();
+	    }
+	    punct = true;
+	    String t = String.valueOf((char) c);
+	    advance();
+	    return t;
+	}
+
+	private static boolean isIdChar(char c) {
+	    return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c >= 0x80;
+	}
+
+	/** Skip white space and comments */
+	private void skipBlanks() throws IOException {
+	    while (c >= 0) {
+		if (Character.isWhitespace(c)) {
+		    advance();
+		} else if (c == '#' && lineStart) {
+		    skipLine();
+		} else if (c == '/') {
+		    // a lone slash is not valid dot, and is dropped
+		    advance();
+		    if (c == '/') {
+			skipLine();
+		    } else if (c == '*') {
+			advance();
+			int prev = 0;
+			while (c >= 0 && !(prev == '*' && c == '/')) {
+			    prev = c;
+			    advance();
+			}
+			advance();
+		    }
+		} else
+		    break;
+	    }
+	}
+
+	private void skipLine() throws IOException {
+	    while (c >= 0 && c != '\n')
+		advance();
+	}
+    }
+}
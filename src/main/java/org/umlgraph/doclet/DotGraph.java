@@ -0,0 +1,360 @@
+package org.umlgraph.doclet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory model of the dot graphs written by {@link ClassGraph}.
+ * <p>
+ * The parser only understands the subset of the dot language that UMLGraph
+ * itself emits (a single digraph with attribute, node and edge statements),
+ * which is enough to lay out and render small diagrams without spawning the
+ * Graphviz executable. Node labels are kept in their raw (HTML-like) form and
+ * parsed on demand by {@link HtmlLabel}.
+ *
+ * @depend - - - HtmlLabel
+ */
+class DotGraph {
+    /** A graph node, as declared or implicitly created by an edge */
+    static class Node {
+	final String id;
+	final Map<String, String> attributes = new HashMap<String, String>();
+	/** True for the dummy nodes used to route edges across ranks */
+	final boolean virtual;
+	/** Layout results, in points; x and y refer to the node center */
+	double x, y, width, height;
+	int rank;
+	/** Position within the rank */
+	int order;
+	/** The parsed label, filled in by the layout */
+	HtmlLabel label;
+
+	Node(String id, boolean virtual) {
+	    this.id = id;
+	    this.virtual = virtual;
+	}
+    }
+
+    /** A directed edge between two nodes */
+    static class Edge {
+	final Node tail, head;
+	final Map<String, String> attributes = new HashMap<String, String>();
+	/** The route of the edge, from tail to head, filled in by the layout */
+	List<double[]> points = new ArrayList<double[]>();
+
+	Edge(Node tail, Node head) {
+	    this.tail = tail;
+	    this.head = head;
+	}
+    }
+
+    final Map<String, String> graphAttributes = new HashMap<String, String>();
+    final Map<String, String> nodeDefaults = new HashMap<String, String>();
+    final Map<String, String> edgeDefaults = new HashMap<String, String>();
+    final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+    final List<Edge> edges = new ArrayList<Edge>();
+    String name = "G";
+
+    /** Return the value of a node attribute, falling back to the node defaults */
+    String attribute(Node n, String key) {
+	String v = n.attributes.get(key);
+	return v != null ? v : nodeDefaults.get(key);
+    }
+
+    /** Return the value of an edge attribute, falling back to the edge defaults */
+    String attribute(Edge e, String key) {
+	String v = e.attributes.get(key);
+	return v != null ? v : edgeDefaults.get(key);
+    }
+
+    /** Return the node with the given id, creating it if needed */
+    private Node node(String id) {
+	Node n = nodes.get(id);
+	if (n == null) {
+	    n = new Node(id, false);
+	    nodes.put(id, n);
+	}
+	return n;
+    }
+
+    /**
+     * Return a copy of the graph that is much cheaper to lay out: the node
+     * labels only keep their name compartment, and all edges between the
+     * same two nodes are merged into a single unlabeled one.
+     */
+    DotGraph simplified() {
+	DotGraph g = new DotGraph();
+	g.name = name;
+	g.graphAttributes.putAll(graphAttributes);
+	g.nodeDefaults.putAll(nodeDefaults);
+	g.edgeDefaults.putAll(edgeDefaults);
+	for (Node n : nodes.values()) {
+	    Node copy = g.node(n.id);
+	    copy.attributes.putAll(n.attributes);
+	    String label = n.attributes.get("label");
+	    if (label != null && label.startsWith("<"))
+		copy.attributes.put("label", nameLabel(HtmlLabel.parse(label, attribute(n, "fontname"), 10)));
+	}
+	Set<String> merged = new HashSet<String>();
+	for (Edge e : edges) {
+	    String key = e.tail.id.compareTo(e.head.id) < 0 ? e.tail.id + " " + e.head.id : e.head.id + " " + e.tail.id;
+	    if (!merged.add(key))
+		continue;
+	    Edge copy = new Edge(g.node(e.tail.id), g.node(e.head.id));
+	    copy.attributes.putAll(e.attributes);
+	    copy.attributes.remove("label");
+	    copy.attributes.remove("taillabel");
+	    copy.attributes.remove("headlabel");
+	    g.edges.add(copy);
+	}
+	return g;
+    }
+
+    /** Return an HTML label with the first compartment of the specified one */
+    private static String nameLabel(HtmlLabel l) {
+	StringBuilder sb = new StringBuilder("<<table");
+	if (l.title != null)
+	    sb.append(" title=\"").append(l.title).append('"');
+	sb.append(" border=\"0\" cellborder=\"1\" cellspacing=\"0\" cellpadding=\"2\"");
+	if (l.bgcolor != null)
+	    sb.append(" bgcolor=\"").append(l.bgcolor).append('"');
+	if (l.href != null)
+	    sb.append(" href=\"").append(l.href).append("\" target=\"_parent\"");
+	sb.append("><tr><td>");
+	if (!l.compartments.isEmpty()) {
+	    boolean first = true;
+	    for (HtmlLabel.Line line : l.compartments.get(0).lines) {
+		if (!first)
+		    sb.append("<br/>");
+		first = false;
+		for (HtmlLabel.Span span : line.spans)
+		    sb.append(span.italic ? "<i>" + span.text + "</i>" : span.text);
+	    }
+	}
+	return sb.append("</td></tr></table>>").toString();
+    }
+
+    /** Write the graph in the dot language */
+    void write(PrintWriter w) {
+	w.println("digraph " + name + " {");
+	w.println("\tgraph" + attributeList(graphAttributes) + ";");
+	w.println("\tnode" + attributeList(nodeDefaults) + ";");
+	w.println("\tedge" + attributeList(edgeDefaults) + ";");
+	for (Node n : nodes.values())
+	    w.println("\t" + n.id + attributeList(n.attributes) + ";");
+	for (Edge e : edges)
+	    w.println("\t" + e.tail.id + " -> " + e.head.id + attributeList(e.attributes) + ";");
+	w.println("}");
+    }
+
+    private static String attributeList(Map<String, String> attributes) {
+	StringBuilder sb = new StringBuilder(" [");
+	for (Map.Entry<String, String> a : attributes.entrySet()) {
+	    if (sb.length() > 2)
+		sb.append(',');
+	    String v = a.getValue();
+	    sb.append(a.getKey()).append('=');
+	    if (v.startsWith("<") && v.endsWith(">"))
+		sb.append(v);
+	    else
+		sb.append('"').append(v.replace("\"", "\\\"")).append('"');
+	}
+	return sb.append(']').toString();
+    }
+
+    /** Parse a dot graph as written by ClassGraph */
+    static DotGraph parse(Reader r) throws IOException {
+	StringBuilder sb = new StringBuilder(8192);
+	char[] buf = new char[8192];
+	int n;
+	while ((n = r.read(buf)) > 0)
+	    sb.append(buf, 0, n);
+	return parse(sb);
+    }
+
+    /** Parse a dot graph as written by ClassGraph */
+    static DotGraph parse(CharSequence text) throws IOException {
+	DotGraph g = new DotGraph();
+	Lexer lex = new Lexer(text);
+	String t = lex.next();
+	if ("strict".equals(t))
+	    t = lex.next();
+	if (!"digraph".equals(t) && !"graph".equals(t))
+	    throw new IOException("Not a dot graph, found " + t);
+	t = lex.next();
+	if (!"{".equals(t)) {
+	    g.name = t;
+	    t = lex.next();
+	}
+	if (!"{".equals(t))
+	    throw new IOException("Expected { after the graph name, found " + t);
+	for (t = lex.next(); t != null && !(lex.punct && t.equals("}")); t = lex.next()) {
+	    if (lex.punct && t.equals(";"))
+		continue;
+	    String id = t;
+	    boolean keyword = !lex.quoted && (id.equals("graph") || id.equals("node") || id.equals("edge"));
+	    t = lex.next();
+	    if (keyword && "[".equals(t)) {
+		Map<String, String> target = id.equals("graph") ? g.graphAttributes
+			: id.equals("node") ? g.nodeDefaults : g.edgeDefaults;
+		t = attributes(lex, target);
+	    } else if ("=".equals(t)) {
+		g.graphAttributes.put(id, lex.next());
+		t = lex.next();
+	    } else if ("->".equals(t) || "--".equals(t)) {
+		List<Edge> chain = new ArrayList<Edge>();
+		Node from = g.node(id);
+		while ("->".equals(t) || "--".equals(t)) {
+		    Node to = g.node(lex.next());
+		    chain.add(new Edge(from, to));
+		    from = to;
+		    t = lex.next();
+		}
+		if ("[".equals(t)) {
+		    Map<String, String> attrs = new HashMap<String, String>();
+		    t = attributes(lex, attrs);
+		    for (Edge e : chain)
+			e.attributes.putAll(attrs);
+		}
+		g.edges.addAll(chain);
+	    } else {
+		Node node = g.node(id);
+		if ("[".equals(t))
+		    t = attributes(lex, node.attributes);
+	    }
+	    if (t == null || (lex.punct && t.equals("}")))
+		break;
+	    if (!(lex.punct && t.equals(";")))
+		lex.pushBack();
+	}
+	return g;
+    }
+
+    /** Parse an attribute list, after the opening bracket; returns the token after the list */
+    private static String attributes(Lexer lex, Map<String, String> target) throws IOException {
+	for (String t = lex.next(); t != null; t = lex.next()) {
+	    if (lex.punct && t.equals("]"))
+		return lex.next();
+	    if (lex.punct && (t.equals(",") || t.equals(";")))
+		continue;
+	    String key = t;
+	    t = lex.next();
+	    if ("=".equals(t)) {
+		target.put(key, lex.next());
+	    } else {
+		target.put(key, "true");
+		lex.pushBack();
+	    }
+	}
+	throw new IOException("Unterminated attribute list");
+    }
+
+    /** A tokenizer for the dot language subset */
+    private static class Lexer {
+	private final CharSequence s;
+	private int pos, last;
+	/** True if the last token was punctuation */
+	boolean punct;
+	/** True if the last token was a quoted or HTML string */
+	boolean quoted;
+
+	Lexer(CharSequence s) {
+	    this.s = s;
+	}
+
+	void pushBack() {
+	    pos = last;
+	}
+
+	/** Return the next token, or null at the end of the input */
+	String next() throws IOException {
+	    skipBlanks();
+	    last = pos;
+	    punct = quoted = false;
+	    if (pos >= s.length())
+		return null;
+	    char c = s.charAt(pos);
+	    if (c == '-' && pos + 1 < s.length() && (s.charAt(pos + 1) == '>' || s.charAt(pos + 1) == '-')) {
+		punct = true;
+		pos += 2;
+		return s.subSequence(pos - 2, pos).toString();
+	    }
+	    if (c == '"') {
+		StringBuilder sb = new StringBuilder();
+		for (pos++; pos < s.length() && s.charAt(pos) != '"'; pos++) {
+		    c = s.charAt(pos);
+		    if (c == '\\' && pos + 1 < s.length() && s.charAt(pos + 1) == '"')
+			c = s.charAt(++pos);
+		    else if (c == '\\' && pos + 1 < s.length() && s.charAt(pos + 1) == '\n') {
+			pos++;
+			continue;
+		    }
+		    sb.append(c);
+		}
+		pos++;
+		quoted = true;
+		return sb.toString();
+	    }
+	    if (c == '<') {
+		int depth = 0, start = pos;
+		for (; pos < s.length(); pos++) {
+		    c = s.charAt(pos);
+		    if (c == '<')
+			depth++;
+		    else if (c == '>' && --depth == 0)
+			break;
+		}
+		if (pos >= s.length())
+		    throw new IOException("Unterminated HTML string");
+		pos++;
+		quoted = true;
+		// Keep the outer angle brackets, to tell HTML labels from plain ones
+		return s.subSequence(start, pos).toString();
+	    }
+	    if (isIdChar(c)) {
+		int start = pos;
+		while (pos < s.length() && isIdChar(s.charAt(pos)))
+		    pos++;
+		return s.subSequence(start, pos).toString();
+	    }
+	    punct = true;
+	    pos++;
+	    return String.valueOf(c);
+	}
+
+	private static boolean isIdChar(char c) {
+	    return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c >= 0x80;
+	}
+
+	/** Skip white space and comments */
+	private void skipBlanks() {
+	    while (pos < s.length()) {
+		char c = s.charAt(pos);
+		if (Character.isWhitespace(c)) {
+		    pos++;
+		} else if (c == '#' && (pos == 0 || s.charAt(pos - 1) == '\n')) {
+		    skipLine();
+		} else if (c == '/' && pos + 1 < s.length() && s.charAt(pos + 1) == '/') {
+		    skipLine();
+		} else if (c == '/' && pos + 1 < s.length() && s.charAt(pos + 1) == '*') {
+		    int end = s.toString().indexOf("*/", pos + 2);
+		    pos = end < 0 ? s.length() : end + 2;
+		} else
+		    break;
+	    }
+	}
+
+	private void skipLine() {
+	    while (pos < s.length() && s.charAt(pos) != '\n')
+		pos++;
+	}
+    }
+}
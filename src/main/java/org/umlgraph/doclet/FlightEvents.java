@@ -0,0 +1,252 @@
+package org.umlgraph.doclet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emits JDK Flight Recorder events for the main steps of a run, so that
+ * documentation builds can be profiled with the standard tools (for
+ * instance, relating garbage collection pauses to specific diagrams).
+ * <p>
+ * Each step calls a begin method when it starts, and passes the token it
+ * returns, along with the step's details, to the corresponding end method.
+ * The token is null when the event is disabled, or when the JVM does not
+ * provide the Flight Recorder API (before Java 8u262), in which case the
+ * end methods do nothing. The events are only referenced by the nested
+ * Jfr class, which is not loaded without that API.
+ */
+class FlightEvents {
+    /** True if the JVM provides the Flight Recorder API */
+    private static final boolean AVAILABLE = available();
+
+    private FlightEvents() {}
+
+    private static boolean available() {
+	try {
+	    Class.forName("jdk.jfr.Event");
+	    return true;
+	} catch (Throwable t) {
+	    return false;
+	}
+    }
+
+    /** Starts the event of a diagram being built */
+    static Object beginDiagram() {
+	return AVAILABLE ? Jfr.beginDiagram() : null;
+    }
+
+    /** Ends the event of a diagram being built */
+    static void diagramBuilt(Object token, String diagram, int nodes, int edges, long bytes) {
+	if (token != null)
+	    Jfr.diagramBuilt(token, diagram, nodes, edges, bytes);
+    }
+
+    /** Starts the event of a class being printed as a node */
+    static Object beginClass() {
+	return AVAILABLE ? Jfr.beginClass() : null;
+    }
+
+    /** Ends the event of a class being printed as a node */
+    static void classPrinted(Object token, String className, boolean rootClass) {
+	if (token != null)
+	    Jfr.classPrinted(token, className, rootClass);
+    }
+
+    /** Starts the event of the relations or dependencies of a diagram being inferred */
+    static Object beginInference() {
+	return AVAILABLE ? Jfr.beginInference() : null;
+    }
+
+    /** Ends the event of the relations or dependencies of a diagram being inferred */
+    static void relationsInferred(Object token, String diagram, String kind, int classes, int edges) {
+	if (token != null)
+	    Jfr.relationsInferred(token, diagram, kind, classes, edges);
+    }
+
+    /** Starts the event of diagrams being rendered */
+    static Object beginRender() {
+	return AVAILABLE ? Jfr.beginRender() : null;
+    }
+
+    /**
+     * Ends the event of diagrams being rendered
+     * @param renderer the layout engine, or "builtin"
+     * @param exitStatus the exit status of dot, or Integer.MIN_VALUE if it timed out
+     */
+    static void rendered(Object token, String diagram, int diagrams, String renderer, int exitStatus,
+	    long bytes) {
+	if (token != null)
+	    Jfr.rendered(token, diagram, diagrams, renderer, exitStatus, bytes);
+    }
+
+    /** Starts the event of a javadoc page being patched */
+    static Object beginPatch() {
+	return AVAILABLE ? Jfr.beginPatch() : null;
+    }
+
+    /** Ends the event of a javadoc page being patched */
+    static void patched(Object token, String page, boolean inserted, long bytes) {
+	if (token != null)
+	    Jfr.patched(token, page, inserted, bytes);
+    }
+
+    /** The events, and the code using the Flight Recorder API */
+    private static class Jfr {
+	@Name("org.umlgraph.DiagramBuilt")
+	@Label("Diagram Built")
+	@Category("UMLGraph")
+	@Description("The dot text of a diagram was built")
+	static class DiagramBuilt extends Event {
+	    @Label("Diagram")
+	    String diagram;
+	    @Label("Nodes")
+	    int nodes;
+	    @Label("Edges")
+	    int edges;
+	    @Label("Bytes Written")
+	    @DataAmount
+	    long bytes;
+	}
+
+	@Name("org.umlgraph.ClassPrinted")
+	@Label("Class Printed")
+	@Category("UMLGraph")
+	@Description("A class was printed as a node of a diagram")
+	static class ClassPrinted extends Event {
+	    @Label("Class")
+	    String className;
+	    @Label("Root Class")
+	    @Description("True for the classes being documented")
+	    boolean rootClass;
+	}
+
+	@Name("org.umlgraph.RelationInference")
+	@Label("Relation Inference")
+	@Category("UMLGraph")
+	@Description("The relations or dependencies of the classes of a diagram were inferred")
+	static class RelationInference extends Event {
+	    @Label("Diagram")
+	    String diagram;
+	    @Label("Kind")
+	    @Description("Relations or dependencies")
+	    String kind;
+	    @Label("Classes")
+	    int classes;
+	    @Label("Edges Added")
+	    int edges;
+	}
+
+	@Name("org.umlgraph.GraphvizRender")
+	@Label("Graphviz Render")
+	@Category("UMLGraph")
+	@Description("Diagrams were rendered by Graphviz or the built-in layout")
+	static class GraphvizRender extends Event {
+	    @Label("Diagram")
+	    @Description("The dot file rendered, or the first one of a batch")
+	    String diagram;
+	    @Label("Diagrams")
+	    int diagrams;
+	    @Label("Renderer")
+	    String renderer;
+	    @Label("Exit Status")
+	    int exitStatus;
+	    @Label("Timed Out")
+	    boolean timedOut;
+	    @Label("SVG Bytes")
+	    @DataAmount
+	    long bytes;
+	}
+
+	@Name("org.umlgraph.HtmlPatch")
+	@Label("HTML Patch")
+	@Category("UMLGraph")
+	@Description("A diagram was inserted into a javadoc page")
+	static class HtmlPatch extends Event {
+	    @Label("Page")
+	    String page;
+	    @Label("Inserted")
+	    @Description("False if the insertion point was not found")
+	    boolean inserted;
+	    @Label("Page Bytes")
+	    @DataAmount
+	    long bytes;
+	}
+
+	/** Return the started event, or null if it is disabled */
+	private static Object begin(Event e) {
+	    if (!e.isEnabled())
+		return null;
+	    e.begin();
+	    return e;
+	}
+
+	static Object beginDiagram() {
+	    return begin(new DiagramBuilt());
+	}
+
+	static Object beginClass() {
+	    return begin(new ClassPrinted());
+	}
+
+	static Object beginInference() {
+	    return begin(new RelationInference());
+	}
+
+	static Object beginRender() {
+	    return begin(new GraphvizRender());
+	}
+
+	static Object beginPatch() {
+	    return begin(new HtmlPatch());
+	}
+
+	static void diagramBuilt(Object token, String diagram, int nodes, int edges, long bytes) {
+	    DiagramBuilt e = (DiagramBuilt) token;
+	    e.diagram = diagram;
+	    e.nodes = nodes;
+	    e.edges = edges;
+	    e.bytes = bytes;
+	    e.commit();
+	}
+
+	static void classPrinted(Object token, String className, boolean rootClass) {
+	    ClassPrinted e = (ClassPrinted) token;
+	    e.className = className;
+	    e.rootClass = rootClass;
+	    e.commit();
+	}
+
+	static void relationsInferred(Object token, String diagram, String kind, int classes, int edges) {
+	    RelationInference e = (RelationInference) token;
+	    e.diagram = diagram;
+	    e.kind = kind;
+	    e.classes = classes;
+	    e.edges = edges;
+	    e.commit();
+	}
+
+	static void rendered(Object token, String diagram, int diagrams, String renderer, int exitStatus,
+		long bytes) {
+	    GraphvizRender e = (GraphvizRender) token;
+	    e.diagram = diagram;
+	    e.diagrams = diagrams;
+	    e.renderer = renderer;
+	    e.timedOut = exitStatus == Integer.MIN_VALUE;
+	    e.exitStatus = e.timedOut ? -1 : exitStatus;
+	    e.bytes = bytes;
+	    e.commit();
+	}
+
+	static void patched(Object token, String page, boolean inserted, long bytes) {
+	    HtmlPatch e = (HtmlPatch) token;
+	    e.page = page;
+	    e.inserted = inserted;
+	    e.bytes = bytes;
+	    e.commit();
+	}
+    }
+}
@@ -0,0 +1,830 @@
+package org.umlgraph.doclet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.javadoc.RootDoc;
+
+/**
+ * Renders the dot files generated by UmlGraphDoc into SVG diagrams.
+ * <p>
+ * Small diagrams may be rendered in-process (see the builtinlayout option),
+ * the others are passed to Graphviz dot, either one per process or, with
+ * the dotbatch option, in chunks rendered by a single dot process to
+ * amortize its startup cost. Chunk failures are mapped back to the
+ * individual diagrams, which are then retried on their own. With the
+ * dotpipe option the dot text is streamed to the standard input of dot and
+ * the SVG read from its standard output, without writing the dot files.
+ * <p>
+ * Graphs exceeding the dotlargenodes or dotlargeedges limits are laid out
+ * with the dotlargeengine layout engine. Dot runs exceeding the dottimeout
+ * limit are stopped, and the diagram is rendered again in a simplified form.
+ * <p>
+ * The SVG files produced are minified and compressed according to the
+ * svgminify and svgz options.
+ * <p>
+ * With the reusediagrams option, the diagrams whose graph has not changed
+ * since the previous run into the same folder are not rendered again.
+ * <p>
+ * This is the middle stage of the UmlGraphDoc pipeline: the diagrams built
+ * by the main thread are rendered by a pool of workers (see the
+ * renderworkers option), fed through a bounded queue, so that building
+ * waits when rendering falls behind. Once a diagram is rendered, the
+ * action specified along with it, typically patching its javadoc page,
+ * is run by the worker. The warnings of the workers are printed by the
+ * main thread.
+ *
+ * @depend - - - Options
+ * @depend - - - DotGraph
+ * @depend - - - LayeredLayout
+ * @depend - - - SvgWriter
+ * @depend - - - SvgPostProcessor
+ * @depend - - - WorkerPool
+ * @depend - - - DiagramHashes
+ */
+class GraphvizRunner {
+    /** Status of a dot run stopped after exceeding the timeout */
+    private static final int TIMED_OUT = Integer.MIN_VALUE;
+
+    private final Options opt;
+    private final RootDoc root;
+    private final RunReport report;
+    /** Null if the SVG files are kept as written */
+    private final SvgPostProcessor postProcessor;
+    /** Null if all diagrams are rendered */
+    private final DiagramHashes hashes;
+    /** Dot files waiting for a batched dot run */
+    private final List<File> batch = new ArrayList<File>();
+    /** The actions to run once the diagrams are rendered */
+    private final Map<File, Runnable> renderedActions = Collections.synchronizedMap(new HashMap<File, Runnable>());
+    private final ExecutorService workers;
+    /** The submitted rendering jobs, checked for failures at the end */
+    private final List<Future<?>> jobs = new ArrayList<Future<?>>();
+    /** The warnings of the workers, waiting to be printed by the main thread */
+    private final Queue<String> warnings = new ConcurrentLinkedQueue<String>();
+    /** Counters for the run summary */
+    private final AtomicInteger rendered = new AtomicInteger(), builtin = new AtomicInteger(),
+	largeEngine = new AtomicInteger(), timedOut = new AtomicInteger(), simplified = new AtomicInteger(),
+	failed = new AtomicInteger(), reused = new AtomicInteger();
+
+    GraphvizRunner(Options opt, RootDoc root, String outputFolder, RunReport report) {
+	this.opt = opt;
+	this.root = root;
+	this.report = report;
+	this.postProcessor = opt.svgMinify || opt.svgz ? new SvgPostProcessor(opt.svgMinify, opt.svgz) : null;
+	this.hashes = opt.reuseDiagrams ? new DiagramHashes(outputFolder, opt) : null;
+	int n = opt.renderWorkers > 0 ? opt.renderWorkers : WorkerPool.defaultWorkers();
+	this.workers = WorkerPool.create("Graphviz renderer", n, 2 * n);
+    }
+
+    /** Return the dot file of a diagram written by UmlGraphDoc */
+    static File dotFile(String outputFolder, String packageName, String name) {
+	return new File(outputFolder, packageName.replace(".", "/") + "/" + name + ".dot");
+    }
+
+    /** Return the SVG file corresponding to a dot file */
+    static File svgFile(File dotFile) {
+	String path = dotFile.getPath();
+	return new File(path.substring(0, path.length() - ".dot".length()) + ".svg");
+    }
+
+    private String dotExecutable() {
+	return opt.dotExecutable == null ? "dot" : opt.dotExecutable;
+    }
+
+    /** True if the graph must be examined before choosing how to render it */
+    private boolean inspectGraphs() {
+	return opt.builtinLayoutNodes > 0 || opt.dotLargeNodes > 0 || opt.dotLargeEdges > 0;
+    }
+
+    /** True if the whole graph must be read before deciding whether and how to render it */
+    private boolean deferRendering() {
+	return inspectGraphs() || hashes != null;
+    }
+
+    /**
+     * Return the stream the dot text of a diagram should be written to when
+     * it is piped to Graphviz, or null if it is to be written to the dot file
+     * and passed to {@link #render(File, String, Runnable)}. Closing the stream
+     * renders the diagram, and then runs the specified action.
+     * @param kind the kind of diagram, for the run report
+     */
+    OutputStream open(File dotFile, String kind, Runnable then) throws IOException {
+	reportWarnings();
+	if (!opt.dotPipe)
+	    return null;
+	renderedActions.put(dotFile, then);
+	return new DotPipe(dotFile, kind);
+    }
+
+    /**
+     * Has the specified dot file rendered into an SVG file next to it, and
+     * then runs the specified action. With batching enabled the rendering
+     * may wait for more diagrams, up to the end of the run.
+     * @param kind the kind of diagram, for the run report
+     */
+    void render(final File dotFile, String kind, Runnable then) {
+	reportWarnings();
+	renderedActions.put(dotFile, then);
+	submit(kind, new Runnable() {
+	    public void run() {
+		render(dotFile, null, opt.dotBatchSize > 1);
+	    }
+	});
+    }
+
+    /** Queues a rendering job, waiting while the queue is full */
+    private void submit(final String kind, final Runnable job) {
+	jobs.add(workers.submit(new Runnable() {
+	    public void run() {
+		RunReport.Sample sample = report.start("render", kind);
+		try {
+		    job.run();
+		} finally {
+		    sample.stop();
+		}
+	    }
+	}));
+    }
+
+    /** Runs the action waiting for the rendering of a diagram, rendered or not */
+    private void rendered(File dotFile) {
+	Runnable then = renderedActions.remove(dotFile);
+	if (then != null)
+	    then.run();
+    }
+
+    /**
+     * Waits for all diagrams to be rendered, including those waiting for a
+     * batched run, and prints the warnings not yet printed
+     */
+    void finish() {
+	workers.shutdown();
+	try {
+	    for (Future<?> f : jobs)
+		f.get();
+	} catch (InterruptedException e) {
+	    workers.shutdownNow();
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException("Interrupted while rendering the diagrams");
+	} catch (ExecutionException e) {
+	    workers.shutdownNow();
+	    reportWarnings();
+	    if (e.getCause() instanceof RuntimeException)
+		throw (RuntimeException) e.getCause();
+	    if (e.getCause() instanceof Error)
+		throw (Error) e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+	jobs.clear();
+	if (opt.dotBatchSize > 1) {
+	    // the last diagrams, of any kind
+	    RunReport.Sample sample = report.start("render", "batch");
+	    flush();
+	    sample.stop();
+	}
+	if (hashes != null)
+	    try {
+		hashes.write();
+	    } catch (IOException e) {
+		warning("Error writing the diagram hashes: " + e);
+	    }
+	reportWarnings();
+    }
+
+    /** Queues a warning, to be printed by the main thread */
+    private void warning(String message) {
+	warnings.add(message);
+    }
+
+    /** Prints the warnings of the workers; only called by the main thread */
+    private void reportWarnings() {
+	String message;
+	while ((message = warnings.poll()) != null)
+	    root.printWarning(message);
+    }
+
+    /**
+     * Renders a diagram, given its dot text or null to read the dot file,
+     * queueing it for a batched run if allowed and plain dot is to be used.
+     */
+    private void render(File dotFile, byte[] text, boolean batchable) {
+	if (hashes != null && unchanged(dotFile, text)) {
+	    reused.incrementAndGet();
+	    rendered(dotFile);
+	    return;
+	}
+	rendered.incrementAndGet();
+	String engine = null;
+	if (inspectGraphs()) {
+	    DotGraph graph = parse(dotFile, text);
+	    if (graph != null) {
+		Object event = FlightEvents.beginRender();
+		if (opt.builtinLayoutNodes > 0 && graph.nodes.size() <= opt.builtinLayoutNodes
+			&& renderBuiltin(dotFile, graph)) {
+		    FlightEvents.rendered(event, dotFile.getPath(), 1, "builtin", 0, svgFile(dotFile).length());
+		    builtin.incrementAndGet();
+		    postProcess(dotFile);
+		    rendered(dotFile);
+		    return;
+		}
+		engine = engine(graph);
+	    }
+	}
+	if (engine == null && batchable) {
+	    List<File> chunk = null;
+	    synchronized (batch) {
+		batch.add(dotFile);
+		if (batch.size() >= opt.dotBatchSize)
+		    chunk = takeBatch();
+	    }
+	    if (chunk != null)
+		runBatch(chunk);
+	    return;
+	}
+	run(dotFile, text, engine);
+	rendered(dotFile);
+    }
+
+    /** Return the layout engine to use for a graph, null for the default one */
+    private String engine(DotGraph graph) {
+	if ((opt.dotLargeNodes > 0 && graph.nodes.size() > opt.dotLargeNodes)
+		|| (opt.dotLargeEdges > 0 && graph.edges.size() > opt.dotLargeEdges)) {
+	    largeEngine.incrementAndGet();
+	    return opt.dotLargeEngine;
+	}
+	return null;
+    }
+
+    /** Renders all diagrams still waiting for a batched run */
+    private void flush() {
+	List<File> chunk;
+	synchronized (batch) {
+	    chunk = takeBatch();
+	}
+	if (!chunk.isEmpty())
+	    runBatch(chunk);
+    }
+
+    /** Return the diagrams waiting for a batched run, emptying the batch */
+    private List<File> takeBatch() {
+	List<File> chunk = new ArrayList<File>(batch);
+	batch.clear();
+	return chunk;
+    }
+
+    /** Renders a chunk of diagrams, running the actions waiting for them */
+    private void runBatch(List<File> chunk) {
+	if (chunk.size() == 1)
+	    run(chunk.get(0), null, null);
+	else
+	    runChunk(chunk);
+	for (File dotFile : chunk)
+	    rendered(dotFile);
+    }
+
+    /** Renders a chunk of diagrams with a single dot run */
+    private void runChunk(List<File> chunk) {
+
+	// With -O dot writes each graph to its input file name with .svg appended;
+	// remove stale results, so that missing ones can be detected
+	List<String> args = new ArrayList<String>();
+	args.add("-O");
+	Map<File, List<String>> messages = new LinkedHashMap<File, List<String>>();
+	for (File dotFile : chunk) {
+	    batchOutput(dotFile).delete();
+	    args.add(dotFile.getAbsolutePath());
+	    messages.put(dotFile, new ArrayList<String>());
+	}
+	List<String> lines = new ArrayList<String>();
+	int result;
+	Object event = FlightEvents.beginRender();
+	try {
+	    result = exec(null, args, null, lines, opt.dotTimeout * chunk.size());
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    System.err.println("Ensure that dot is in your path and that its path does not contain spaces");
+	    for (File dotFile : chunk)
+		failed(dotFile);
+	    return;
+	}
+	for (String line : lines) {
+	    File source = messageSource(line, chunk);
+	    if (source != null)
+		messages.get(source).add(line);
+	    else
+		warning(line);
+	}
+
+	// Collect the results, retrying the diagrams that failed on their own
+	List<File> retry = new ArrayList<File>();
+	long bytes = 0;
+	for (File dotFile : chunk) {
+	    File out = batchOutput(dotFile);
+	    File svgFile = svgFile(dotFile);
+	    for (String line : messages.get(dotFile))
+		warning(line);
+	    if (out.length() > 0 && result != TIMED_OUT) {
+		svgFile.delete();
+		if (out.renameTo(svgFile)) {
+		    postProcess(dotFile);
+		    bytes += svgFile.length();
+		    continue;
+		}
+	    }
+	    out.delete();
+	    retry.add(dotFile);
+	}
+	FlightEvents.rendered(event, "batch of " + chunk.size() + " from " + chunk.get(0).getPath(),
+		chunk.size(), "dot", result, bytes);
+	if (result == TIMED_OUT)
+	    warning("Graphviz timed out on a batch of " + chunk.size() + " diagrams");
+	else if (result != 0 && retry.isEmpty())
+	    warning("Errors running Graphviz on a batch of " + chunk.size() + " diagrams");
+	for (File dotFile : retry) {
+	    if (result != TIMED_OUT)
+		warning("Graphviz failed on " + dotFile + " in a batch of " + chunk.size()
+			+ " diagrams, rendering it separately");
+	    run(dotFile, null, null);
+	}
+    }
+
+    /** The output file dot -O creates for a dot file */
+    private static File batchOutput(File dotFile) {
+	return new File(dotFile.getAbsolutePath() + ".svg");
+    }
+
+    /** Return the diagram a dot error message refers to, or null if none */
+    private static File messageSource(String line, List<File> chunk) {
+	File found = null;
+	int length = 0;
+	for (File dotFile : chunk) {
+	    String path = dotFile.getAbsolutePath();
+	    // prefer the longest match, in case a path is a prefix of another one
+	    if (path.length() > length && line.contains(path)) {
+		found = dotFile;
+		length = path.length();
+	    }
+	}
+	return found;
+    }
+
+    /**
+     * Runs Graphviz dot building the SVG diagram of a dot file, or of the
+     * specified dot text if not null, falling back to a simplified diagram
+     * if it times out.
+     */
+    private void run(File dotFile, byte[] text, String engine) {
+	File svgFile = svgFile(dotFile);
+	List<String> args = new ArrayList<String>(Arrays.asList("-o", svgFile.getAbsolutePath()));
+	if (text == null)
+	    args.add(dotFile.getAbsolutePath());
+	List<String> messages = new ArrayList<String>();
+	int result;
+	Object event = FlightEvents.beginRender();
+	try {
+	    result = exec(engine, args, text, messages, opt.dotTimeout);
+	    FlightEvents.rendered(event, dotFile.getPath(), 1, engine == null ? "dot" : engine, result,
+		svgFile.length());
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    System.err.println("Ensure that dot is in your path and that its path does not contain spaces");
+	    failed(dotFile);
+	    return;
+	}
+	finish(dotFile, text, engine, result, messages);
+    }
+
+    /** Reports the outcome of a dot run, rendering a simplified diagram after a timeout */
+    private void finish(File dotFile, byte[] text, String engine, int result, List<String> messages) {
+	for (String line : messages)
+	    warning(line);
+	if (result == TIMED_OUT) {
+	    timedOut.incrementAndGet();
+	    warning("Graphviz timed out on " + dotFile + ", rendering it without members");
+	    renderSimplified(dotFile, text, engine);
+	} else if (result != 0) {
+	    failed(dotFile);
+	    warning("Errors running Graphviz on " + dotFile);
+	} else
+	    postProcess(dotFile);
+    }
+
+    /** Renders the diagram with its members hidden and its parallel edges merged */
+    private void renderSimplified(File dotFile, byte[] text, String engine) {
+	DotGraph graph = parse(dotFile, text);
+	if (graph == null) {
+	    failed(dotFile);
+	    return;
+	}
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	List<String> messages = new ArrayList<String>();
+	int result;
+	try {
+	    PrintWriter w = new PrintWriter(new OutputStreamWriter(buffer, opt.outputEncoding));
+	    graph.simplified().write(w);
+	    w.close();
+	    Object event = FlightEvents.beginRender();
+	    result = exec(engine, Arrays.asList("-o", svgFile(dotFile).getAbsolutePath()),
+		buffer.toByteArray(), messages, opt.dotTimeout);
+	    FlightEvents.rendered(event, dotFile.getPath(), 1, engine == null ? "dot" : engine, result,
+		svgFile(dotFile).length());
+	} catch (IOException e) {
+	    warning("Error running Graphviz on the simplified " + dotFile + ": " + e);
+	    failed(dotFile);
+	    return;
+	}
+	for (String line : messages)
+	    warning(line);
+	if (result == 0) {
+	    simplified.incrementAndGet();
+	    postProcess(dotFile);
+	} else {
+	    failed(dotFile);
+	    warning((result == TIMED_OUT ? "Graphviz timed out on the simplified "
+		    : "Errors running Graphviz on the simplified ") + dotFile);
+	}
+    }
+
+    /** Counts a diagram that failed to render, whose SVG file, if any, must not be reused */
+    private void failed(File dotFile) {
+	failed.incrementAndGet();
+	if (hashes != null)
+	    hashes.failed(dotFile);
+    }
+
+    /** Minifies or compresses the SVG file of a diagram, as requested */
+    private void postProcess(File dotFile) {
+	if (postProcessor == null)
+	    return;
+	try {
+	    postProcessor.process(svgFile(dotFile));
+	} catch (IOException e) {
+	    warning("Error post-processing " + svgFile(dotFile) + ": " + e);
+	}
+    }
+
+    /**
+     * Runs dot with the specified layout engine (null for the default one)
+     * and arguments, writing the input, when not null, to its standard input
+     * and collecting its error messages.
+     * @param timeout the time limit in seconds, 0 for none
+     * @return the exit status of dot, or TIMED_OUT if it was stopped
+     */
+    private int exec(String engine, List<String> args, byte[] input, List<String> messages,
+	    int timeout) throws IOException {
+	List<String> cmd = new ArrayList<String>();
+	cmd.add(dotExecutable());
+	if (engine != null)
+	    cmd.add("-K" + engine);
+	cmd.add("-Tsvg");
+	cmd.addAll(args);
+	Process p = Runtime.getRuntime().exec(cmd.toArray(new String[cmd.size()]));
+	List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+	Thread collector = collect(p.getErrorStream(), lines);
+	OutputStream stdin = p.getOutputStream();
+	try {
+	    if (input != null)
+		stdin.write(input);
+	    stdin.close();
+	} catch (IOException e) {
+	    // dot gave up reading, the exit status will tell
+	}
+	int result = waitFor(p, timeout, collector);
+	messages.addAll(lines);
+	return result;
+    }
+
+    /**
+     * Waits for a dot process and the threads handling its output
+     * @return the exit status of dot, or TIMED_OUT if it was stopped
+     */
+    private int waitFor(Process p, int timeout, Thread... threads) {
+	try {
+	    int result;
+	    if (timeout <= 0)
+		result = p.waitFor();
+	    else if (p.waitFor(timeout, TimeUnit.SECONDS))
+		result = p.exitValue();
+	    else {
+		p.destroyForcibly();
+		p.waitFor();
+		// a stopped dot may leave children behind keeping its output open,
+		// so its output is abandoned rather than read to its end
+		close(p.getInputStream());
+		close(p.getErrorStream());
+		close(p.getOutputStream());
+		for (Thread t : threads)
+		    if (t instanceof Copier)
+			((Copier) t).abandon();
+		return TIMED_OUT;
+	    }
+	    for (Thread t : threads)
+		t.join();
+	    return result;
+	} catch (InterruptedException e) {
+	    p.destroy();
+	    Thread.currentThread().interrupt();
+	    return TIMED_OUT;
+	}
+    }
+
+    /** Return the number of diagrams rendered */
+    int renderedCount() {
+	return rendered.get();
+    }
+
+    /** Prints a summary of the diagrams rendered */
+    void printSummary() {
+	if (rendered.get() == 0 && reused.get() == 0)
+	    return;
+	StringBuilder sb = new StringBuilder("Rendered " + rendered + " diagrams");
+	if (reused.get() > 0)
+	    sb.append(", reused ").append(reused).append(" unchanged ones");
+	if (builtin.get() > 0)
+	    sb.append(", ").append(builtin).append(" with the built-in layout");
+	if (largeEngine.get() > 0)
+	    sb.append(", ").append(largeEngine).append(" with ").append(opt.dotLargeEngine);
+	if (timedOut.get() > 0)
+	    sb.append(", ").append(timedOut).append(" timed out (").append(simplified)
+		.append(" rendered simplified)");
+	if (failed.get() > 0)
+	    sb.append(", ").append(failed).append(" failed");
+	root.printNotice(sb.toString());
+    }
+
+    /** Return a reader of the dot text, or of the dot file if null */
+    private Reader reader(File dotFile, byte[] text) throws IOException {
+	InputStream is = text == null ? new FileInputStream(dotFile) : new ByteArrayInputStream(text);
+	return new BufferedReader(new InputStreamReader(is, opt.outputEncoding));
+    }
+
+    /**
+     * Records the canonical hash of the dot text, or of the dot file if null,
+     * returning true if the diagram is unchanged since the previous run
+     */
+    private boolean unchanged(File dotFile, byte[] text) {
+	Reader reader = null;
+	try {
+	    reader = reader(dotFile, text);
+	    return hashes.unchanged(dotFile, DotDiff.hash(reader));
+	} catch (IOException e) {
+	    warning("Error reading " + dotFile + ": " + e);
+	    return false;
+	} finally {
+	    if (reader != null)
+		try {
+		    reader.close();
+		} catch (IOException e) {}
+	}
+    }
+
+    /** Parse the dot text, or the dot file if null; returns null on errors */
+    private DotGraph parse(File dotFile, byte[] text) {
+	Reader reader = null;
+	try {
+	    reader = reader(dotFile, text);
+	    return DotGraph.parse(reader);
+	} catch (IOException e) {
+	    warning("Error reading " + dotFile + ": " + e);
+	    return null;
+	} finally {
+	    if (reader != null)
+		try {
+		    reader.close();
+		} catch (IOException e) {}
+	}
+    }
+
+    /**
+     * Lays out and renders the diagram without invoking Graphviz.
+     * @return true if the SVG file was written, false if dot must be used
+     */
+    private boolean renderBuiltin(File dotFile, DotGraph graph) {
+	PrintWriter writer = null;
+	try {
+	    LayeredLayout layout = new LayeredLayout(graph);
+	    layout.layout();
+	    writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(svgFile(dotFile)), "UTF-8")));
+	    new SvgWriter(graph, layout, writer).write("UTF-8");
+	    return !writer.checkError();
+	} catch (IOException e) {
+	    warning("Error rendering " + dotFile + " with the built-in layout, using dot: " + e);
+	    return false;
+	} finally {
+	    if (writer != null)
+		writer.close();
+	}
+    }
+
+    /** Start a thread copying the input stream to the output stream, closing both at the end */
+    private static Thread copy(InputStream in, OutputStream out) {
+	Thread t = new Copier(in, out);
+	t.start();
+	return t;
+    }
+
+    /** Closes a stream of a stopped process, whose errors no longer matter */
+    private static void close(Closeable c) {
+	try {
+	    c.close();
+	} catch (IOException e) {}
+    }
+
+    /**
+     * A thread copying the output of dot to a file, which may be abandoned
+     * if dot is stopped
+     */
+    private static class Copier extends Thread {
+	private final InputStream in;
+	private final OutputStream out;
+	private boolean closed;
+
+	Copier(InputStream in, OutputStream out) {
+	    super("Graphviz output");
+	    setDaemon(true);
+	    this.in = in;
+	    this.out = out;
+	}
+
+	public void run() {
+	    byte[] buf = new byte[8192];
+	    try {
+		int n;
+		while ((n = in.read(buf)) > 0)
+		    synchronized (this) {
+			if (closed)
+			    return;
+			out.write(buf, 0, n);
+		    }
+	    } catch (IOException e) {
+		// the process exit status will tell
+	    } finally {
+		abandon();
+		GraphvizRunner.close(in);
+	    }
+	}
+
+	/** Closes the file, which is no longer written once this returns */
+	synchronized void abandon() {
+	    if (closed)
+		return;
+	    closed = true;
+	    GraphvizRunner.close(out);
+	}
+    }
+
+    /** Start a thread collecting the lines of the input stream */
+    private static Thread collect(final InputStream in, final List<String> lines) {
+	Thread t = new Thread("Graphviz messages") {
+	    public void run() {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+		    String line;
+		    while ((line = reader.readLine()) != null)
+			lines.add(line);
+		    reader.close();
+		} catch (IOException e) {
+		    // the process exit status will tell
+		}
+	    }
+	};
+	t.setDaemon(true);
+	t.start();
+	return t;
+    }
+
+    /**
+     * The stream receiving the dot text of a diagram, which is passed to dot
+     * as it is written, while the SVG output is copied to the diagram file.
+     * When the graph must be examined first (e.g. for the built-in layout, or
+     * to check whether it has changed) the text is buffered instead, since
+     * its size is only known at the end; it is also kept when a timeout may
+     * require a simplified rendering.
+     */
+    private class DotPipe extends OutputStream {
+	private final File dotFile;
+	private final String kind;
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+	/** The copy of the dot text written with the keepdot option */
+	private OutputStream copy;
+	private ByteArrayOutputStream buffer;
+	private OutputStream stdin;
+	private Process process;
+	private Thread svgCopier, messageCollector;
+	/** True if dot stopped reading its input */
+	private boolean broken;
+
+	DotPipe(File dotFile, String kind) throws IOException {
+	    this.dotFile = dotFile;
+	    this.kind = kind;
+	    if (opt.keepDot)
+		copy = new BufferedOutputStream(new FileOutputStream(dotFile));
+	    if (deferRendering() || opt.dotTimeout > 0)
+		buffer = new ByteArrayOutputStream();
+	    if (!deferRendering())
+		start();
+	}
+
+	/** Start dot, sending its output to the SVG file */
+	private void start() {
+	    try {
+		process = Runtime.getRuntime().exec(new String [] {
+		    dotExecutable(),
+		    "-Tsvg"
+		});
+		stdin = new BufferedOutputStream(process.getOutputStream());
+		svgCopier = copy(process.getInputStream(), new BufferedOutputStream(new FileOutputStream(svgFile(dotFile))));
+		messageCollector = collect(process.getErrorStream(), messages);
+	    } catch (IOException e) {
+		e.printStackTrace();
+		System.err.println("Ensure that dot is in your path and that its path does not contain spaces");
+		broken = true;
+	    }
+	}
+
+	public void write(int b) throws IOException {
+	    write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+	    if (copy != null)
+		copy.write(b, off, len);
+	    if (buffer != null)
+		buffer.write(b, off, len);
+	    if (stdin != null && !broken)
+		try {
+		    stdin.write(b, off, len);
+		} catch (IOException e) {
+		    // dot gave up, its messages will be reported on close
+		    broken = true;
+		}
+	}
+
+	public void close() throws IOException {
+	    if (copy != null) {
+		copy.close();
+		copy = null;
+	    }
+	    final byte[] text = buffer == null ? null : buffer.toByteArray();
+	    if (deferRendering()) {
+		submit(kind, new Runnable() {
+		    public void run() {
+			render(dotFile, text, false);
+		    }
+		});
+		return;
+	    }
+	    rendered.incrementAndGet();
+	    if (process == null) {
+		failed(dotFile);
+		rendered(dotFile);
+		return;
+	    }
+	    try {
+		stdin.close();
+	    } catch (IOException e) {
+		// reported through the exit status
+	    }
+	    // dot is now laying out the graph; let a worker wait for it
+	    submit(kind, new Runnable() {
+		public void run() {
+		    // the event covers the time left once the dot text is written
+		    Object event = FlightEvents.beginRender();
+		    int result = waitFor(process, opt.dotTimeout, svgCopier, messageCollector);
+		    FlightEvents.rendered(event, dotFile.getPath(), 1, "dot", result, svgFile(dotFile).length());
+		    finish(dotFile, text, null, result, messages);
+		    rendered(dotFile);
+		}
+	    });
+	}
+    }
+}
@@ -0,0 +1,192 @@
+package org.umlgraph.doclet;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.javadoc.RootDoc;
+
+/**
+ * Counts the invocations of the methods most often called while building
+ * the graphs, and how often their lookups are served from a cache, to help
+ * tune large runs.
+ * <p>
+ * The counters are process-wide, striped so that concurrent runs do not
+ * contend on them, and published as an MBean while doclets are running.
+ * They are printed at the end of each run, and reset once no run is left;
+ * the counts printed by concurrent runs thus include those of each other.
+ * Counting is enabled by the <code>-hotcounters</code> option, while at
+ * least one run using it is in progress; otherwise the counting code is
+ * skipped altogether.
+ */
+class HotPathCounters implements HotPathCountersMBean {
+    static final String OBJECT_NAME = "org.umlgraph:type=HotPathCounters";
+
+    /**
+     * True while a run counting the calls is in progress; the callers check
+     * it before counting
+     */
+    static volatile boolean enabled = false;
+
+    static final LongAdder optionsClones = new LongAdder(), optionsSet = new LongAdder(),
+	hideExpressionTests = new LongAdder(), hideExpressionMatches = new LongAdder(),
+	hiddenTests = new LongAdder(), hiddenCacheHits = new LongAdder(),
+	classInfoLookups = new LongAdder(), classInfoHits = new LongAdder(),
+	apiDocRootLookups = new LongAdder(), apiDocRootPatternTests = new LongAdder(),
+	tagLookups = new LongAdder(), tagScans = new LongAdder(),
+	memberLabelLookups = new LongAdder(), memberLabelHits = new LongAdder(),
+	patternLookups = new LongAdder(), patternHits = new LongAdder();
+
+    /** The number of doclet runs counting the calls in progress */
+    private static int runs;
+
+    private HotPathCounters() {}
+
+    /**
+     * Starts counting for a doclet run if its options ask for it, registering
+     * the MBean if this is the only such run in progress
+     */
+    static synchronized void start(Options opt) {
+	if (!opt.hotCounters)
+	    return;
+	enabled = true;
+	if (runs++ > 0)
+	    return;
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (!server.isRegistered(name))
+		server.registerMBean(new HotPathCounters(), name);
+	} catch (JMException e) {
+	    System.err.println("Cannot register the hot path counters: " + e);
+	}
+    }
+
+    /**
+     * Prints the counters at the end of a doclet run counting the calls, and
+     * if no other such run is in progress stops counting, unregisters the
+     * MBean and resets the counters
+     */
+    static synchronized void finish(RootDoc root, Options opt) {
+	if (!opt.hotCounters)
+	    return;
+	root.printNotice(summary());
+	if (--runs > 0)
+	    return;
+	runs = 0;
+	enabled = false;
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (server.isRegistered(name))
+		server.unregisterMBean(name);
+	} catch (JMException e) {
+	    System.err.println("Cannot unregister the hot path counters: " + e);
+	}
+	resetAll();
+    }
+
+    /** Return a single line showing the counters */
+    static String summary() {
+	return "Hot path counters (process-wide): Options.clone " + optionsClones.sum()
+	    + ", Options.setOption " + optionsSet.sum()
+	    + ", matchesHideExpression " + hideExpressionTests.sum()
+	    + " (" + percent(hideExpressionMatches, hideExpressionTests) + " matched)"
+	    + ", ClassGraph.hidden " + hiddenTests.sum()
+	    + " (" + percent(hiddenCacheHits, hiddenTests) + " cached)"
+	    + ", getClassInfo " + classInfoLookups.sum()
+	    + " (" + percent(classInfoHits, classInfoLookups) + " hits)"
+	    + ", getApiDocRoot " + apiDocRootLookups.sum()
+	    + " (" + apiDocRootPatternTests.sum() + " patterns tested)"
+	    + ", tag lookups " + tagLookups.sum()
+	    + " (" + tagScans.sum() + " items scanned)"
+	    + ", member labels " + memberLabelLookups.sum()
+	    + " (" + percent(memberLabelHits, memberLabelLookups) + " cached)"
+	    + ", patterns " + patternLookups.sum()
+	    + " (" + percent(patternHits, patternLookups) + " cached)";
+    }
+
+    private static String percent(LongAdder part, LongAdder total) {
+	long t = total.sum();
+	return t == 0 ? "-" : Math.round(100.0 * part.sum() / t) + "%";
+    }
+
+    private static void resetAll() {
+	for (LongAdder a : new LongAdder[] { optionsClones, optionsSet, hideExpressionTests,
+		hideExpressionMatches, hiddenTests, hiddenCacheHits, classInfoLookups, classInfoHits,
+		apiDocRootLookups, apiDocRootPatternTests, tagLookups, tagScans,
+		memberLabelLookups, memberLabelHits, patternLookups, patternHits })
+	    a.reset();
+    }
+
+    public long getOptionsClones() {
+	return optionsClones.sum();
+    }
+
+    public long getOptionsSet() {
+	return optionsSet.sum();
+    }
+
+    public long getHideExpressionTests() {
+	return hideExpressionTests.sum();
+    }
+
+    public long getHideExpressionMatches() {
+	return hideExpressionMatches.sum();
+    }
+
+    public long getHiddenTests() {
+	return hiddenTests.sum();
+    }
+
+    public long getHiddenCacheHits() {
+	return hiddenCacheHits.sum();
+    }
+
+    public long getClassInfoLookups() {
+	return classInfoLookups.sum();
+    }
+
+    public long getClassInfoHits() {
+	return classInfoHits.sum();
+    }
+
+    public long getApiDocRootLookups() {
+	return apiDocRootLookups.sum();
+    }
+
+    public long getApiDocRootPatternTests() {
+	return apiDocRootPatternTests.sum();
+    }
+
+    public long getTagLookups() {
+	return tagLookups.sum();
+    }
+
+    public long getTagScans() {
+	return tagScans.sum();
+    }
+
+    public long getMemberLabelLookups() {
+	return memberLabelLookups.sum();
+    }
+
+    public long getMemberLabelHits() {
+	return memberLabelHits.sum();
+    }
+
+    public long getPatternLookups() {
+	return patternLookups.sum();
+    }
+
+    public long getPatternHits() {
+	return patternHits.sum();
+    }
+
+    public void reset() {
+	resetAll();
+    }
+}
@@ -0,0 +1,59 @@
+package org.umlgraph.doclet;
+
+/**
+ * The management interface of the hot path counters, registered with the
+ * platform MBean server during a doclet run as
+ * {@value HotPathCounters#OBJECT_NAME}.
+ */
+public interface HotPathCountersMBean {
+    /** Return the number of Options objects cloned */
+    public long getOptionsClones();
+
+    /** Return the number of options set */
+    public long getOptionsSet();
+
+    /** Return the number of strings tested against the hide expressions */
+    public long getHideExpressionTests();
+
+    /** Return the number of strings matching a hide expression */
+    public long getHideExpressionMatches();
+
+    /** Return the number of times a class was checked for being hidden */
+    public long getHiddenTests();
+
+    /** Return the number of hidden checks answered by the class information */
+    public long getHiddenCacheHits();
+
+    /** Return the number of class information lookups */
+    public long getClassInfoLookups();
+
+    /** Return the number of class information lookups finding existing information */
+    public long getClassInfoHits();
+
+    /** Return the number of API documentation root lookups */
+    public long getApiDocRootLookups();
+
+    /** Return the number of patterns tested by the API documentation root lookups */
+    public long getApiDocRootPatternTests();
+
+    /** Return the number of tag lookups */
+    public long getTagLookups();
+
+    /** Return the number of items whose tags were scanned to index them */
+    public long getTagScans();
+
+    /** Return the number of member label lookups */
+    public long getMemberLabelLookups();
+
+    /** Return the number of member labels found already rendered */
+    public long getMemberLabelHits();
+
+    /** Return the number of regular expressions looked up in the pattern cache */
+    public long getPatternLookups();
+
+    /** Return the number of regular expressions found already compiled */
+    public long getPatternHits();
+
+    /** Resets all counters */
+    public void reset();
+}
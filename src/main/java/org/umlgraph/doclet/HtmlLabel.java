@@ -0,0 +1,323 @@
+package org.umlgraph.doclet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The structure of a node label, as produced by {@link ClassGraph}: an
+ * outer table whose rows are compartments, each holding an inner table of
+ * single-cell text rows.
+ * <p>
+ * The layout is measured with a rough estimate of the font metrics, since
+ * there is no access to the fonts Graphviz would use; this is adequate for
+ * the small diagrams the built-in renderer is meant for.
+ */
+class HtmlLabel {
+    /** A run of text sharing the same font */
+    static class Span {
+	final String text;
+	final String face;
+	final double size;
+	final boolean italic;
+
+	Span(String text, String face, double size, boolean italic) {
+	    this.text = text;
+	    this.face = face;
+	    this.size = size;
+	    this.italic = italic;
+	}
+    }
+
+    /** A single line of text */
+    static class Line {
+	final List<Span> spans = new ArrayList<Span>();
+	String align = "center";
+	/** The link of the cell holding the line, null if none */
+	String href;
+	double width, height;
+    }
+
+    /** A compartment of the node (e.g. name, attributes, operations) */
+    static class Compartment {
+	final List<Line> lines = new ArrayList<Line>();
+	double height;
+    }
+
+    private static final Pattern TAG = Pattern.compile("<(/?)([a-zA-Z]+)([^>]*?)(/?)>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("([a-zA-Z-]+)\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern ENTITY = Pattern.compile("&(#?[a-zA-Z0-9]+);");
+
+    /** Padding around the compartments and their rows, as used in the ClassGraph tables */
+    static final double CELL_PADDING = 2, ROW_PADDING = 1;
+
+    final List<Compartment> compartments = new ArrayList<Compartment>();
+    String title, href, bgcolor;
+    /** True if the compartments are drawn with borders */
+    boolean cellBorder = true;
+    /** True if extra side columns are used (active classes) */
+    boolean sideColumns;
+    double width, height;
+
+    /**
+     * Parse a label; HTML labels are expected with their enclosing angle
+     * brackets, anything else is treated as plain text.
+     */
+    static HtmlLabel parse(String label, String face, double size) {
+	HtmlLabel l = new HtmlLabel();
+	if (label != null && label.startsWith("<") && label.endsWith(">"))
+	    l.parseHtml(label.substring(1, label.length() - 1), face, size);
+	else {
+	    Compartment c = new Compartment();
+	    for (String s : (label == null ? "" : label).split("\\\\n|\\n")) {
+		Line line = new Line();
+		line.spans.add(new Span(escapeText(s), face, size, false));
+		c.lines.add(line);
+	    }
+	    l.cellBorder = false;
+	    l.compartments.add(c);
+	}
+	l.measure(size);
+	return l;
+    }
+
+    private void parseHtml(String html, String face, double size) {
+	List<String> faces = new ArrayList<String>();
+	List<Double> sizes = new ArrayList<Double>();
+	faces.add(face);
+	sizes.add(size);
+	int italic = 0, tables = 0;
+	Compartment comp = null;
+	Line line = null;
+	Matcher m = TAG.matcher(html);
+	int last = 0;
+	while (m.find()) {
+	    if (line != null)
+		addText(line, html.substring(last, m.start()), faces, sizes, italic);
+	    last = m.end();
+	    boolean close = m.group(1).length() > 0;
+	    String tag = m.group(2).toLowerCase();
+	    Map<String, String> attrs = attributes(m.group(3));
+	    if (tag.equals("table")) {
+		if (close) {
+		    tables--;
+		    if (tables == 1)
+			comp = null;
+		} else if (++tables == 1) {
+		    title = attrs.get("title");
+		    href = attrs.get("href");
+		    bgcolor = attrs.get("bgcolor");
+		    cellBorder = !"0".equals(attrs.get("cellborder"));
+		} else if (tables == 2) {
+		    comp = new Compartment();
+		    compartments.add(comp);
+		}
+	    } else if (tag.equals("td")) {
+		if (close) {
+		    if (line != null)
+			trim(line);
+		    line = null;
+		} else if (tables == 1 && attrs.containsKey("rowspan")) {
+		    sideColumns = true;
+		} else if (tables == 2 && comp != null) {
+		    line = new Line();
+		    if (attrs.get("align") != null)
+			line.align = attrs.get("align");
+		    line.href = attrs.get("href");
+		    comp.lines.add(line);
+		}
+	    } else if (tag.equals("br") && line != null && comp != null) {
+		trim(line);
+		String align = line.align, href = line.href;
+		line = new Line();
+		line.align = align;
+		line.href = href;
+		comp.lines.add(line);
+	    } else if (tag.equals("font")) {
+		if (close) {
+		    if (faces.size() > 1) {
+			faces.remove(faces.size() - 1);
+			sizes.remove(sizes.size() - 1);
+		    }
+		} else {
+		    String f = attrs.get("face");
+		    String ps = attrs.get("point-size");
+		    faces.add(f != null ? f : faces.get(faces.size() - 1));
+		    double s = sizes.get(sizes.size() - 1);
+		    try {
+			if (ps != null)
+			    s = Double.parseDouble(ps);
+		    } catch (NumberFormatException e) {
+			// keep the enclosing size
+		    }
+		    sizes.add(s);
+		}
+	    } else if (tag.equals("i")) {
+		italic += close ? -1 : 1;
+	    }
+	}
+    }
+
+    private static void addText(Line line, String text, List<String> faces, List<Double> sizes, int italic) {
+	if (text.length() == 0)
+	    return;
+	line.spans.add(new Span(text.replace('\n', ' ').replace('\t', ' '),
+		faces.get(faces.size() - 1), sizes.get(sizes.size() - 1), italic > 0));
+    }
+
+    /** Remove the padding spaces ClassGraph places around the row text */
+    private static void trim(Line line) {
+	List<Span> spans = line.spans;
+	while (!spans.isEmpty() && spans.get(0).text.trim().length() == 0)
+	    spans.remove(0);
+	while (!spans.isEmpty() && spans.get(spans.size() - 1).text.trim().length() == 0)
+	    spans.remove(spans.size() - 1);
+	if (spans.isEmpty())
+	    return;
+	Span first = spans.get(0);
+	spans.set(0, new Span(ltrim(first.text), first.face, first.size, first.italic));
+	Span lst = spans.get(spans.size() - 1);
+	spans.set(spans.size() - 1, new Span(rtrim(lst.text), lst.face, lst.size, lst.italic));
+    }
+
+    private static String ltrim(String s) {
+	int i = 0;
+	while (i < s.length() && s.charAt(i) == ' ')
+	    i++;
+	return s.substring(i);
+    }
+
+    private static String rtrim(String s) {
+	int i = s.length();
+	while (i > 0 && s.charAt(i - 1) == ' ')
+	    i--;
+	return s.substring(0, i);
+    }
+
+    private static Map<String, String> attributes(String s) {
+	Map<String, String> attrs = new HashMap<String, String>();
+	Matcher m = ATTRIBUTE.matcher(s);
+	while (m.find())
+	    attrs.put(m.group(1).toLowerCase(), m.group(2));
+	return attrs;
+    }
+
+    /** Compute the size of the lines, compartments and the whole label */
+    private void measure(double size) {
+	double border = cellBorder ? 1 : 0;
+	width = 0;
+	height = 0;
+	for (Compartment c : compartments) {
+	    c.height = 0;
+	    for (Line line : c.lines) {
+		line.width = 0;
+		double h = size;
+		for (Span s : line.spans) {
+		    line.width += textWidth(s.text, s.size);
+		    h = Math.max(h, s.size);
+		}
+		line.height = lineHeight(line.spans.isEmpty() ? size : h) + 2 * ROW_PADDING;
+		c.height += line.height;
+		width = Math.max(width, line.width + 2 * ROW_PADDING);
+	    }
+	    c.height += 2 * (CELL_PADDING + border);
+	    height += c.height;
+	}
+	width += 2 * (CELL_PADDING + border);
+	if (sideColumns)
+	    width += 4 * (CELL_PADDING + border);
+    }
+
+    /** The height of a line set in the given font size */
+    static double lineHeight(double size) {
+	return Math.ceil(size * 1.2);
+    }
+
+    /**
+     * Estimate the width of the given text. Entities count as one
+     * character; the per-character factors approximate a proportional
+     * sans serif font such as Helvetica.
+     */
+    static double textWidth(String text, double size) {
+	String plain = ENTITY.matcher(text).replaceAll("x");
+	double w = 0;
+	for (int i = 0; i < plain.length(); i++) {
+	    char c = plain.charAt(i);
+	    if ("il.,:;'|!j ".indexOf(c) >= 0)
+		w += 0.28;
+	    else if ("ftrI()[]{}-".indexOf(c) >= 0)
+		w += 0.36;
+	    else if ("mwMW@".indexOf(c) >= 0)
+		w += 0.85;
+	    else if (Character.isUpperCase(c))
+		w += 0.68;
+	    else
+		w += 0.56;
+	}
+	return w * size;
+    }
+
+    /** The named entities found in labels */
+    private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+    static {
+	ENTITIES.put("lt", '<');
+	ENTITIES.put("gt", '>');
+	ENTITIES.put("amp", '&');
+	ENTITIES.put("quot", '"');
+	ENTITIES.put("apos", '\'');
+	ENTITIES.put("nbsp", '\u00a0');
+	ENTITIES.put("laquo", '\u00ab');
+	ENTITIES.put("raquo", '\u00bb');
+    }
+
+    /** Replace the entity references of a text with the characters they stand for */
+    static String plainText(String text) {
+	Matcher m = ENTITY.matcher(text);
+	if (!m.find())
+	    return text;
+	StringBuffer sb = new StringBuffer(text.length());
+	do {
+	    String e = m.group(1);
+	    String r = m.group();
+	    try {
+		if (e.startsWith("#x") || e.startsWith("#X"))
+		    r = String.valueOf((char) Integer.parseInt(e.substring(2), 16));
+		else if (e.startsWith("#"))
+		    r = String.valueOf((char) Integer.parseInt(e.substring(1)));
+		else if (ENTITIES.containsKey(e))
+		    r = ENTITIES.get(e).toString();
+	    } catch (NumberFormatException ex) {
+		// keep the reference as it is
+	    }
+	    m.appendReplacement(sb, Matcher.quoteReplacement(r));
+	} while (m.find());
+	m.appendTail(sb);
+	return sb.toString();
+    }
+
+    /** Escape plain text for XML output, keeping existing entity references */
+    static String escapeText(String s) {
+	StringBuilder sb = new StringBuilder(s.length() + 16);
+	for (int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c == '&') {
+		Matcher m = ENTITY.matcher(s);
+		if (m.find(i) && m.start() == i)
+		    sb.append(c);
+		else
+		    sb.append("&amp;");
+	    } else if (c == '<')
+		sb.append("&lt;");
+	    else if (c == '>')
+		sb.append("&gt;");
+	    else if (c == '"')
+		sb.append("&quot;");
+	    else
+		sb.append(c);
+	}
+	return sb.toString();
+    }
+}
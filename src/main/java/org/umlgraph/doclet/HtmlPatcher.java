@@ -0,0 +1,228 @@
+package org.umlgraph.doclet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import com.sun.javadoc.RootDoc;
+
+/**
+ * Inserts the diagrams into the javadoc pages written by the standard doclet.
+ * <p>
+ * This is the last stage of the UmlGraphDoc pipeline: the pages are patched
+ * by a pool of threads as soon as their diagrams are rendered, while the
+ * other diagrams are still being built and rendered. Each page is scanned
+ * only up to the insertion point, whose offset is used to copy the bytes
+ * before and after it around the inserted tag, without decoding them; the
+ * patched page then atomically replaces the original one.
+ *
+ * @depend - - - WorkerPool
+ */
+class HtmlPatcher {
+    /** A javadoc page to receive a diagram */
+    static class Patch {
+	/** The kind of diagram, for the run report */
+	final String kind;
+	final String packageName, className, htmlFileName;
+	final Pattern insertPointPattern;
+	/** The tag to insert, or null for the diagram's */
+	final String tag;
+	/** The alternative text of the diagram, or null for the default one */
+	final String alt;
+
+	Patch(String kind, String packageName, String className, String htmlFileName,
+		Pattern insertPointPattern, String tag) {
+	    this(kind, packageName, className, htmlFileName, insertPointPattern, tag, null);
+	}
+
+	Patch(String kind, String packageName, String className, String htmlFileName,
+		Pattern insertPointPattern, String tag, String alt) {
+	    this.kind = kind;
+	    this.packageName = packageName;
+	    this.className = className;
+	    this.htmlFileName = htmlFileName;
+	    this.insertPointPattern = insertPointPattern;
+	    this.tag = tag;
+	    this.alt = alt;
+	}
+    }
+
+    private final Options opt;
+    private final String outputFolder;
+    private final RootDoc root;
+    private final RunReport report;
+    private final ExecutorService executor;
+    /** The running patches, in submission order, returning their warning if any */
+    private final List<Future<String>> results = new ArrayList<Future<String>>();
+
+    HtmlPatcher(Options opt, String outputFolder, RootDoc root, RunReport report) {
+	this.opt = opt;
+	this.outputFolder = outputFolder;
+	this.root = root;
+	this.report = report;
+	int workers = WorkerPool.defaultWorkers();
+	this.executor = WorkerPool.create("HTML patcher", workers, 4 * workers);
+    }
+
+    /**
+     * Patches a page; called by the rendering stage once the page's diagram
+     * is rendered, since its tag may depend on it (see the lazydiagrams option)
+     */
+    void add(final Patch p) {
+	Future<String> f = executor.submit(new Callable<String>() {
+	    public String call() throws IOException {
+		RunReport.Sample sample = report.start("patch", p.kind);
+		try {
+		    return apply(p);
+		} finally {
+		    sample.stop();
+		}
+	    }
+	});
+	synchronized (results) {
+	    results.add(f);
+	}
+    }
+
+    /** Waits for all patches to complete, reporting their warnings in submission order */
+    void finish() throws IOException {
+	executor.shutdown();
+	try {
+	    for (Future<String> f : results) {
+		String warning = f.get();
+		if (warning != null)
+		    root.printNotice(warning);
+	    }
+	} catch (InterruptedException e) {
+	    executor.shutdownNow();
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while patching the javadoc pages");
+	} catch (ExecutionException e) {
+	    executor.shutdownNow();
+	    if (e.getCause() instanceof IOException)
+		throw (IOException) e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+	results.clear();
+    }
+
+    /**
+     * Takes an HTML file, looks for the first instance of the specified insertion point, and
+     * inserts the diagram image reference and a client side map in that point, or the
+     * patch's tag instead, if not null.
+     * @return a warning if the insertion point was not found, otherwise null
+     */
+    private String apply(Patch p) throws IOException {
+	// setup files
+	File output = new File(outputFolder, p.packageName.replace(".", "/"));
+	File htmlFile = new File(output, p.htmlFileName);
+	File alteredFile = new File(htmlFile.getAbsolutePath() + ".uml");
+	if (!htmlFile.exists()) {
+	    System.err.println("Expected file not found: " + htmlFile.getAbsolutePath());
+	    return null;
+	}
+
+	Object event = FlightEvents.beginPatch();
+	long offset = insertionOffset(htmlFile, p.insertPointPattern);
+	if (offset < 0) {
+	    FlightEvents.patched(event, htmlFile.getPath(), false, htmlFile.length());
+	    return "Warning, could not find a line that matches the pattern '" + p.insertPointPattern.pattern()
+		+ "'.\n Class diagram reference not inserted";
+	}
+
+	String tag = p.tag != null ? p.tag : UmlGraphDoc.diagramTag(opt, output, p.className, p.alt);
+	String newLine = System.getProperty("line.separator");
+	String insert = "<!-- UML diagram added by UMLGraph version " + Version.VERSION
+		+ " (http://www.spinellis.gr/umlgraph/) -->" + newLine + tag + newLine;
+
+	FileInputStream in = new FileInputStream(htmlFile);
+	FileOutputStream out = new FileOutputStream(alteredFile);
+	try {
+	    FileChannel source = in.getChannel(), target = out.getChannel();
+	    long size = source.size();
+	    if (offset > size) {
+		// the matching line is the last one, without a line end
+		insert = newLine + insert;
+		offset = size;
+	    }
+	    transfer(source, 0, offset, target);
+	    ByteBuffer b = ByteBuffer.wrap(insert.getBytes(opt.outputEncoding));
+	    while (b.hasRemaining())
+		target.write(b);
+	    transfer(source, offset, size - offset, target);
+	} finally {
+	    in.close();
+	    out.close();
+	}
+
+	try {
+	    Files.move(alteredFile.toPath(), htmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+	} catch (AtomicMoveNotSupportedException e) {
+	    Files.move(alteredFile.toPath(), htmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	FlightEvents.patched(event, htmlFile.getPath(), true, htmlFile.length());
+	return null;
+    }
+
+    private static void transfer(FileChannel source, long position, long count, FileChannel target)
+	    throws IOException {
+	while (count > 0) {
+	    long n = source.transferTo(position, count, target);
+	    position += n;
+	    count -= n;
+	}
+    }
+
+    /**
+     * Return the offset following the end of the first line matching the
+     * pattern, one past the end of the file if that line has no line end,
+     * or -1 if no line matches. The lines are only decoded for matching.
+     */
+    private long insertionOffset(File htmlFile, Pattern insertPointPattern) throws IOException {
+	InputStream in = new BufferedInputStream(new FileInputStream(htmlFile));
+	try {
+	    ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+	    long position = 0;
+	    int c;
+	    while ((c = in.read()) != -1) {
+		position++;
+		if (c != '\n') {
+		    line.write(c);
+		    continue;
+		}
+		if (matches(line, insertPointPattern))
+		    return position;
+		line.reset();
+	    }
+	    if (line.size() > 0 && matches(line, insertPointPattern))
+		return position + 1;
+	    return -1;
+	} finally {
+	    in.close();
+	}
+    }
+
+    private boolean matches(ByteArrayOutputStream line, Pattern insertPointPattern) throws IOException {
+	String s = line.toString(opt.outputEncoding);
+	if (s.endsWith("\r"))
+	    s = s.substring(0, s.length() - 1);
+	return insertPointPattern.matcher(s).matches();
+    }
+}
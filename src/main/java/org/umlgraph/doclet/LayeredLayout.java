@@ -0,0 +1,436 @@
+package org.umlgraph.doclet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.umlgraph.doclet.DotGraph.Edge;
+import org.umlgraph.doclet.DotGraph.Node;
+
+/**
+ * A simple layered (Sugiyama style) layout for small dot graphs.
+ * <p>
+ * The steps follow the ones of Graphviz dot: cycles are broken by reversing
+ * back edges, nodes are ranked by longest path, long edges are split with
+ * virtual nodes, crossings are reduced with barycenter sweeps, and finally
+ * coordinates are assigned rank by rank. No attempt is made to match dot's
+ * output exactly; the goal is a readable diagram at a fraction of the cost
+ * of starting an external process.
+ *
+ * @depend - - - DotGraph
+ * @depend - - - HtmlLabel
+ */
+class LayeredLayout {
+    /** Points per inch, the unit of nodesep and ranksep */
+    private static final double POINTS = 72;
+    /** Size of the virtual nodes along the rank */
+    private static final double VIRTUAL_SIZE = 8;
+    /** Number of crossing reduction sweeps */
+    private static final int SWEEPS = 8;
+    /** Margin around the whole drawing */
+    static final double MARGIN = 4;
+
+    private final DotGraph g;
+    private final boolean horizontal;
+    private final double nodeSep, rankSep;
+    /** The ranks, each holding its nodes in order */
+    private List<List<Node>> ranks = new ArrayList<List<Node>>();
+    /** Layout edges (after reversal and splitting) going down from each node */
+    private Map<Node, List<Node>> down = new HashMap<Node, List<Node>>();
+    /** Layout edges going up from each node */
+    private Map<Node, List<Node>> up = new HashMap<Node, List<Node>>();
+    /** The chain of layout nodes each edge passes through, from tail to head */
+    private Map<Edge, List<Node>> routes = new HashMap<Edge, List<Node>>();
+    /** Width and height of the whole drawing */
+    double width, height;
+
+    LayeredLayout(DotGraph g) {
+	this.g = g;
+	this.horizontal = "LR".equalsIgnoreCase(g.graphAttributes.get("rankdir"))
+		|| "RL".equalsIgnoreCase(g.graphAttributes.get("rankdir"));
+	this.nodeSep = POINTS * number(g.graphAttributes.get("nodesep"), 0.25);
+	this.rankSep = POINTS * number(g.graphAttributes.get("ranksep"), 0.5);
+    }
+
+    static double number(String s, double def) {
+	if (s == null)
+	    return def;
+	try {
+	    return Double.parseDouble(s);
+	} catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /** Compute the positions of all nodes and the routes of all edges */
+    void layout() {
+	measureNodes();
+	Set<Edge> reversed = breakCycles();
+	assignRanks(reversed);
+	buildRanks(reversed);
+	orderRanks();
+	assignCoordinates();
+	routeEdges();
+    }
+
+    private void measureNodes() {
+	String face = g.nodeDefaults.get("fontname");
+	for (Node n : g.nodes.values()) {
+	    String f = g.attribute(n, "fontname");
+	    double size = number(g.attribute(n, "fontsize"), 14);
+	    String label = n.attributes.get("label");
+	    n.label = HtmlLabel.parse(label != null ? label : n.id, f != null ? f : face, size);
+	    n.width = n.label.width;
+	    n.height = n.label.height;
+	    String shape = g.attribute(n, "shape");
+	    if (shape != null && (shape.equals("ellipse") || shape.equals("oval"))) {
+		n.width *= Math.sqrt(2);
+		n.height *= Math.sqrt(2);
+	    } else if (shape != null && !shape.equals("plaintext") && !shape.equals("none")) {
+		// leave room for the outline decorations
+		n.width += 8;
+		n.height += 8;
+	    }
+	}
+    }
+
+    /** The extent of a node along the rank axis */
+    private double rankSize(Node n) {
+	return n.virtual ? 0 : horizontal ? n.width : n.height;
+    }
+
+    /** The extent of a node across the rank axis */
+    private double orderSize(Node n) {
+	return n.virtual ? VIRTUAL_SIZE : horizontal ? n.height : n.width;
+    }
+
+    /** Find the edges that close cycles with a depth-first search; these are laid out reversed */
+    private Set<Edge> breakCycles() {
+	Map<Node, List<Edge>> out = new HashMap<Node, List<Edge>>();
+	for (Edge e : g.edges) {
+	    List<Edge> l = out.get(e.tail);
+	    if (l == null)
+		out.put(e.tail, l = new ArrayList<Edge>());
+	    l.add(e);
+	}
+	Set<Edge> reversed = new HashSet<Edge>();
+	Set<Node> done = new HashSet<Node>();
+	Set<Node> onStack = new HashSet<Node>();
+	for (Node n : g.nodes.values())
+	    if (!done.contains(n))
+		dfs(n, out, done, onStack, reversed);
+	return reversed;
+    }
+
+    private void dfs(Node n, Map<Node, List<Edge>> out, Set<Node> done, Set<Node> onStack, Set<Edge> reversed) {
+	done.add(n);
+	onStack.add(n);
+	List<Edge> l = out.get(n);
+	if (l != null)
+	    for (Edge e : l) {
+		if (onStack.contains(e.head))
+		    reversed.add(e);
+		else if (!done.contains(e.head))
+		    dfs(e.head, out, done, onStack, reversed);
+	    }
+	onStack.remove(n);
+    }
+
+    /** Longest path ranking over the acyclic edges */
+    private void assignRanks(Set<Edge> reversed) {
+	Map<Node, Integer> inDegree = new HashMap<Node, Integer>();
+	Map<Node, List<Node>> succ = new HashMap<Node, List<Node>>();
+	for (Node n : g.nodes.values()) {
+	    inDegree.put(n, 0);
+	    succ.put(n, new ArrayList<Node>());
+	    n.rank = 0;
+	}
+	for (Edge e : g.edges) {
+	    if (e.tail == e.head)
+		continue;
+	    Node from = reversed.contains(e) ? e.head : e.tail;
+	    Node to = reversed.contains(e) ? e.tail : e.head;
+	    succ.get(from).add(to);
+	    inDegree.put(to, inDegree.get(to) + 1);
+	}
+	List<Node> queue = new ArrayList<Node>();
+	for (Node n : g.nodes.values())
+	    if (inDegree.get(n) == 0)
+		queue.add(n);
+	for (int i = 0; i < queue.size(); i++) {
+	    Node n = queue.get(i);
+	    for (Node s : succ.get(n)) {
+		s.rank = Math.max(s.rank, n.rank + 1);
+		int d = inDegree.get(s) - 1;
+		inDegree.put(s, d);
+		if (d == 0)
+		    queue.add(s);
+	    }
+	}
+    }
+
+    /** Place the nodes in their ranks, splitting long edges with virtual nodes */
+    private void buildRanks(Set<Edge> reversed) {
+	for (Node n : g.nodes.values())
+	    rank(n.rank).add(n);
+	int virtuals = 0;
+	for (Edge e : g.edges) {
+	    List<Node> route = new ArrayList<Node>();
+	    routes.put(e, route);
+	    if (e.tail == e.head) {
+		route.add(e.tail);
+		continue;
+	    }
+	    boolean rev = reversed.contains(e);
+	    Node from = rev ? e.head : e.tail;
+	    Node to = rev ? e.tail : e.head;
+	    route.add(from);
+	    Node prev = from;
+	    for (int r = from.rank + 1; r < to.rank; r++) {
+		Node v = new Node("v" + virtuals++, true);
+		v.rank = r;
+		rank(r).add(v);
+		link(prev, v);
+		route.add(v);
+		prev = v;
+	    }
+	    if (from.rank != to.rank)
+		link(prev, to);
+	    route.add(to);
+	    if (rev)
+		Collections.reverse(route);
+	}
+	for (List<Node> rank : ranks)
+	    for (int i = 0; i < rank.size(); i++)
+		rank.get(i).order = i;
+    }
+
+    private List<Node> rank(int r) {
+	while (ranks.size() <= r)
+	    ranks.add(new ArrayList<Node>());
+	return ranks.get(r);
+    }
+
+    private void link(Node from, Node to) {
+	adjacent(down, from).add(to);
+	adjacent(up, to).add(from);
+    }
+
+    private static List<Node> adjacent(Map<Node, List<Node>> m, Node n) {
+	List<Node> l = m.get(n);
+	if (l == null)
+	    m.put(n, l = new ArrayList<Node>());
+	return l;
+    }
+
+    /** Reduce edge crossings by barycenter sweeps, keeping the best ordering found */
+    private void orderRanks() {
+	int best = crossings();
+	List<List<Node>> bestRanks = copy(ranks);
+	for (int sweep = 0; sweep < SWEEPS && best > 0; sweep++) {
+	    if (sweep % 2 == 0)
+		for (int r = 1; r < ranks.size(); r++)
+		    reorder(ranks.get(r), up);
+	    else
+		for (int r = ranks.size() - 2; r >= 0; r--)
+		    reorder(ranks.get(r), down);
+	    int c = crossings();
+	    if (c < best) {
+		best = c;
+		bestRanks = copy(ranks);
+	    }
+	}
+	ranks = bestRanks;
+	for (List<Node> rank : ranks)
+	    for (int i = 0; i < rank.size(); i++)
+		rank.get(i).order = i;
+    }
+
+    private static List<List<Node>> copy(List<List<Node>> l) {
+	List<List<Node>> c = new ArrayList<List<Node>>(l.size());
+	for (List<Node> r : l)
+	    c.add(new ArrayList<Node>(r));
+	return c;
+    }
+
+    /** Sort a rank by the barycenter of each node's neighbors in the adjacent rank */
+    private void reorder(List<Node> rank, Map<Node, List<Node>> neighbors) {
+	final Map<Node, Double> bary = new HashMap<Node, Double>();
+	for (Node n : rank) {
+	    List<Node> l = neighbors.get(n);
+	    if (l == null || l.isEmpty()) {
+		bary.put(n, (double) n.order);
+		continue;
+	    }
+	    double sum = 0;
+	    for (Node o : l)
+		sum += o.order;
+	    bary.put(n, sum / l.size());
+	}
+	Collections.sort(rank, new Comparator<Node>() {
+	    public int compare(Node a, Node b) {
+		return Double.compare(bary.get(a), bary.get(b));
+	    }
+	});
+	for (int i = 0; i < rank.size(); i++)
+	    rank.get(i).order = i;
+    }
+
+    /** Count the edge crossings between adjacent ranks */
+    private int crossings() {
+	int count = 0;
+	for (List<Node> rank : ranks) {
+	    List<int[]> segments = new ArrayList<int[]>();
+	    for (Node n : rank) {
+		List<Node> l = down.get(n);
+		if (l != null)
+		    for (Node o : l)
+			segments.add(new int[] { n.order, o.order });
+	    }
+	    for (int i = 0; i < segments.size(); i++)
+		for (int j = i + 1; j < segments.size(); j++) {
+		    int[] a = segments.get(i), b = segments.get(j);
+		    if ((a[0] - b[0]) * (a[1] - b[1]) < 0)
+			count++;
+		}
+	}
+	return count;
+    }
+
+    /**
+     * Assign the coordinates: ranks are stacked at their tallest node plus
+     * the rank separation, while within a rank nodes are pulled towards the
+     * average position of their neighbors, keeping at least the node
+     * separation between them.
+     */
+    private void assignCoordinates() {
+	// Position along the rank axis
+	double[] rankPos = new double[ranks.size()];
+	double pos = 0;
+	for (int r = 0; r < ranks.size(); r++) {
+	    double size = 0;
+	    for (Node n : ranks.get(r))
+		size = Math.max(size, rankSize(n));
+	    rankPos[r] = pos + size / 2;
+	    pos += size + rankSep;
+	}
+	// Initial position across the rank axis: packed and centered
+	Map<Node, Double> across = new HashMap<Node, Double>();
+	for (List<Node> rank : ranks) {
+	    double p = 0;
+	    for (Node n : rank) {
+		across.put(n, p + orderSize(n) / 2);
+		p += orderSize(n) + nodeSep;
+	    }
+	    double shift = (p - nodeSep) / 2;
+	    for (Node n : rank)
+		across.put(n, across.get(n) - shift);
+	}
+	for (int sweep = 0; sweep < SWEEPS; sweep++) {
+	    if (sweep % 2 == 0)
+		for (int r = 1; r < ranks.size(); r++)
+		    align(ranks.get(r), up, across);
+	    else
+		for (int r = ranks.size() - 2; r >= 0; r--)
+		    align(ranks.get(r), down, across);
+	}
+	// Normalize to the drawing area
+	double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+	for (List<Node> rank : ranks)
+	    for (Node n : rank) {
+		min = Math.min(min, across.get(n) - orderSize(n) / 2);
+		max = Math.max(max, across.get(n) + orderSize(n) / 2);
+	    }
+	if (ranks.isEmpty() || min > max)
+	    min = max = 0;
+	double rankExtent = Math.max(0, pos - rankSep);
+	for (int r = 0; r < ranks.size(); r++)
+	    for (Node n : ranks.get(r)) {
+		double a = across.get(n) - min + MARGIN;
+		double b = rankPos[r] + MARGIN;
+		n.x = horizontal ? b : a;
+		n.y = horizontal ? a : b;
+	    }
+	width = (horizontal ? rankExtent : max - min) + 2 * MARGIN;
+	height = (horizontal ? max - min : rankExtent) + 2 * MARGIN;
+    }
+
+    /** Move the nodes of a rank towards their neighbors, resolving overlaps */
+    private void align(List<Node> rank, Map<Node, List<Node>> neighbors, Map<Node, Double> across) {
+	int n = rank.size();
+	double[] want = new double[n];
+	for (int i = 0; i < n; i++) {
+	    Node node = rank.get(i);
+	    List<Node> l = neighbors.get(node);
+	    if (l == null || l.isEmpty()) {
+		want[i] = across.get(node);
+		continue;
+	    }
+	    double sum = 0;
+	    for (Node o : l)
+		sum += across.get(o);
+	    want[i] = sum / l.size();
+	}
+	// Push right from the left, and left from the right, then average
+	double[] right = new double[n], left = new double[n];
+	for (int i = 0; i < n; i++) {
+	    right[i] = want[i];
+	    if (i > 0)
+		right[i] = Math.max(right[i], right[i - 1] + gap(rank.get(i - 1), rank.get(i)));
+	}
+	for (int i = n - 1; i >= 0; i--) {
+	    left[i] = want[i];
+	    if (i < n - 1)
+		left[i] = Math.min(left[i], left[i + 1] - gap(rank.get(i), rank.get(i + 1)));
+	}
+	double[] avg = new double[n];
+	for (int i = 0; i < n; i++)
+	    avg[i] = (left[i] + right[i]) / 2;
+	// The average of two valid placements is valid too
+	for (int i = 0; i < n; i++)
+	    across.put(rank.get(i), avg[i]);
+    }
+
+    private double gap(Node a, Node b) {
+	return (orderSize(a) + orderSize(b)) / 2 + (a.virtual || b.virtual ? nodeSep / 2 : nodeSep);
+    }
+
+    /** Create the polyline of each edge, clipped to the boundaries of its end nodes */
+    private void routeEdges() {
+	for (Edge e : g.edges) {
+	    List<Node> route = routes.get(e);
+	    e.points = new ArrayList<double[]>();
+	    if (e.tail == e.head) {
+		// self loop on the right side of the node
+		Node n = e.tail;
+		double x = n.x + n.width / 2, y = n.y;
+		e.points.add(new double[] { x, y - n.height / 4 });
+		e.points.add(new double[] { x + 18, y - n.height / 4 });
+		e.points.add(new double[] { x + 18, y + n.height / 4 });
+		e.points.add(new double[] { x, y + n.height / 4 });
+		continue;
+	    }
+	    for (Node n : route)
+		e.points.add(new double[] { n.x, n.y });
+	    int last = e.points.size() - 1;
+	    e.points.set(0, clip(e.tail, e.points.get(1)));
+	    e.points.set(last, clip(e.head, e.points.get(last - 1)));
+	}
+    }
+
+    /** Return the point where the segment from the node center towards p leaves the node */
+    private static double[] clip(Node n, double[] p) {
+	double dx = p[0] - n.x, dy = p[1] - n.y;
+	if (dx == 0 && dy == 0)
+	    return new double[] { n.x, n.y };
+	double sx = dx == 0 ? Double.MAX_VALUE : (n.width / 2) / Math.abs(dx);
+	double sy = dy == 0 ? Double.MAX_VALUE : (n.height / 2) / Math.abs(dy);
+	double s = Math.min(1, Math.min(sx, sy));
+	return new double[] { n.x + dx * s, n.y + dy * s };
+    }
+}
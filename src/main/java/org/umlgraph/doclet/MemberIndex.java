@@ -0,0 +1,114 @@
+package org.umlgraph.doclet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.ConstructorDoc;
+import com.sun.javadoc.FieldDoc;
+import com.sun.javadoc.MethodDoc;
+import com.sun.javadoc.ProgramElementDoc;
+
+/**
+ * The members of the documented classes, and their labels.
+ * <p>
+ * Each call of {@link ClassDoc#fields()}, {@link ClassDoc#methods()} and
+ * the like filters and copies the members of a class anew, and a class is
+ * printed, and its relations inferred, in every diagram showing it. The
+ * index keeps the member arrays of a class from the first time they are
+ * asked for, and the label of each member (its visibility, name and type)
+ * for each combination of the options it depends on.
+ * <p>
+ * An index lasts for the run of its {@link Options}, whose clones share
+ * it, and may be used by several threads. The arrays it returns are shared
+ * and must not be modified.
+ */
+class MemberIndex {
+    /** The members of a class, each kind read from the class when first asked for */
+    static class Members {
+	private final ClassDoc c;
+	private volatile FieldDoc[] fields, enumConstants, declaredFields;
+	private volatile MethodDoc[] methods, declaredMethods;
+	private volatile ConstructorDoc[] constructors;
+
+	private Members(ClassDoc c) {
+	    this.c = c;
+	}
+
+	/** The included fields, see {@link ClassDoc#fields()} */
+	FieldDoc[] fields() {
+	    FieldDoc[] a = fields;
+	    return a != null ? a : (fields = c.fields());
+	}
+
+	/** All the fields, see {@link ClassDoc#fields(boolean)} */
+	FieldDoc[] declaredFields() {
+	    FieldDoc[] a = declaredFields;
+	    return a != null ? a : (declaredFields = c.fields(false));
+	}
+
+	/** The enum constants, see {@link ClassDoc#enumConstants()} */
+	FieldDoc[] enumConstants() {
+	    FieldDoc[] a = enumConstants;
+	    return a != null ? a : (enumConstants = c.enumConstants());
+	}
+
+	/** The included methods, see {@link ClassDoc#methods()} */
+	MethodDoc[] methods() {
+	    MethodDoc[] a = methods;
+	    return a != null ? a : (methods = c.methods());
+	}
+
+	/** All the methods, see {@link ClassDoc#methods(boolean)} */
+	MethodDoc[] declaredMethods() {
+	    MethodDoc[] a = declaredMethods;
+	    return a != null ? a : (declaredMethods = c.methods(false));
+	}
+
+	/** The included constructors, see {@link ClassDoc#constructors()} */
+	ConstructorDoc[] constructors() {
+	    ConstructorDoc[] a = constructors;
+	    return a != null ? a : (constructors = c.constructors());
+	}
+    }
+
+    /** The number of option combinations a label depends on, see {@link #mode(Options)} */
+    private static final int MODES = 1 << 5;
+
+    private final Map<ClassDoc, Members> members = new ConcurrentHashMap<ClassDoc, Members>();
+    /** The labels of each member, by mode */
+    private final Map<ProgramElementDoc, String[]> labels = new ConcurrentHashMap<ProgramElementDoc, String[]>();
+
+    /** Return the members of a class */
+    Members members(ClassDoc c) {
+	Members m = members.get(c);
+	if (m == null)
+	    members.put(c, m = new Members(c));
+	return m;
+    }
+
+    /** Return the combination of the options a member label depends on */
+    static int mode(Options opt) {
+	return (opt.showVisibility ? 1 : 0) | (opt.showType ? 2 : 0) | (opt.showQualified ? 4 : 0)
+	    | (opt.showQualifiedGenerics ? 8 : 0) | (opt.hideGenerics ? 16 : 0);
+    }
+
+    /** Return the label of a member in the specified mode, or null if it is not known yet */
+    String label(ProgramElementDoc m, int mode) {
+	if (HotPathCounters.enabled)
+	    HotPathCounters.memberLabelLookups.increment();
+	String[] l = labels.get(m);
+	String label = l == null ? null : l[mode];
+	if (label != null && HotPathCounters.enabled)
+	    HotPathCounters.memberLabelHits.increment();
+	return label;
+    }
+
+    /** Records the label of a member in the specified mode */
+    void label(ProgramElementDoc m, int mode, String label) {
+	String[] l = labels.get(m);
+	if (l == null)
+	    labels.put(m, l = new String[MODES]);
+	l[mode] = label;
+    }
+}
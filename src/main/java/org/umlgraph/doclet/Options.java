@@ -112,10 +112,25 @@ public class Options implements Cloneable, OptionProvider {
     boolean useImports = false;
     Visibility inferDependencyVisibility = Visibility.PRIVATE;
     boolean inferDepInPackage = false;
+    boolean inferDepReduce = false;
     RelationType inferRelationshipType = RelationType.NAVASSOC;
     private List<Pattern> collPackages = new ArrayList<Pattern>();
     boolean compact = false;
     boolean hidePrivateInner = false;
+    // Compartments with more members show the most visible ones only (0 disables)
+    int memberBudget = 0;
+    // Diagrams with more classes are drawn with some packages collapsed (0 disables)
+    int nodeBudget = 0;
+    // UMLDoc writes a class model drawn by a script instead of the context diagrams
+    boolean contextViewer = false;
+    // UMLDoc embeds the diagrams so that they are loaded when scrolled into view
+    boolean lazyDiagrams = false;
+    // UMLDoc minifies the SVG diagrams
+    boolean svgMinify = false;
+    // UMLDoc writes compressed .svgz copies of the SVG diagrams and refers to them
+    boolean svgz = false;
+    // UMLDoc adds a package dependency diagram to the overview page
+    boolean packageOverview = false;
     // internal option, used by UMLDoc to generate relative links between classes
     boolean relativeLinksForSourcePackages = false;
     // internal option, used by UMLDoc to force strict matching on the class names
@@ -125,6 +140,32 @@ public class Options implements Cloneable, OptionProvider {
     // TODO: consider making this standard behaviour
     boolean strictMatching = false;
     String dotExecutable = "dot";
+    // UMLDoc diagrams with up to this many nodes are laid out without invoking dot (0 disables)
+    int builtinLayoutNodes = 0;
+    // Number of UMLDoc diagrams rendered by a single dot process
+    int dotBatchSize = 1;
+    // UMLDoc pipes the dot text to Graphviz instead of writing the dot files
+    boolean dotPipe = false;
+    // Also write the dot files when piping them to Graphviz
+    boolean keepDot = false;
+    // UMLDoc only renders the diagrams that changed since the previous run
+    boolean reuseDiagrams = false;
+    // Seconds after which UMLDoc stops dot and renders a simplified diagram (0 waits forever)
+    int dotTimeout = 0;
+    // UMLDoc diagrams with more nodes or edges than these are laid out with dotLargeEngine (0 disables)
+    int dotLargeNodes = 0;
+    int dotLargeEdges = 0;
+    String dotLargeEngine = "sfdp";
+    // Number of threads rendering the UMLDoc diagrams (0 for one per processor)
+    int renderWorkers = 0;
+    // UMLDoc writes a report of the time taken by each stage
+    boolean timingReport = false;
+    // Count the calls of the hot paths, see HotPathCounters
+    boolean hotCounters = false;
+    // The tags of the documented items, shared by the clones for the run
+    final TagIndex tagIndex = new TagIndex();
+    // The members of the documented classes and their labels, shared likewise
+    final MemberIndex memberIndex = new MemberIndex();
 
     Options() {
     }
@@ -137,6 +178,8 @@ public class Options implements Cloneable, OptionProvider {
 	} catch (CloneNotSupportedException e) {
 	    throw new RuntimeException("Cannot clone?!?", e); // Should not happen
 	}
+	if (HotPathCounters.enabled)
+	    HotPathCounters.optionsClones.increment();
 	// deep clone the hide and collection patterns
 	clone.hidePatterns = new ArrayList<Pattern>(hidePatterns);
 	clone.includePatterns = new ArrayList<Pattern>(includePatterns);
@@ -185,270 +228,598 @@ public class Options implements Cloneable, OptionProvider {
     }
 
     /**
-     * Return the number of arguments associated with the specified option.
-     * The return value includes the actual option.
-     * Will return 0 if the option is not supported.
+     * An option: its name, the number of elements it takes on the command
+     * line, including itself, whether it may be negated with a leading
+     * <tt>!</tt>, and how it is set.
+     * <p>
+     * On the command line only the flags may be negated; in
+     * <code>@opt</code> tags the negated options taking arguments reset
+     * them to their defaults.
      */
-    public static int optionLength(String option) {
-        if(matchOption(option, "qualify", true) ||
-           matchOption(option, "qualifyGenerics", true) ||
-           matchOption(option, "hideGenerics", true) ||
-           matchOption(option, "horizontal", true) ||
-           matchOption(option, "all") ||
-           matchOption(option, "attributes", true) ||
-           matchOption(option, "enumconstants", true) ||
-           matchOption(option, "operations", true) ||
-           matchOption(option, "enumerations", true) ||
-           matchOption(option, "constructors", true) ||
-           matchOption(option, "visibility", true) ||
-           matchOption(option, "types", true) ||
-           matchOption(option, "autosize", true) ||
-           matchOption(option, "commentname", true) ||
-           matchOption(option, "nodefontabstractitalic", true) ||
-           matchOption(option, "postfixpackage", true) ||
-           matchOption(option, "noguillemot", true) ||
-           matchOption(option, "views", true) ||
-           matchOption(option, "inferrel", true) ||
-           matchOption(option, "useimports", true) ||
-           matchOption(option, "collapsible", true) ||
-           matchOption(option, "inferdep", true) ||
-           matchOption(option, "inferdepinpackage", true) ||
-           matchOption(option, "hideprivateinner", true) ||
-           matchOption(option, "compact", true))
-
-            return 1;
-        else if(matchOption(option, "nodefillcolor") ||
-           matchOption(option, "nodefontcolor") ||
-           matchOption(option, "nodefontsize") ||
-           matchOption(option, "nodefontname") ||
-           matchOption(option, "nodefontclasssize") ||
-           matchOption(option, "nodefontclassname") ||
-           matchOption(option, "nodefonttagsize") ||
-           matchOption(option, "nodefonttagname") ||
-           matchOption(option, "nodefontpackagesize") ||
-           matchOption(option, "nodefontpackagename") ||
-           matchOption(option, "edgefontcolor") ||
-           matchOption(option, "edgecolor") ||
-           matchOption(option, "edgefontsize") ||
-           matchOption(option, "edgefontname") ||
-           matchOption(option, "shape") ||
-           matchOption(option, "output") ||
-           matchOption(option, "outputencoding") ||
-           matchOption(option, "bgcolor") ||
-           matchOption(option, "hide") ||
-           matchOption(option, "include") ||
-           matchOption(option, "apidocroot") ||
-           matchOption(option, "apidocmap") ||
-           matchOption(option, "d") ||
-           matchOption(option, "view") ||
-           matchOption(option, "inferreltype") ||
-           matchOption(option, "inferdepvis") ||
-           matchOption(option, "collpackages") ||
-           matchOption(option, "nodesep") ||
-           matchOption(option, "ranksep") ||
-           matchOption(option, "dotexecutable") ||
-           matchOption(option, "link"))
-           return 2;
-        else if(matchOption(option, "contextPattern") ||
-           matchOption(option, "linkoffline"))
-            return 3;
-        else
-            return 0;
+    private static abstract class Option {
+	final String name;
+	final int length;
+	final boolean negatable;
+
+	Option(String name, int length, boolean negatable) {
+	    this.name = name;
+	    this.length = length;
+	    this.negatable = negatable;
+	}
+
+	/** Return the number of elements needed to set the option */
+	int required() {
+	    return length;
+	}
+
+	/** Sets the option from its elements, negated if not positive */
+	abstract void set(Options o, String[] opt, boolean positive);
     }
-    
-    /** Set the options based on a single option and its arguments */
-    void setOption(String[] opt) {
-	if(!matchOption(opt[0], "hide") && optionLength(opt[0]) > opt.length) {
-	    System.err.println("Skipping option '" + opt[0] + "', missing argument");
-	    return;
+
+    /** A boolean option, set unless negated */
+    private static abstract class Flag extends Option {
+	Flag(String name) {
+	    super(name, 1, true);
 	}
-	boolean dash = opt[0].length() > 1 && opt[0].charAt(0) == '-';
-	boolean positive = !(opt[0].length() > 1 && opt[0].charAt(dash ? 1 : 0) == '!');
-	
-	if(matchOption(opt[0], "qualify", true)) {
-	    showQualified = positive;
-	} else if(matchOption(opt[0], "qualifyGenerics", true)) {
-	    showQualifiedGenerics = positive;
-	} else if(matchOption(opt[0], "hideGenerics", true)) {
-	    hideGenerics = positive;
-	} else if(matchOption(opt[0], "horizontal", true)) {
-	    horizontal = positive;
-	} else if(matchOption(opt[0], "attributes", true)) {
-	    showAttributes = positive;
-	} else if(matchOption(opt[0], "enumconstants", true)) {
-	    showEnumConstants = positive;
-	} else if(matchOption(opt[0], "operations", true)) {
-	    showOperations = positive;
-	} else if(matchOption(opt[0], "enumerations", true)) {
-	    showEnumerations = positive;
-	} else if(matchOption(opt[0], "constructors", true)) {
-	    showConstructors = positive;
-	} else if(matchOption(opt[0], "visibility", true)) {
-	    showVisibility = positive;
-	} else if(matchOption(opt[0], "types", true)) {
-	    showType = positive;
-	} else if(matchOption(opt[0], "autoSize", true)) {
-	    autoSize = positive;
-	} else if(matchOption(opt[0], "commentname", true)) {
-	    showComment = positive;
-	} else if(matchOption(opt[0], "all")) {
-	    setAll();
-	} else if(matchOption(opt[0], "bgcolor", true)) {
-	    bgColor = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "edgecolor", true)) {
-	    edgeColor = positive ? opt[1] : "black";
-	} else if(matchOption(opt[0], "edgefontcolor", true)) {
-	    edgeFontColor = positive ? opt[1] : "black";
-	} else if(matchOption(opt[0], "edgefontname", true)) {
-	    edgeFontName = positive ? opt[1] : Font.DEFAULT_FONT;
-	} else if(matchOption(opt[0], "edgefontsize", true)) {
-	    edgeFontSize = positive ? Double.parseDouble(opt[1]) : 10;
-	} else if(matchOption(opt[0], "nodefontcolor", true)) {
-	    nodeFontColor = positive ? opt[1] : "black";
-	} else if(matchOption(opt[0], "nodefontname", true)) {
-	    nodeFontName = positive ? opt[1] : Font.DEFAULT_FONT;
-	} else if(matchOption(opt[0], "nodefontabstractitalic", true)) {
-	    nodeFontAbstractItalic = positive;
-	} else if(matchOption(opt[0], "nodefontsize", true)) {
-	    nodeFontSize = positive ? Double.parseDouble(opt[1]) : 10;
-	} else if(matchOption(opt[0], "nodefontclassname", true)) {
-	    nodeFontClassName = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "nodefontclasssize", true)) {
-	    nodeFontClassSize = positive ? Double.parseDouble(opt[1]) : -1;
-	} else if(matchOption(opt[0], "nodefonttagname", true)) {
-	    nodeFontTagName = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "nodefonttagsize", true)) {
-	    nodeFontTagSize = positive ? Double.parseDouble(opt[1]) : -1;
-	} else if(matchOption(opt[0], "nodefontpackagename", true)) {
-	    nodeFontPackageName = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "nodefontpackagesize", true)) {
-	    nodeFontPackageSize = positive ? Double.parseDouble(opt[1]) : -1;
-	} else if(matchOption(opt[0], "nodefillcolor", true)) {
-	    nodeFillColor = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "shape", true)) {
-	    shape = positive ? Shape.of(opt[1]) : Shape.CLASS;
-	} else if(matchOption(opt[0], "output", true)) {
-	    outputFileName = positive ? opt[1] : "graph.dot";
-	} else if(matchOption(opt[0], "outputencoding", true)) {
-	    outputEncoding = positive ? opt[1] : "ISO-8859-1";
-	} else if(matchOption(opt[0], "hide", true)) {
-	    if (positive) {
-		if (opt.length == 1) {
-		    hidePatterns.clear();
-		    hidePatterns.add(allPattern);
+    }
+
+    /** An option taking an argument */
+    private static abstract class Value extends Option {
+	Value(String name) {
+	    super(name, 2, true);
+	}
+    }
+
+    /** An option taking an integer argument */
+    private static abstract class IntValue extends Value {
+	final int defaultValue;
+
+	IntValue(String name, int defaultValue) {
+	    super(name);
+	    this.defaultValue = defaultValue;
+	}
+
+	void set(Options o, String[] opt, boolean positive) {
+	    try {
+		set(o, positive ? Integer.parseInt(opt[1]) : defaultValue);
+	    } catch (NumberFormatException e) {
+		System.err.println("Skipping invalid " + name + " " + opt[1]);
+	    }
+	}
+
+	abstract void set(Options o, int value);
+    }
+
+    /** An option taking a numeric argument */
+    private static abstract class DoubleValue extends Value {
+	final double defaultValue;
+
+	DoubleValue(String name, double defaultValue) {
+	    super(name);
+	    this.defaultValue = defaultValue;
+	}
+
+	void set(Options o, String[] opt, boolean positive) {
+	    try {
+		set(o, positive ? Double.parseDouble(opt[1]) : defaultValue);
+	    } catch (NumberFormatException e) {
+		System.err.println("Skipping invalid " + name + " " + opt[1]);
+	    }
+	}
+
+	abstract void set(Options o, double value);
+    }
+
+    /** The options, by name */
+    private static final Map<String, Option> options = new HashMap<String, Option>();
+
+    /** Registers an option under its name and the aliases specified */
+    private static void add(Option option, String... aliases) {
+	options.put(option.name, option);
+	for (String alias : aliases)
+	    options.put(alias, option);
+    }
+
+    static {
+	// flags
+	add(new Flag("qualify") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showQualified = positive;
+	    }
+	});
+	add(new Flag("qualifyGenerics") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showQualifiedGenerics = positive;
+	    }
+	});
+	add(new Flag("hideGenerics") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.hideGenerics = positive;
+	    }
+	});
+	add(new Flag("horizontal") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.horizontal = positive;
+	    }
+	});
+	add(new Flag("attributes") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showAttributes = positive;
+	    }
+	});
+	add(new Flag("enumconstants") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showEnumConstants = positive;
+	    }
+	});
+	add(new Flag("operations") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showOperations = positive;
+	    }
+	});
+	add(new Flag("enumerations") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showEnumerations = positive;
+	    }
+	});
+	add(new Flag("constructors") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showConstructors = positive;
+	    }
+	});
+	add(new Flag("visibility") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showVisibility = positive;
+	    }
+	});
+	add(new Flag("types") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showType = positive;
+	    }
+	});
+	add(new Flag("autosize") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.autoSize = positive;
+	    }
+	}, "autoSize");
+	add(new Flag("commentname") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.showComment = positive;
+	    }
+	});
+	add(new Flag("nodefontabstractitalic") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontAbstractItalic = positive;
+	    }
+	});
+	add(new Flag("views") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.findViews = positive;
+	    }
+	});
+	add(new Flag("inferrel") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.inferRelationships = positive;
+	    }
+	});
+	add(new Flag("collapsible") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.collapsibleDiagrams = positive;
+	    }
+	});
+	add(new Flag("inferdep") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.inferDependencies = positive;
+	    }
+	});
+	add(new Flag("inferdepinpackage") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.inferDepInPackage = positive;
+	    }
+	});
+	add(new Flag("inferdepreduce") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.inferDepReduce = positive;
+	    }
+	});
+	add(new Flag("contextviewer") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.contextViewer = positive;
+	    }
+	});
+	add(new Flag("timingreport") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.timingReport = positive;
+	    }
+	});
+	add(new Flag("hotcounters") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.hotCounters = positive;
+	    }
+	});
+	add(new Flag("lazydiagrams") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.lazyDiagrams = positive;
+	    }
+	});
+	add(new Flag("svgminify") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.svgMinify = positive;
+	    }
+	});
+	add(new Flag("svgz") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.svgz = positive;
+	    }
+	});
+	add(new Flag("hideprivateinner") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.hidePrivateInner = positive;
+	    }
+	});
+	add(new Flag("useimports") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.useImports = positive;
+	    }
+	});
+	add(new Flag("compact") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.compact = positive;
+	    }
+	});
+	add(new Flag("packageoverview") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.packageOverview = positive;
+	    }
+	});
+	add(new Flag("dotpipe") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.dotPipe = positive;
+	    }
+	});
+	add(new Flag("keepdot") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.keepDot = positive;
+	    }
+	});
+	add(new Flag("reusediagrams") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.reuseDiagrams = positive;
+	    }
+	});
+	add(new Flag("postfixpackage") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.postfixPackage = positive;
+	    }
+	});
+	add(new Option("all", 1, false) {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.setAll();
+	    }
+	});
+	add(new Flag("noguillemot") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.guilOpen = positive ? "&lt;&lt;" : "\u00ab";
+		o.guilClose = positive ? "&gt;&gt;" : "\u00bb";
+	    }
+	});
+	// values, reset to their default when negated
+	add(new Value("bgcolor") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.bgColor = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("edgecolor") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.edgeColor = positive ? opt[1] : "black";
+	    }
+	});
+	add(new Value("edgefontcolor") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.edgeFontColor = positive ? opt[1] : "black";
+	    }
+	});
+	add(new Value("edgefontname") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.edgeFontName = positive ? opt[1] : Font.DEFAULT_FONT;
+	    }
+	});
+	add(new Value("nodefontcolor") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontColor = positive ? opt[1] : "black";
+	    }
+	});
+	add(new Value("nodefontname") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontName = positive ? opt[1] : Font.DEFAULT_FONT;
+	    }
+	});
+	add(new Value("nodefontclassname") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontClassName = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("nodefonttagname") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontTagName = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("nodefontpackagename") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFontPackageName = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("nodefillcolor") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.nodeFillColor = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("output") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.outputFileName = positive ? opt[1] : "graph.dot";
+	    }
+	});
+	add(new Value("outputencoding") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.outputEncoding = positive ? opt[1] : "ISO-8859-1";
+	    }
+	});
+	add(new Value("view") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.viewName = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("d") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.outputDirectory = positive ? opt[1] : null;
+	    }
+	});
+	add(new Value("dotlargeengine") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.dotLargeEngine = positive ? opt[1] : "sfdp";
+	    }
+	});
+	add(new DoubleValue("edgefontsize", 10) {
+	    void set(Options o, double value) {
+		o.edgeFontSize = value;
+	    }
+	});
+	add(new DoubleValue("nodefontsize", 10) {
+	    void set(Options o, double value) {
+		o.nodeFontSize = value;
+	    }
+	});
+	add(new DoubleValue("nodefontclasssize", -1) {
+	    void set(Options o, double value) {
+		o.nodeFontClassSize = value;
+	    }
+	});
+	add(new DoubleValue("nodefonttagsize", -1) {
+	    void set(Options o, double value) {
+		o.nodeFontTagSize = value;
+	    }
+	});
+	add(new DoubleValue("nodefontpackagesize", -1) {
+	    void set(Options o, double value) {
+		o.nodeFontPackageSize = value;
+	    }
+	});
+	add(new DoubleValue("nodesep", 0.25) {
+	    void set(Options o, double value) {
+		o.nodeSep = value;
+	    }
+	});
+	add(new DoubleValue("ranksep", 0.5) {
+	    void set(Options o, double value) {
+		o.rankSep = value;
+	    }
+	});
+	add(new IntValue("builtinlayout", 0) {
+	    void set(Options o, int value) {
+		o.builtinLayoutNodes = value;
+	    }
+	});
+	add(new IntValue("dotbatch", 1) {
+	    void set(Options o, int value) {
+		o.dotBatchSize = value;
+	    }
+	});
+	add(new IntValue("nodebudget", 0) {
+	    void set(Options o, int value) {
+		o.nodeBudget = value;
+	    }
+	});
+	add(new IntValue("memberbudget", 0) {
+	    void set(Options o, int value) {
+		o.memberBudget = value;
+	    }
+	});
+	add(new IntValue("dottimeout", 0) {
+	    void set(Options o, int value) {
+		o.dotTimeout = value;
+	    }
+	});
+	add(new IntValue("dotlargenodes", 0) {
+	    void set(Options o, int value) {
+		o.dotLargeNodes = value;
+	    }
+	});
+	add(new IntValue("dotlargeedges", 0) {
+	    void set(Options o, int value) {
+		o.dotLargeEdges = value;
+	    }
+	});
+	add(new IntValue("renderworkers", 0) {
+	    void set(Options o, int value) {
+		o.renderWorkers = value;
+	    }
+	});
+	add(new Value("shape") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.shape = positive ? Shape.of(opt[1]) : Shape.CLASS;
+	    }
+	});
+	add(new Value("hide") {
+	    // in @opt tags, a lone hide hides everything
+	    int required() {
+		return 1;
+	    }
+
+	    void set(Options o, String[] opt, boolean positive) {
+		if (!positive)
+		    o.hidePatterns.clear();
+		else if (opt.length == 1) {
+		    o.hidePatterns.clear();
+		    o.hidePatterns.add(allPattern);
 		} else {
 		    try {
-			hidePatterns.add(Pattern.compile(opt[1]));
+			o.hidePatterns.add(PatternCache.compile(opt[1]));
 		    } catch (PatternSyntaxException e) {
 			System.err.println("Skipping invalid pattern " + opt[1]);
 		    }
 		}
-	    } else
-		hidePatterns.clear();
-	} else if(matchOption(opt[0], "include", true)) {
-	    if (positive) {
-		try {
-		    includePatterns.add(Pattern.compile(opt[1]));
-		} catch (PatternSyntaxException e) {
-		    System.err.println("Skipping invalid pattern " + opt[1]);
-		}
-	    } else
-		includePatterns.clear();
-	} else if(matchOption(opt[0], "apidocroot", true)) {
-	    apiDocRoot = positive ? fixApiDocRoot(opt[1]) : null;
-	} else if(matchOption(opt[0], "apidocmap", true)) {
-	    if (positive)
-		setApiDocMapFile(opt[1]);
-	    else
-		apiDocMap.clear();
-	} else if(matchOption(opt[0], "noguillemot", true)) {
-	    guilOpen = positive ? "&lt;&lt;" : "\u00ab";
-	    guilClose = positive ? "&gt;&gt;" : "\u00bb";
-	} else if (matchOption(opt[0], "view", true)) {
-	    viewName = positive ? opt[1] : null;
-	} else if (matchOption(opt[0], "views", true)) {
-	    findViews = positive;
-	} else if (matchOption(opt[0], "d", true)) {
-	    outputDirectory = positive ? opt[1] : null;
-	} else if(matchOption(opt[0], "inferrel", true)) {
-	    inferRelationships = positive;
-	} else if(matchOption(opt[0], "inferreltype", true)) {
-	    if (positive) {
-		try {
-		    inferRelationshipType = RelationType.valueOf(opt[1].toUpperCase());
-		} catch(IllegalArgumentException e) {
-		    System.err.println("Unknown association type " + opt[1]);
-		}
-	    } else 
-		inferRelationshipType = RelationType.NAVASSOC;
-	} else if(matchOption(opt[0], "inferdepvis", true)) {
-	    if (positive) {
+	    }
+	});
+	add(new Value("include") {
+	    void set(Options o, String[] opt, boolean positive) {
+		if (!positive)
+		    o.includePatterns.clear();
+		else
+		    try {
+			o.includePatterns.add(PatternCache.compile(opt[1]));
+		    } catch (PatternSyntaxException e) {
+			System.err.println("Skipping invalid pattern " + opt[1]);
+		    }
+	    }
+	});
+	add(new Value("collpackages") {
+	    void set(Options o, String[] opt, boolean positive) {
+		if (!positive)
+		    o.collPackages.clear();
+		else
+		    try {
+			o.collPackages.add(PatternCache.compile(opt[1]));
+		    } catch (PatternSyntaxException e) {
+			System.err.println("Skipping invalid pattern " + opt[1]);
+		    }
+	    }
+	});
+	add(new Value("apidocroot") {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.apiDocRoot = positive ? o.fixApiDocRoot(opt[1]) : null;
+	    }
+	});
+	add(new Value("apidocmap") {
+	    void set(Options o, String[] opt, boolean positive) {
+		if (positive)
+		    o.setApiDocMapFile(opt[1]);
+		else
+		    o.apiDocMap.clear();
+	    }
+	});
+	add(new Value("inferreltype") {
+	    void set(Options o, String[] opt, boolean positive) {
+		if (positive) {
+		    try {
+			o.inferRelationshipType = RelationType.valueOf(opt[1].toUpperCase());
+		    } catch(IllegalArgumentException e) {
+			System.err.println("Unknown association type " + opt[1]);
+		    }
+		} else
+		    o.inferRelationshipType = RelationType.NAVASSOC;
+	    }
+	});
+	add(new Value("inferdepvis") {
+	    void set(Options o, String[] opt, boolean positive) {
+		if (positive) {
+		    try {
+			o.inferDependencyVisibility = Visibility.valueOf(opt[1].toUpperCase());
+		    } catch(IllegalArgumentException e) {
+			System.err.println("Ignoring invalid visibility specification for " +
+				"dependency inference: " + opt[1]);
+		    }
+		} else
+		    o.inferDependencyVisibility = Visibility.PRIVATE;
+	    }
+	});
+	// options that cannot be negated
+	add(new Option("dotexecutable", 2, false) {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.dotExecutable = opt[1];
+	    }
+	});
+	add(new Option("link", 2, false) {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.addApiDocRoots(opt[1]);
+	    }
+	});
+	add(new Option("linkoffline", 3, false) {
+	    void set(Options o, String[] opt, boolean positive) {
+		o.addApiDocRootsOffline(opt[1], opt[2]);
+	    }
+	});
+	add(new Option("contextPattern", 3, false) {
+	    void set(Options o, String[] opt, boolean positive) {
 		try {
-		    Visibility vis = Visibility.valueOf(opt[1].toUpperCase());
-		    inferDependencyVisibility = vis;
+		    RelationDirection d = RelationDirection.valueOf(opt[2].toUpperCase());
+		    if (opt[1].equalsIgnoreCase("all"))
+			o.contextRelationPattern = new RelationPattern(d);
+		    else
+			o.contextRelationPattern.addRelation(RelationType.valueOf(opt[1].toUpperCase()), d);
 		} catch(IllegalArgumentException e) {
-		    System.err.println("Ignoring invalid visibility specification for " +
-			    "dependency inference: " + opt[1]);
-		}
-	    } else
-		inferDependencyVisibility = Visibility.PRIVATE;
-	} else if(matchOption(opt[0], "collapsible", true)) {
-	    collapsibleDiagrams = positive;
-	} else if(matchOption(opt[0], "inferdep", true)) {
-	    inferDependencies = positive;
-	} else if(matchOption(opt[0], "inferdepinpackage", true)) {
-	    inferDepInPackage = positive;
-	} else if (matchOption(opt[0], "hideprivateinner", true)) {
-	    hidePrivateInner = positive;
-	} else if(matchOption(opt[0], "useimports", true)) {
-	    useImports = positive;
-	} else if (matchOption(opt[0], "collpackages", true)) {
-	    if (positive) {
-		try {
-		    collPackages.add(Pattern.compile(opt[1]));
-		} catch (PatternSyntaxException e) {
-		    System.err.println("Skipping invalid pattern " + opt[1]);
-		}
-	    } else
-		collPackages.clear();
-	} else if (matchOption(opt[0], "compact", true)) {
-	    compact = positive;
-	} else if (matchOption(opt[0], "postfixpackage", true)) {
-	    postfixPackage = positive;
-	} else if (matchOption(opt[0], "link")) {
-	    addApiDocRoots(opt[1]);
-	} else if (matchOption(opt[0], "linkoffline")) {
-	    addApiDocRootsOffline(opt[1], opt[2]);
-	} else if(matchOption(opt[0], "contextPattern")) {
-	    RelationDirection d; RelationType rt;
-	    try {
-		d = RelationDirection.valueOf(opt[2].toUpperCase());
-		if(opt[1].equalsIgnoreCase("all")) {
-		    contextRelationPattern = new RelationPattern(d);
-		} else {
-		    rt = RelationType.valueOf(opt[1].toUpperCase());
-		    contextRelationPattern.addRelation(rt, d);
 		}
-	    } catch(IllegalArgumentException e) {
-		
 	    }
-		
-	} else if (matchOption(opt[0], "nodesep", true)) {
-	    try {
-		nodeSep = positive ? Double.parseDouble(opt[1]) : 0.25;
-	    } catch (NumberFormatException e) {
-		System.err.println("Skipping invalid nodesep " + opt[1]);
-	    }
-	} else if (matchOption(opt[0], "ranksep", true)) {
-	    try {
-		rankSep = positive ? Double.parseDouble(opt[1]) : 0.5;
-	    } catch (NumberFormatException e) {
-		System.err.println("Skipping invalid ranksep " + opt[1]);
-	    }
-	} else if (matchOption(opt[0], "dotexecutable")) {
-	    dotExecutable = opt[1];
-	} else
-	    ; // Do nothing, javadoc will handle the option or complain, if needed.
+	});
+    }
+
+    /** Return the index of the option name in the specified string, after any - and ! */
+    private static int nameStart(String given) {
+	int begin = 0, end = given.length();
+	if (begin < end && given.charAt(begin) == '-')
+	    ++begin;
+	if (begin < end && given.charAt(begin) == '!')
+	    ++begin;
+	return begin;
+    }
+
+    /** Return true if the specified option string is negated */
+    private static boolean negated(String given) {
+	int begin = nameStart(given);
+	return begin > 0 && given.charAt(begin - 1) == '!';
+    }
+
+    /** Return the option of the specified string, or null if none matches */
+    private static Option option(String given) {
+	Option o = options.get(given.substring(nameStart(given)));
+	return o == null || (!o.negatable && negated(given)) ? null : o;
+    }
+
+    /**
+     * Return the number of arguments associated with the specified option.
+     * The return value includes the actual option.
+     * Will return 0 if the option is not supported.
+     */
+    public static int optionLength(String option) {
+	Option o = option(option);
+	if (o == null)
+	    return 0;
+	// on the command line only the flags may be negated
+	return o.length > 1 && negated(option) ? 0 : o.length;
+    }
+    
+    /** Set the options based on a single option and its arguments */
+    void setOption(String[] opt) {
+	if (HotPathCounters.enabled)
+	    HotPathCounters.optionsSet.increment();
+	Option o = option(opt[0]);
+	if (o == null)
+	    return; // Do nothing, javadoc will handle the option or complain, if needed.
+	boolean positive = !negated(opt[0]);
+	if (positive && o.required() > opt.length) {
+	    System.err.println("Skipping option '" + opt[0] + "', missing argument");
+	    return;
+	}
+	o.set(this, opt, positive);
     }
 
     /**
@@ -465,7 +836,7 @@ public class Options implements Cloneable, OptionProvider {
 	    String line;
 	    while((line = br.readLine()) != null) {
 		line = line + ".";
-		Pattern pattern = Pattern.compile(line.replace(".", "\\.") + "[^\\.]*");
+		Pattern pattern = PatternCache.compile(line.replace(".", "\\.") + "[^\\.]*");
 		apiDocMap.put(pattern, packageListUrl);
 	    }
 	} catch(IOException e) {
@@ -495,7 +866,7 @@ public class Options implements Cloneable, OptionProvider {
 	    String line;
 	    while((line = br.readLine()) != null) {
 		line = line + ".";
-		Pattern pattern = Pattern.compile(line.replace(".", "\\.") + "[^\\.]*");
+		Pattern pattern = PatternCache.compile(line.replace(".", "\\.") + "[^\\.]*");
 		apiDocMap.put(pattern, fixApiDocRoot(docUrl));
 	    }
 	} catch(IOException e) {
@@ -523,7 +894,7 @@ public class Options implements Cloneable, OptionProvider {
 		    String thisRoot = (String) mapEntry.getValue();
 		    if (thisRoot != null) {
 			thisRoot = fixApiDocRoot(thisRoot);
-			apiDocMap.put(Pattern.compile((String) mapEntry.getKey()), thisRoot);
+			apiDocMap.put(PatternCache.compile((String) mapEntry.getKey()), thisRoot);
 		    } else {
 			System.err.println("No URL for pattern " + mapEntry.getKey());
 		    }
@@ -551,9 +922,14 @@ public class Options implements Cloneable, OptionProvider {
      */
     public String getApiDocRoot(String className) {
 	if(apiDocMap.isEmpty())
-	    apiDocMap.put(Pattern.compile(".*"), DEFAULT_EXTERNAL_APIDOC);
+	    apiDocMap.put(PatternCache.compile(".*"), DEFAULT_EXTERNAL_APIDOC);
 	
+	boolean count = HotPathCounters.enabled;
+	if (count)
+	    HotPathCounters.apiDocRootLookups.increment();
 	for (Map.Entry<Pattern, String> mapEntry : apiDocMap.entrySet()) {
+	    if (count)
+		HotPathCounters.apiDocRootPatternTests.increment();
 	    if (mapEntry.getKey().matcher(className).matches())
 		return mapEntry.getValue();
 	}
@@ -586,7 +962,7 @@ public class Options implements Cloneable, OptionProvider {
 	if (p == null)
 	    return;
 
-	for (Tag tag : p.tags("opt"))
+	for (Tag tag : tagIndex.tags(p, "opt"))
 	    setOption(StringUtil.tokenize(tag.text()));
     }
 
@@ -596,6 +972,16 @@ public class Options implements Cloneable, OptionProvider {
      * @return true if the string matches.
      */
     public boolean matchesHideExpression(String s) {
+	if (!HotPathCounters.enabled)
+	    return matchesHidePatterns(s);
+	HotPathCounters.hideExpressionTests.increment();
+	boolean matches = matchesHidePatterns(s);
+	if (matches)
+	    HotPathCounters.hideExpressionMatches.increment();
+	return matches;
+    }
+
+    private boolean matchesHidePatterns(String s) {
 	for (Pattern hidePattern : hidePatterns) {
 	    // micro-optimization because the "all pattern" is heavily used in UmlGraphDoc
 	    if(hidePattern == allPattern)
@@ -0,0 +1,125 @@
+package org.umlgraph.doclet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Chooses the packages whose classes are drawn as a single package node,
+ * so that a diagram does not exceed a given number of nodes.
+ * <p>
+ * The packages are arranged in a tree, which is expanded from the root
+ * one level at a time: expanding a package replaces its node with one node
+ * for each of its classes and one for each of its sub-packages. At each
+ * level the packages adding the fewest nodes are expanded first, as long
+ * as the budget allows; the sub-packages of the packages left collapsed
+ * are not considered any further.
+ */
+class PackageCollapser {
+    /** A package of the tree */
+    private static class Package {
+	final String name;
+	final List<String> classes = new ArrayList<String>();
+	final Map<String, Package> children = new TreeMap<String, Package>();
+	boolean expanded;
+
+	Package(String name) {
+	    this.name = name;
+	}
+
+	/** The number of nodes added by expanding the package */
+	int increment() {
+	    return classes.size() + children.size() - 1;
+	}
+    }
+
+    private static final Comparator<Package> BY_INCREMENT = new Comparator<Package>() {
+	public int compare(Package p1, Package p2) {
+	    int c = p1.increment() - p2.increment();
+	    return c != 0 ? c : p1.name.compareTo(p2.name);
+	}
+    };
+
+    private PackageCollapser() {}
+
+    /**
+     * Return the classes to collapse, mapped to the package node they
+     * are drawn as.
+     * @param classPackages the classes of the diagram, mapped to their packages
+     * @param budget the maximum number of nodes of the diagram
+     */
+    static Map<String, String> collapse(Map<String, String> classPackages, int budget) {
+	Package root = new Package("");
+	for (Map.Entry<String, String> e : classPackages.entrySet())
+	    find(root, e.getValue()).classes.add(e.getKey());
+
+	int nodes = 1;
+	List<Package> level = Collections.singletonList(root);
+	while (!level.isEmpty()) {
+	    List<Package> sorted = new ArrayList<Package>(level);
+	    Collections.sort(sorted, BY_INCREMENT);
+	    List<Package> next = new ArrayList<Package>();
+	    for (Package p : sorted)
+		if (nodes + p.increment() <= budget) {
+		    nodes += p.increment();
+		    p.expanded = true;
+		    next.addAll(p.children.values());
+		}
+	    level = next;
+	}
+
+	Map<String, String> collapsed = new HashMap<String, String>();
+	collect(root, null, collapsed);
+	return collapsed;
+    }
+
+    /** Return the package with the specified name, creating it as needed */
+    private static Package find(Package root, String name) {
+	Package p = root;
+	if (name.length() == 0)
+	    return p;
+	int start = 0;
+	while (start <= name.length()) {
+	    int end = name.indexOf('.', start);
+	    if (end < 0)
+		end = name.length();
+	    String prefix = name.substring(0, end);
+	    Package child = p.children.get(prefix);
+	    if (child == null) {
+		child = new Package(prefix);
+		p.children.put(prefix, child);
+	    }
+	    p = child;
+	    start = end + 1;
+	}
+	return p;
+    }
+
+    /**
+     * Map the classes of the package and its sub-packages to the package
+     * they are collapsed into, if any
+     */
+    private static void collect(Package p, String collapsedInto, Map<String, String> collapsed) {
+	if (collapsedInto == null && !p.expanded)
+	    collapsedInto = p.name;
+	if (collapsedInto != null)
+	    for (String c : p.classes)
+		collapsed.put(c, collapsedInto);
+	for (Package child : p.children.values())
+	    collect(child, collapsedInto, collapsed);
+    }
+
+    /** Return the number of classes collapsed into each package */
+    static Map<String, Integer> counts(Map<String, String> collapsed) {
+	Map<String, Integer> counts = new HashMap<String, Integer>();
+	for (String p : collapsed.values()) {
+	    Integer n = counts.get(p);
+	    counts.put(p, n == null ? 1 : n + 1);
+	}
+	return counts;
+    }
+}
@@ -0,0 +1,182 @@
+package org.umlgraph.doclet;
+
+import static org.umlgraph.doclet.StringUtil.fmt;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The dependencies between packages, aggregated from the relations between
+ * their classes, for the package overview diagram of UmlGraphDoc.
+ * <p>
+ * The packages taking part in dependency cycles are found as the strongly
+ * connected components of the dependency graph, using Tarjan's algorithm,
+ * and highlighted in the diagram.
+ *
+ * @depend - - - Options
+ */
+class PackageDependencies {
+    /** Background of the packages taking part in a cycle */
+    private static final String CYCLE_FILL_COLOR = "#ffd0d0";
+    /** Color of the dependencies forming cycles */
+    private static final String CYCLE_EDGE_COLOR = "red";
+
+    /** The packages drawn, mapped to their number of classes */
+    private final Map<String, Integer> packages = new TreeMap<String, Integer>();
+    /** For each package, the number of class relations towards each other package */
+    private final Map<String, Map<String, Integer>> dependencies = new TreeMap<String, Map<String, Integer>>();
+
+    /** Adds a class of a package to be drawn */
+    void addClass(String packageName) {
+	Integer n = packages.get(packageName);
+	packages.put(packageName, n == null ? 1 : n + 1);
+    }
+
+    /** Return the number of packages to be drawn */
+    int size() {
+	return packages.size();
+    }
+
+    /** Records a relation between classes of the specified packages */
+    void addRelation(String from, String to) {
+	if (from.equals(to))
+	    return;
+	Map<String, Integer> targets = dependencies.get(from);
+	if (targets == null) {
+	    targets = new TreeMap<String, Integer>();
+	    dependencies.put(from, targets);
+	}
+	Integer n = targets.get(to);
+	targets.put(to, n == null ? 1 : n + 1);
+    }
+
+    /** Return the dependencies of a package on the other packages drawn */
+    private Set<String> targets(String from) {
+	Map<String, Integer> targets = dependencies.get(from);
+	if (targets == null)
+	    return new HashSet<String>();
+	Set<String> drawn = new HashSet<String>(targets.keySet());
+	drawn.retainAll(packages.keySet());
+	return drawn;
+    }
+
+    /** Return the groups of two or more packages that depend on each other */
+    List<List<String>> cycles() {
+	return new Tarjan().components();
+    }
+
+    /** Tarjan's strongly connected components algorithm, linear in the size of the graph */
+    private class Tarjan {
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	private final Map<String, Integer> lowLink = new HashMap<String, Integer>();
+	private final List<String> stack = new ArrayList<String>();
+	private final Set<String> onStack = new HashSet<String>();
+	private final List<List<String>> components = new ArrayList<List<String>>();
+
+	List<List<String>> components() {
+	    for (String p : packages.keySet())
+		if (!index.containsKey(p))
+		    connect(p);
+	    return components;
+	}
+
+	private void connect(String p) {
+	    index.put(p, index.size());
+	    lowLink.put(p, index.get(p));
+	    stack.add(p);
+	    onStack.add(p);
+	    for (String q : targets(p)) {
+		if (!index.containsKey(q)) {
+		    connect(q);
+		    lowLink.put(p, Math.min(lowLink.get(p), lowLink.get(q)));
+		} else if (onStack.contains(q))
+		    lowLink.put(p, Math.min(lowLink.get(p), index.get(q)));
+	    }
+	    if (lowLink.get(p).equals(index.get(p))) {
+		List<String> component = new ArrayList<String>();
+		String q;
+		do {
+		    q = stack.remove(stack.size() - 1);
+		    onStack.remove(q);
+		    component.add(q);
+		} while (!q.equals(p));
+		if (component.size() > 1) {
+		    Collections.sort(component);
+		    components.add(component);
+		}
+	    }
+	}
+    }
+
+    /** Prints the package dependency diagram in dot format */
+    void print(PrintWriter w, Options opt) {
+	Map<String, Integer> cycle = new HashMap<String, Integer>();
+	List<List<String>> cycles = cycles();
+	for (int i = 0; i < cycles.size(); i++)
+	    for (String p : cycles.get(i))
+		cycle.put(p, i);
+
+	w.println(
+	    "#!/usr/local/bin/dot\n" +
+	    "#\n" +
+	    "# Package dependency diagram \n" +
+	    "# Generated by UMLGraph version " +
+	    Version.VERSION + " (http://www.spinellis.gr/umlgraph/)\n" +
+	    "#\n\n" +
+	    "digraph G {\n" +
+	    "\tgraph [fontnames=\"svg\"]\n" +
+	    "\tedge [fontname=\"" + opt.edgeFontName +
+	    "\",fontsize=" + fmt(opt.edgeFontSize) +
+	    ",color=\"" + opt.edgeColor + "\"];\n" +
+	    "\tnode [fontname=\"" + opt.nodeFontName +
+	    "\",fontcolor=\"" + opt.nodeFontColor +
+	    "\",fontsize=" + fmt(opt.nodeFontSize) +
+	    ",shape=tab,margin=0,width=0,height=0];"
+	);
+	w.println("\tnodesep=" + opt.nodeSep + ";");
+	w.println("\tranksep=" + opt.rankSep + ";");
+	if (opt.horizontal)
+	    w.println("\trankdir=LR;");
+	if (opt.bgColor != null)
+	    w.println("\tbgcolor=\"" + opt.bgColor + "\";\n");
+
+	Map<String, String> names = new HashMap<String, String>();
+	for (Map.Entry<String, Integer> p : packages.entrySet()) {
+	    String name = "p" + names.size();
+	    names.put(p.getKey(), name);
+	    String url = p.getKey().replace('.', '/') + "/package-summary.html";
+	    String bgcolor = cycle.containsKey(p.getKey()) ? CYCLE_FILL_COLOR : opt.nodeFillColor;
+	    w.println("\t// " + p.getKey());
+	    w.println("\t" + name + " [label=<<table title=\"" + p.getKey() + "\" border=\"0\" cellborder=\"0\" "
+		    + "cellspacing=\"0\" cellpadding=\"2\"" + (bgcolor == null ? "" : " bgcolor=\"" + bgcolor + "\"")
+		    + " href=\"" + url + "\" target=\"_parent\"><tr><td><table border=\"0\" cellspacing=\"0\" "
+		    + "cellpadding=\"1\"><tr><td align=\"center\" balign=\"center\"> " + p.getKey() + " </td></tr>"
+		    + "<tr><td align=\"center\" balign=\"center\"> " + p.getValue()
+		    + (p.getValue() == 1 ? " class" : " classes") + " </td></tr></table></td></tr></table>>"
+		    + ", URL=\"" + url + "\"];");
+	}
+	for (String from : packages.keySet()) {
+	    Map<String, Integer> targets = dependencies.get(from);
+	    if (targets == null)
+		continue;
+	    for (Map.Entry<String, Integer> to : targets.entrySet()) {
+		if (!packages.containsKey(to.getKey()))
+		    continue;
+		Integer c1 = cycle.get(from), c2 = cycle.get(to.getKey());
+		boolean cyclic = c1 != null && c1.equals(c2);
+		w.println("\t// " + from + " depends on " + to.getKey());
+		w.println("\t" + names.get(from) + " -> " + names.get(to.getKey()) + " [arrowhead=open,style=dashed"
+			+ ",weight=" + to.getValue() + ",label=\"" + to.getValue() + "\""
+			+ (cyclic ? ",color=\"" + CYCLE_EDGE_COLOR + "\"" : "") + "];");
+	    }
+	}
+	w.println("}\n");
+    }
+}
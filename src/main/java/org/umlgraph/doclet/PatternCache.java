@@ -0,0 +1,51 @@
+package org.umlgraph.doclet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The compiled regular expressions of the options and view matchers.
+ * <p>
+ * The same expressions are compiled many times: the options of the
+ * <code>@opt</code> tags are set again each time the options of a class
+ * are asked for, and each run compiles those of the command line and of
+ * the package lists again. As patterns are immutable, they are shared by
+ * all the runs of the process.
+ * <p>
+ * The cache is bounded: once it holds {@value #MAX_PATTERNS} patterns, it
+ * is emptied, so that an unusual run cannot fill the heap.
+ */
+class PatternCache {
+    /** The number of patterns kept at most */
+    static final int MAX_PATTERNS = 1024;
+
+    /** The patterns, keyed by their flags and expression */
+    private static final Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
+    private PatternCache() {}
+
+    /** Return the pattern of an expression, see {@link Pattern#compile(String)} */
+    static Pattern compile(String regex) throws PatternSyntaxException {
+	return compile(regex, 0);
+    }
+
+    /** Return the pattern of an expression, see {@link Pattern#compile(String, int)} */
+    static Pattern compile(String regex, int flags) throws PatternSyntaxException {
+	if (HotPathCounters.enabled)
+	    HotPathCounters.patternLookups.increment();
+	String key = flags + ":" + regex;
+	Pattern p = patterns.get(key);
+	if (p != null) {
+	    if (HotPathCounters.enabled)
+		HotPathCounters.patternHits.increment();
+	    return p;
+	}
+	p = Pattern.compile(regex, flags);
+	if (patterns.size() >= MAX_PATTERNS)
+	    patterns.clear();
+	patterns.put(key, p);
+	return p;
+    }
+}
@@ -0,0 +1,166 @@
+package org.umlgraph.doclet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records where the time of a UmlGraphDoc run goes: the wall and CPU time
+ * of each stage (the standard doclet, option building, and the building,
+ * rendering and patching of every diagram), grouped by diagram kind.
+ * With the timingreport option the measurements are written as JSON next
+ * to the javadoc output, and summarized in a single notice.
+ * <p>
+ * The CPU time is that of the measuring thread, so it leaves out the time
+ * spent by the Graphviz processes. Measurements may be taken by several
+ * threads at once.
+ */
+class RunReport {
+    /** The report file written to the javadoc root */
+    static final String REPORT_FILE = "umlgraph-timing.json";
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    private final long runStart = System.nanoTime();
+    /** The measurements of each stage and kind, in the order first seen */
+    private final Map<String, Durations> durations = new LinkedHashMap<String, Durations>();
+
+    /** A measurement in progress */
+    class Sample {
+	private final String stage, kind;
+	private final long wallStart = System.nanoTime(), cpuStart = cpuTime();
+
+	private Sample(String stage, String kind) {
+	    this.stage = stage;
+	    this.kind = kind;
+	}
+
+	/** Ends the measurement, which must be done by the thread that started it */
+	void stop() {
+	    add(stage, kind, System.nanoTime() - wallStart, cpuTime() - cpuStart);
+	}
+    }
+
+    /** The durations measured for a stage and kind, in nanoseconds */
+    private static class Durations {
+	final String stage, kind;
+	long[] wall = new long[16];
+	int count;
+	long cpu;
+
+	Durations(String stage, String kind) {
+	    this.stage = stage;
+	    this.kind = kind;
+	}
+
+	void add(long wallTime, long cpuTime) {
+	    if (count == wall.length)
+		wall = Arrays.copyOf(wall, 2 * count);
+	    wall[count++] = wallTime;
+	    cpu += cpuTime;
+	}
+
+	long total() {
+	    long sum = 0;
+	    for (int i = 0; i < count; i++)
+		sum += wall[i];
+	    return sum;
+	}
+
+	/** Return the nearest-rank percentile of the sorted durations */
+	static long percentile(long[] sorted, int percent) {
+	    int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+	    return sorted[Math.max(rank, 1) - 1];
+	}
+    }
+
+    private long cpuTime() {
+	return cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Starts measuring a stage, for the specified kind of diagram (package,
+     * context, overview or viewer) or null for the stages of the whole run
+     */
+    Sample start(String stage, String kind) {
+	return new Sample(stage, kind);
+    }
+
+    private synchronized void add(String stage, String kind, long wallTime, long cpuTime) {
+	String key = kind == null ? stage : stage + "/" + kind;
+	Durations d = durations.get(key);
+	if (d == null)
+	    durations.put(key, d = new Durations(stage, kind));
+	d.add(wallTime, cpuTime);
+    }
+
+    /**
+     * Writes the JSON report to the specified folder, returning the summary notice
+     * @param diagrams the number of diagrams rendered, for the throughput
+     */
+    synchronized String write(String outputFolder, int diagrams) throws IOException {
+	long runTime = System.nanoTime() - runStart;
+	StringBuilder json = new StringBuilder("{\"version\":").append(ContextModel.string(Version.VERSION))
+	    .append(",\"wallMillis\":").append(millis(runTime))
+	    .append(",\"stages\":[");
+	// the summary adds up the kinds of each stage: their count, total and maximum
+	Map<String, long[]> stageTimes = new LinkedHashMap<String, long[]>();
+	boolean first = true;
+	for (Durations d : durations.values()) {
+	    long[] sorted = Arrays.copyOf(d.wall, d.count);
+	    Arrays.sort(sorted);
+	    json.append(first ? "{" : ",{").append("\"stage\":").append(ContextModel.string(d.stage));
+	    if (d.kind != null)
+		json.append(",\"kind\":").append(ContextModel.string(d.kind));
+	    json.append(",\"count\":").append(d.count)
+		.append(",\"wallMillis\":").append(millis(d.total()))
+		.append(",\"cpuMillis\":").append(millis(d.cpu))
+		.append(",\"p50Millis\":").append(millis(Durations.percentile(sorted, 50)))
+		.append(",\"p95Millis\":").append(millis(Durations.percentile(sorted, 95)))
+		.append(",\"maxMillis\":").append(millis(sorted[sorted.length - 1]))
+		.append('}');
+	    first = false;
+
+	    long[] times = stageTimes.get(d.stage);
+	    if (times == null)
+		stageTimes.put(d.stage, times = new long[3]);
+	    times[0] += d.count;
+	    times[1] += d.total();
+	    times[2] = Math.max(times[2], sorted[sorted.length - 1]);
+	}
+	double seconds = runTime / 1e9;
+	json.append("],\"diagramsPerSecond\":").append(String.format(Locale.ROOT, "%.2f", diagrams / seconds))
+	    .append("}\n");
+
+	Writer w = new OutputStreamWriter(new FileOutputStream(new File(outputFolder, REPORT_FILE)), "UTF-8");
+	try {
+	    w.write(json.toString());
+	} finally {
+	    w.close();
+	}
+
+	StringBuilder summary = new StringBuilder("Timing: ");
+	for (Map.Entry<String, long[]> e : stageTimes.entrySet()) {
+	    long[] times = e.getValue();
+	    summary.append(e.getKey()).append(' ').append(Math.round(times[1] / 1e6)).append(" ms");
+	    if (times[0] > 1)
+		summary.append(" (").append(times[0]).append(", max ").append(Math.round(times[2] / 1e6))
+		    .append(" ms)");
+	    summary.append(", ");
+	}
+	return summary.append("total ").append(Math.round(runTime / 1e6)).append(" ms; see ")
+	    .append(REPORT_FILE).toString();
+    }
+
+    private static String millis(long nanos) {
+	return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
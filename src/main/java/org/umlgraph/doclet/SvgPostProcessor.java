@@ -0,0 +1,289 @@
+package org.umlgraph.doclet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shrinks the SVG diagrams written by Graphviz or the built-in renderer,
+ * and writes a gzip-compressed copy of them (with the .svgz extension).
+ * <p>
+ * The minification streams the file twice, keeping in memory only the
+ * distinct attribute combinations. The first pass counts the combinations
+ * of presentation attributes (fill, stroke, fonts, ...) of the elements;
+ * the second pass replaces those occurring more than once with a CSS class
+ * defined in a style element, drops comments and the white space between
+ * elements, and rounds coordinates to one decimal place.
+ */
+class SvgPostProcessor {
+    /** Attributes holding coordinates, which are rounded */
+    private static final Set<String> COORDINATES = new HashSet<String>(Arrays.asList(
+	"points", "d", "x", "y", "x1", "y1", "x2", "y2", "cx", "cy", "r", "rx", "ry"));
+    /** Presentation attributes that can be moved to CSS classes */
+    private static final Set<String> PRESENTATION = new HashSet<String>(Arrays.asList(
+	"fill", "stroke", "stroke-width", "fill-opacity", "stroke-opacity", "font-family",
+	"font-size", "font-weight", "font-style", "text-anchor", "text-decoration"));
+    /** Presentation attributes whose plain numbers need a unit in CSS */
+    private static final Set<String> LENGTHS = new HashSet<String>(Arrays.asList(
+	"stroke-width", "font-size"));
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("([^\\s=]+)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d*\\.\\d+");
+    private static final Pattern NUMBER = Pattern.compile("-?\\d*\\.?\\d+");
+    /** Characters that cannot be safely moved into a CSS declaration */
+    private static final Pattern CSS_UNSAFE = Pattern.compile("[;{}<>\"'\\\\&]");
+
+    private final boolean minify, compress;
+
+    SvgPostProcessor(boolean minify, boolean compress) {
+	this.minify = minify;
+	this.compress = compress;
+    }
+
+    /** Return the compressed copy of an SVG file */
+    static File svgzFile(File svgFile) {
+	return new File(svgFile.getPath() + "z");
+    }
+
+    /** Post-processes the specified SVG file in place */
+    void process(File svgFile) throws IOException {
+	if (minify)
+	    minify(svgFile);
+	if (compress)
+	    compress(svgFile);
+    }
+
+    private void minify(File svgFile) throws IOException {
+	Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+	Reader in = reader(svgFile);
+	try {
+	    new Pass(in, null, counts, null).run();
+	} finally {
+	    in.close();
+	}
+	Map<String, String> classes = new LinkedHashMap<String, String>();
+	for (Map.Entry<String, Integer> e : counts.entrySet())
+	    if (e.getValue() > 1)
+		classes.put(e.getKey(), "s" + classes.size());
+
+	File tmp = new File(svgFile.getPath() + ".tmp");
+	in = reader(svgFile);
+	Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+	try {
+	    new Pass(in, out, null, classes).run();
+	} finally {
+	    in.close();
+	    out.close();
+	}
+	if (!svgFile.delete() || !tmp.renameTo(svgFile)) {
+	    tmp.delete();
+	    throw new IOException("Cannot replace " + svgFile);
+	}
+    }
+
+    private static Reader reader(File f) throws IOException {
+	return new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+    }
+
+    /** Writes the compressed copy of the file */
+    private static void compress(File svgFile) throws IOException {
+	InputStream in = new BufferedInputStream(new FileInputStream(svgFile));
+	OutputStream out = null;
+	try {
+	    out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(svgzFile(svgFile))));
+	    byte[] buf = new byte[8192];
+	    int n;
+	    while ((n = in.read(buf)) > 0)
+		out.write(buf, 0, n);
+	} finally {
+	    in.close();
+	    if (out != null)
+		out.close();
+	}
+    }
+
+    /** Round the decimal numbers of a value to one decimal place */
+    static String round(String value) {
+	Matcher m = DECIMAL.matcher(value);
+	if (!m.find())
+	    return value;
+	StringBuffer sb = new StringBuffer();
+	do {
+	    long n = Math.round(Double.parseDouble(m.group()) * 10);
+	    long a = Math.abs(n);
+	    m.appendReplacement(sb, (n < 0 ? "-" : "") + a / 10 + (a % 10 != 0 ? "." + a % 10 : ""));
+	} while (m.find());
+	m.appendTail(sb);
+	return sb.toString();
+    }
+
+    /**
+     * A pass over an SVG file, counting the presentation attribute
+     * combinations when there is no output, or otherwise writing the
+     * minified file using the specified CSS classes.
+     */
+    private static class Pass {
+	private final Reader in;
+	private final Writer out;
+	private final Map<String, Integer> counts;
+	private final Map<String, String> classes;
+	/** The nesting depth of text elements, whose white space matters */
+	private int textDepth;
+	private boolean rootSeen;
+
+	Pass(Reader in, Writer out, Map<String, Integer> counts, Map<String, String> classes) {
+	    this.in = in;
+	    this.out = out;
+	    this.counts = counts;
+	    this.classes = classes;
+	}
+
+	void run() throws IOException {
+	    StringBuilder text = new StringBuilder();
+	    int c;
+	    while ((c = in.read()) != -1) {
+		if (c != '<') {
+		    text.append((char) c);
+		    continue;
+		}
+		text(text);
+		markup();
+	    }
+	    text(text);
+	}
+
+	/** Handles the text read since the last markup */
+	private void text(StringBuilder text) throws IOException {
+	    if (out != null && (textDepth > 0 || text.toString().trim().length() > 0))
+		out.write(text.toString());
+	    text.setLength(0);
+	}
+
+	/** Reads and handles the markup following a '&lt;' */
+	private void markup() throws IOException {
+	    StringBuilder sb = new StringBuilder();
+	    char quote = 0;
+	    int c;
+	    while ((c = in.read()) != -1) {
+		if (sb.length() == 3 && sb.toString().equals("!--")) {
+		    skipComment(c);
+		    return;
+		}
+		if (quote != 0) {
+		    if (c == quote)
+			quote = 0;
+		} else if (c == '"' || c == '\'')
+		    quote = (char) c;
+		else if (c == '>')
+		    break;
+		sb.append((char) c);
+	    }
+	    String tag = sb.toString();
+	    if (tag.startsWith("?") || tag.startsWith("!")) {
+		if (out != null)
+		    out.write("<" + tag + ">");
+	    } else if (tag.startsWith("/")) {
+		if (tag.substring(1).trim().equals("text"))
+		    textDepth--;
+		if (out != null)
+		    out.write("<" + tag + ">");
+	    } else
+		startTag(tag);
+	}
+
+	/** Skips a comment, given the first character after its start */
+	private void skipComment(int c) throws IOException {
+	    int dashes = 0;
+	    for (; c != -1; c = in.read()) {
+		if (c == '>' && dashes >= 2)
+		    return;
+		dashes = c == '-' ? dashes + 1 : 0;
+	    }
+	}
+
+	private void startTag(String tag) throws IOException {
+	    boolean empty = tag.endsWith("/");
+	    if (empty)
+		tag = tag.substring(0, tag.length() - 1);
+	    int end = 0;
+	    while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)))
+		end++;
+	    String name = tag.substring(0, end);
+	    List<String[]> attributes = new ArrayList<String[]>();
+	    Matcher m = ATTRIBUTE.matcher(tag.substring(end));
+	    while (m.find())
+		attributes.add(new String[] { m.group(1), m.group(2) });
+
+	    // The CSS declarations standing for the presentation attributes
+	    Map<String, String> declarations = new TreeMap<String, String>();
+	    boolean root = !rootSeen && name.equals("svg");
+	    rootSeen = true;
+	    if (!root)
+		for (String[] a : attributes) {
+		    String value = a[1].substring(1, a[1].length() - 1);
+		    if (PRESENTATION.contains(a[0]) && !CSS_UNSAFE.matcher(value).find())
+			declarations.put(a[0], LENGTHS.contains(a[0]) && NUMBER.matcher(value).matches()
+				? value + "px" : value);
+		}
+	    StringBuilder key = new StringBuilder();
+	    for (Map.Entry<String, String> d : declarations.entrySet())
+		key.append(key.length() > 0 ? ";" : "").append(d.getKey()).append(':').append(d.getValue());
+
+	    if (name.equals("text") && !empty)
+		textDepth++;
+	    if (out == null) {
+		if (key.length() > 0) {
+		    Integer n = counts.get(key.toString());
+		    counts.put(key.toString(), n == null ? 1 : n + 1);
+		}
+		return;
+	    }
+
+	    String cssClass = classes.get(key.toString());
+	    out.write("<" + name);
+	    boolean classWritten = false;
+	    for (String[] a : attributes) {
+		String value = a[1];
+		if (cssClass != null && declarations.containsKey(a[0]))
+		    continue;
+		if (cssClass != null && a[0].equals("class")) {
+		    value = value.substring(0, value.length() - 1) + " " + cssClass + value.charAt(0);
+		    classWritten = true;
+		} else if (COORDINATES.contains(a[0]))
+		    value = round(value);
+		out.write(" " + a[0] + "=" + value);
+	    }
+	    if (cssClass != null && !classWritten)
+		out.write(" class=\"" + cssClass + "\"");
+	    out.write(empty ? "/>" : ">");
+	    if (root && !classes.isEmpty()) {
+		out.write("<style type=\"text/css\">");
+		for (Map.Entry<String, String> c : classes.entrySet())
+		    out.write("." + c.getValue() + "{" + c.getKey() + "}");
+		out.write("</style>");
+	    }
+	}
+    }
+}
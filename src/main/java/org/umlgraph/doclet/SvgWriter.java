@@ -0,0 +1,344 @@
+package org.umlgraph.doclet;
+
+import static org.umlgraph.doclet.StringUtil.fmt;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+
+import org.umlgraph.doclet.DotGraph.Edge;
+import org.umlgraph.doclet.DotGraph.Node;
+import org.umlgraph.doclet.HtmlLabel.Compartment;
+import org.umlgraph.doclet.HtmlLabel.Line;
+import org.umlgraph.doclet.HtmlLabel.Span;
+
+/**
+ * Writes a laid out {@link DotGraph} as SVG, following the structure of the
+ * SVG files produced by Graphviz (a group per node and edge, with a title
+ * holding the dot name) so that the output can be used interchangeably.
+ *
+ * @depend - - - DotGraph
+ * @depend - - - LayeredLayout
+ */
+class SvgWriter {
+    /** Length and half width of the arrowheads */
+    private static final double ARROW_LENGTH = 10, ARROW_WIDTH = 3.5;
+
+    private final DotGraph g;
+    private final LayeredLayout layout;
+    private final PrintWriter w;
+
+    SvgWriter(DotGraph g, LayeredLayout layout, PrintWriter w) {
+	this.g = g;
+	this.layout = layout;
+	this.w = w;
+    }
+
+    /** Write the whole document */
+    void write(String encoding) {
+	w.println("<?xml version=\"1.0\" encoding=\"" + encoding + "\" standalone=\"no\"?>");
+	w.println("<!-- Generated by UMLGraph version " + Version.VERSION + " (http://www.spinellis.gr/umlgraph/) -->");
+	w.println("<!-- Title: " + HtmlLabel.escapeText(g.name).replace("--", "- -") + " -->");
+	w.println("<svg width=\"" + num(layout.width) + "pt\" height=\"" + num(layout.height) + "pt\"");
+	w.println(" viewBox=\"0.00 0.00 " + num(layout.width) + " " + num(layout.height) + "\""
+		+ " xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
+	w.println("<g id=\"graph0\" class=\"graph\">");
+	w.println("<title>" + HtmlLabel.escapeText(g.name) + "</title>");
+	String bg = g.graphAttributes.get("bgcolor");
+	w.println("<polygon fill=\"" + color(bg, "white") + "\" stroke=\"none\" points=\"0,0 "
+		+ num(layout.width) + ",0 " + num(layout.width) + "," + num(layout.height) + " 0,"
+		+ num(layout.height) + "\"/>");
+	int id = 1;
+	for (Node n : g.nodes.values())
+	    node(n, id++);
+	id = 1;
+	for (Edge e : g.edges)
+	    edge(e, id++);
+	w.println("</g>");
+	w.println("</svg>");
+	w.flush();
+    }
+
+    private void node(Node n, int id) {
+	HtmlLabel l = n.label;
+	String url = n.attributes.get("URL");
+	if (url == null)
+	    url = l.href;
+	String fontColor = color(g.attribute(n, "fontcolor"), "black");
+	w.println("<!-- " + comment(n.id) + " -->");
+	w.println("<g id=\"node" + id + "\" class=\"node\">");
+	w.println("<title>" + HtmlLabel.escapeText(n.id) + "</title>");
+	if (url != null)
+	    w.println("<g id=\"a_node" + id + "\"><a xlink:href=\"" + HtmlLabel.escapeText(url) + "\" xlink:title=\""
+		    + HtmlLabel.escapeText(l.title != null ? l.title : n.id) + "\" target=\"_parent\">");
+	double left = n.x - n.width / 2, top = n.y - n.height / 2;
+	String shape = g.attribute(n, "shape");
+	outline(shape, left, top, n.width, n.height, l.bgcolor);
+	// center the table within the outline
+	double x = n.x - l.width / 2, y = n.y - l.height / 2;
+	double border = l.cellBorder ? 1 : 0;
+	double side = l.sideColumns ? 2 * (HtmlLabel.CELL_PADDING + border) : 0;
+	if (l.bgcolor != null && (shape == null || shape.equals("plaintext")))
+	    rect(x, y, l.width, l.height, color(l.bgcolor, "white"), "none");
+	for (Compartment c : l.compartments) {
+	    if (l.cellBorder)
+		rect(x + side, y, l.width - 2 * side, c.height, "none", "black");
+	    double rowTop = y + HtmlLabel.CELL_PADDING + border;
+	    for (Line line : c.lines) {
+		text(line, x + side + HtmlLabel.CELL_PADDING + border + HtmlLabel.ROW_PADDING,
+			x + l.width - side - HtmlLabel.CELL_PADDING - border - HtmlLabel.ROW_PADDING, rowTop,
+			fontColor);
+		rowTop += line.height;
+	    }
+	    y += c.height;
+	}
+	if (l.sideColumns && l.cellBorder) {
+	    double t = n.y - l.height / 2;
+	    rect(x, t, side, l.height, "none", "black");
+	    rect(x + l.width - side, t, side, l.height, "none", "black");
+	}
+	if (url != null)
+	    w.println("</a>\n</g>");
+	w.println("</g>");
+    }
+
+    /** Draw the node outline for the dot shapes used by UMLGraph */
+    private void outline(String shape, double x, double y, double width, double height, String fill) {
+	if (shape == null || shape.equals("plaintext") || shape.equals("none"))
+	    return;
+	String f = color(fill, "none");
+	double r = x + width, b = y + height;
+	if (shape.equals("ellipse") || shape.equals("oval")) {
+	    w.println("<ellipse fill=\"" + f + "\" stroke=\"black\" cx=\"" + num(x + width / 2) + "\" cy=\""
+		    + num(y + height / 2) + "\" rx=\"" + num(width / 2) + "\" ry=\"" + num(height / 2) + "\"/>");
+	} else if (shape.equals("note")) {
+	    polygon(f, new double[] { x, y, r - 6, y, r, y + 6, r, b, x, b });
+	    polyline(new double[] { r - 6, y, r - 6, y + 6, r, y + 6 });
+	} else if (shape.equals("tab")) {
+	    polygon(f, new double[] { x, y + 4, r, y + 4, r, b, x, b });
+	    polygon(f, new double[] { x, y, x + 14, y, x + 14, y + 4, x, y + 4 });
+	} else if (shape.equals("box3d")) {
+	    polygon(f, new double[] { x, y + 4, r - 4, y + 4, r - 4, b, x, b });
+	    polyline(new double[] { x, y + 4, x + 4, y, r, y, r, b - 4, r - 4, b });
+	    polyline(new double[] { r - 4, y + 4, r, y });
+	} else if (shape.equals("component")) {
+	    polygon(f, new double[] { x + 4, y, r, y, r, b, x + 4, b });
+	    polygon("white", new double[] { x, y + 6, x + 8, y + 6, x + 8, y + 10, x, y + 10 });
+	    polygon("white", new double[] { x, b - 10, x + 8, b - 10, x + 8, b - 6, x, b - 6 });
+	} else {
+	    polygon(f, new double[] { x, y, r, y, r, b, x, b });
+	}
+    }
+
+    /** Write a line of text between the given horizontal bounds */
+    private void text(Line line, double left, double right, double top, String fill) {
+	if (line.spans.isEmpty())
+	    return;
+	String anchor;
+	double x;
+	if (line.align.equals("left")) {
+	    anchor = "start";
+	    x = left;
+	} else if (line.align.equals("right")) {
+	    anchor = "end";
+	    x = right;
+	} else {
+	    anchor = "middle";
+	    x = (left + right) / 2;
+	}
+	double size = 0;
+	for (Span s : line.spans)
+	    size = Math.max(size, s.size);
+	double baseline = top + HtmlLabel.ROW_PADDING + size;
+	Span first = line.spans.get(0);
+	if (line.href != null)
+	    w.println("<g><a xlink:href=\"" + HtmlLabel.escapeText(line.href) + "\" target=\"_parent\">");
+	w.print("<text text-anchor=\"" + anchor + "\" x=\"" + num(x) + "\" y=\"" + num(baseline)
+		+ "\" font-family=\"" + HtmlLabel.escapeText(first.face == null ? Font.DEFAULT_FONT : first.face)
+		+ "\" font-size=\"" + num(first.size) + "\"" + (first.italic ? " font-style=\"italic\"" : "")
+		+ " fill=\"" + fill + "\">");
+	for (int i = 0; i < line.spans.size(); i++) {
+	    Span s = line.spans.get(i);
+	    String text = HtmlLabel.escapeText(s.text);
+	    if (i == 0)
+		w.print(text);
+	    else
+		w.print("<tspan" + (s.face != null && !s.face.equals(first.face) ? " font-family=\""
+			+ HtmlLabel.escapeText(s.face) + "\"" : "") + (s.size != first.size ? " font-size=\""
+			+ num(s.size) + "\"" : "") + (s.italic != first.italic ? " font-style=\""
+			+ (s.italic ? "italic" : "normal") + "\"" : "") + ">" + text + "</tspan>");
+	}
+	w.println("</text>");
+	if (line.href != null)
+	    w.println("</a>\n</g>");
+    }
+
+    private void edge(Edge e, int id) {
+	List<double[]> pts = e.points;
+	if (pts.size() < 2)
+	    return;
+	String color = color(g.attribute(e, "color"), "black");
+	String dir = g.attribute(e, "dir");
+	if (dir == null)
+	    dir = "forward";
+	String head = dir.equals("forward") || dir.equals("both") ? attribute(e, "arrowhead", "normal") : "none";
+	String tail = dir.equals("back") || dir.equals("both") ? attribute(e, "arrowtail", "normal") : "none";
+	boolean dashed = "dashed".equals(g.attribute(e, "style"));
+
+	w.println("<!-- " + comment(e.tail.id) + "&#45;&gt;" + comment(e.head.id) + " -->");
+	w.println("<g id=\"edge" + id + "\" class=\"edge\">");
+	w.println("<title>" + HtmlLabel.escapeText(e.tail.id) + "&#45;&gt;" + HtmlLabel.escapeText(e.head.id)
+		+ "</title>");
+	// shorten the line where arrowheads are drawn
+	double[] start = pts.get(0), end = pts.get(pts.size() - 1);
+	double[] lineStart = head(tail) ? towards(start, pts.get(1), arrowLength(tail)) : start;
+	double[] lineEnd = head(head) ? towards(end, pts.get(pts.size() - 2), arrowLength(head)) : end;
+	StringBuilder d = new StringBuilder("M").append(num(lineStart[0])).append(',').append(num(lineStart[1]));
+	for (int i = 1; i < pts.size() - 1; i++)
+	    d.append(" L").append(num(pts.get(i)[0])).append(',').append(num(pts.get(i)[1]));
+	d.append(" L").append(num(lineEnd[0])).append(',').append(num(lineEnd[1]));
+	w.println("<path fill=\"none\" stroke=\"" + color + "\"" + (dashed ? " stroke-dasharray=\"5,2\"" : "")
+		+ " d=\"" + d + "\"/>");
+	arrow(tail, start, pts.get(1), color);
+	arrow(head, end, pts.get(pts.size() - 2), color);
+
+	String face = g.attribute(e, "fontname");
+	double size = LayeredLayout.number(g.attribute(e, "fontsize"), 14);
+	String fontColor = color(g.attribute(e, "fontcolor"), "black");
+	String label = e.attributes.get("label");
+	if (label != null) {
+	    // place the label beside the middle of the edge
+	    int mid = (pts.size() - 1) / 2;
+	    double[] a = pts.get(mid), b = pts.get(mid + 1);
+	    edgeLabel(label, (a[0] + b[0]) / 2 + 4, (a[1] + b[1]) / 2 + size / 3, "start", face, size, fontColor);
+	}
+	String labelFace = attribute(e, "labelfontname", face);
+	double labelSize = LayeredLayout.number(g.attribute(e, "labelfontsize"), size);
+	String tailLabel = e.attributes.get("taillabel");
+	if (tailLabel != null)
+	    endLabel(tailLabel, start, pts.get(1), labelFace, labelSize, fontColor);
+	String headLabel = e.attributes.get("headlabel");
+	if (headLabel != null)
+	    endLabel(headLabel, end, pts.get(pts.size() - 2), labelFace, labelSize, fontColor);
+	w.println("</g>");
+    }
+
+    private String attribute(Edge e, String key, String def) {
+	String v = g.attribute(e, key);
+	return v != null ? v : def;
+    }
+
+    /** Place a head or tail label near the end point p of the edge towards q */
+    private void endLabel(String label, double[] p, double[] q, String face, double size, String fill) {
+	double[] a = towards(p, q, 12);
+	double dx = q[0] - p[0], dy = q[1] - p[1];
+	double len = Math.sqrt(dx * dx + dy * dy);
+	// offset the label perpendicularly to the edge
+	double ox = len == 0 ? 0 : -dy / len * 8, oy = len == 0 ? 0 : dx / len * 8;
+	edgeLabel(label, a[0] + ox, a[1] + oy + size / 3, "middle", face, size, fill);
+    }
+
+    /** Write an edge label; the dot line breaks (\n, \l, \r) start new lines */
+    private void edgeLabel(String label, double x, double y, String anchor, String face, double size, String fill) {
+	String[] lines = label.split("\\\\[nlr]|\n");
+	for (String line : lines) {
+	    if (line.trim().length() > 0)
+		w.println("<text text-anchor=\"" + anchor + "\" x=\"" + num(x) + "\" y=\"" + num(y)
+			+ "\" font-family=\"" + HtmlLabel.escapeText(face == null ? Font.DEFAULT_FONT : face)
+			+ "\" font-size=\"" + num(size) + "\" fill=\"" + fill + "\">" + HtmlLabel.escapeText(line)
+			+ "</text>");
+	    y += HtmlLabel.lineHeight(size);
+	}
+    }
+
+    private static boolean head(String arrow) {
+	return !arrow.equals("none");
+    }
+
+    private static double arrowLength(String arrow) {
+	return arrow.endsWith("diamond") ? 1.2 * ARROW_LENGTH : ARROW_LENGTH;
+    }
+
+    /**
+     * Draw an arrowhead with its tip at p, pointing away from q.
+     * Supports the arrow types used by the RelationType styles.
+     */
+    private void arrow(String type, double[] p, double[] q, String color) {
+	if (!head(type))
+	    return;
+	double dx = p[0] - q[0], dy = p[1] - q[1];
+	double len = Math.sqrt(dx * dx + dy * dy);
+	if (len == 0)
+	    return;
+	double ux = dx / len, uy = dy / len; // unit vector towards the tip
+	double px = -uy, py = ux; // perpendicular
+	double l = arrowLength(type);
+	double bx = p[0] - ux * l, by = p[1] - uy * l; // base center
+	double W = ARROW_WIDTH;
+	if (type.equals("open") || type.equals("vee")) {
+	    double nx = p[0] - ux * l * 0.6, ny = p[1] - uy * l * 0.6;
+	    polygon(color, color, new double[] { p[0], p[1], bx + px * W, by + py * W, nx, ny, bx - px * W,
+		    by - py * W });
+	} else if (type.equals("empty") || type.equals("onormal")) {
+	    polygon("white", color, new double[] { p[0], p[1], bx + px * W, by + py * W, bx - px * W, by - py * W });
+	} else if (type.endsWith("diamond")) {
+	    double mx = p[0] - ux * l / 2, my = p[1] - uy * l / 2;
+	    String fill = type.equals("diamond") ? color : "white";
+	    polygon(fill, color, new double[] { p[0], p[1], mx + px * W, my + py * W, bx, by, mx - px * W,
+		    my - py * W });
+	} else { // normal and anything unknown
+	    polygon(color, color, new double[] { p[0], p[1], bx + px * W, by + py * W, bx - px * W, by - py * W });
+	}
+    }
+
+    /** Return the point at distance d from p towards q */
+    private static double[] towards(double[] p, double[] q, double d) {
+	double dx = q[0] - p[0], dy = q[1] - p[1];
+	double len = Math.sqrt(dx * dx + dy * dy);
+	if (len == 0)
+	    return p;
+	double s = Math.min(1, d / len);
+	return new double[] { p[0] + dx * s, p[1] + dy * s };
+    }
+
+    private void rect(double x, double y, double width, double height, String fill, String stroke) {
+	polygon(fill, stroke, new double[] { x, y, x + width, y, x + width, y + height, x, y + height });
+    }
+
+    private void polygon(String fill, double[] p) {
+	polygon(fill, "black", p);
+    }
+
+    private void polygon(String fill, String stroke, double[] p) {
+	w.println("<polygon fill=\"" + fill + "\" stroke=\"" + stroke + "\" points=\"" + points(p, true) + "\"/>");
+    }
+
+    private void polyline(double[] p) {
+	w.println("<polyline fill=\"none\" stroke=\"black\" points=\"" + points(p, false) + "\"/>");
+    }
+
+    private static String points(double[] p, boolean close) {
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i + 1 < p.length; i += 2)
+	    sb.append(i == 0 ? "" : " ").append(num(p[i])).append(',').append(num(p[i + 1]));
+	if (close && p.length >= 2)
+	    sb.append(' ').append(num(p[0])).append(',').append(num(p[1]));
+	return sb.toString();
+    }
+
+    /** Graphviz color names are case insensitive, SVG ones are lower case */
+    private static String color(String c, String def) {
+	if (c == null || c.length() == 0)
+	    return def;
+	return c.startsWith("#") ? c : c.toLowerCase(Locale.ROOT);
+    }
+
+    private static String comment(String s) {
+	return HtmlLabel.escapeText(s).replace("--", "- -");
+    }
+
+    /** Format a coordinate with two decimals at most */
+    private static String num(double v) {
+	return fmt(Math.round(v * 100) / 100.0);
+    }
+}
@@ -0,0 +1,73 @@
+package org.umlgraph.doclet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.javadoc.Doc;
+import com.sun.javadoc.Tag;
+
+/**
+ * The tags of the documented items, grouped by name.
+ * <p>
+ * Looking up the tags of an item through {@link Doc#tags(String)} scans
+ * all its tags, and UmlGraph looks up many (hidden, view, stereotype,
+ * tagvalue, note, opt, extends and the relation tags) for each class, in
+ * every diagram showing it. The index scans the tags of an item once, the
+ * first time it is asked for any of them, so that the following lookups
+ * are map gets. Like Doc.tags(String), it matches the tag kinds, so that
+ * e.g. <code>@exception</code> tags are found as <code>throws</code>.
+ * <p>
+ * An index lasts for the run of its {@link Options}, whose clones share
+ * it, and may be used by several threads.
+ */
+class TagIndex {
+    private static final Tag[] NONE = new Tag[0];
+
+    /** The tags of each item, by kind with the leading @ */
+    private final Map<Doc, Map<String, Tag[]>> index = new ConcurrentHashMap<Doc, Map<String, Tag[]>>();
+
+    /** Return the tags of the specified kind, with or without the leading @, of an item */
+    Tag[] tags(Doc doc, String kind) {
+	if (HotPathCounters.enabled)
+	    HotPathCounters.tagLookups.increment();
+	Map<String, Tag[]> kinds = index.get(doc);
+	if (kinds == null) {
+	    if (HotPathCounters.enabled)
+		HotPathCounters.tagScans.increment();
+	    index.put(doc, kinds = group(doc.tags()));
+	}
+	Tag[] tags = kinds.get(kind.startsWith("@") ? kind : "@" + kind);
+	return tags == null ? NONE : tags;
+    }
+
+    /** True if the item has tags of the specified kind */
+    boolean has(Doc doc, String kind) {
+	return tags(doc, kind).length > 0;
+    }
+
+    /** Forgets the indexed items */
+    void clear() {
+	index.clear();
+    }
+
+    /** Group the tags by kind, keeping their order */
+    private static Map<String, Tag[]> group(Tag[] tags) {
+	if (tags.length == 0)
+	    return Collections.emptyMap();
+	Map<String, List<Tag>> lists = new HashMap<String, List<Tag>>();
+	for (Tag tag : tags) {
+	    List<Tag> l = lists.get(tag.kind());
+	    if (l == null)
+		lists.put(tag.kind(), l = new ArrayList<Tag>(1));
+	    l.add(tag);
+	}
+	Map<String, Tag[]> kinds = new HashMap<String, Tag[]>(lists.size() * 2);
+	for (Map.Entry<String, List<Tag>> e : lists.entrySet())
+	    kinds.put(e.getKey(), e.getValue().toArray(new Tag[e.getValue().size()]));
+	return kinds;
+    }
+}
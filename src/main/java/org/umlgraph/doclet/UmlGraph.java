@@ -19,10 +19,14 @@
 
 package org.umlgraph.doclet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import com.sun.javadoc.ClassDoc;
 import com.sun.javadoc.Doc;
@@ -45,23 +49,30 @@ public class UmlGraph {
     private static final String programName = "UmlGraph";
     private static final String docletName = "org.umlgraph.doclet.UmlGraph";
 
-    /** Options used for commenting nodes */
-    private static Options commentOptions;
+    /**
+     * Options used for commenting nodes, by the root of the run using them,
+     * so that concurrent runs do not share them
+     */
+    private static final Map<RootDoc, Options> commentOptions = new WeakHashMap<RootDoc, Options>();
 
     /** Entry point through javadoc */
     public static boolean start(RootDoc root) throws IOException {
 	Options opt = buildOptions(root);
 	root.printNotice("UMLGraph doclet version " + Version.VERSION + " started");
-
-	View[] views = buildViews(opt, root, root);
-	if(views == null)
-	    return false;
-	if (views.length == 0)
-	    buildGraph(root, opt, null);
-	else
-	    for (int i = 0; i < views.length; i++)
-		buildGraph(root, views[i], null);
-	return true;
+	HotPathCounters.start(opt);
+	try {
+	    View[] views = buildViews(opt, root, root);
+	    if(views == null)
+		return false;
+	    if (views.length == 0)
+		buildGraph(root, opt, null);
+	    else
+		for (int i = 0; i < views.length; i++)
+		    buildGraph(root, views[i], null);
+	    return true;
+	} finally {
+	    HotPathCounters.finish(root, opt);
+	}
     }
 
     public static void main(String args[]) {
@@ -70,22 +81,33 @@ public class UmlGraph {
 	  err, err, err, docletName, args);
     }
 
-    public static Options getCommentOptions() {
-    	return commentOptions;
+    /**
+     * Return the options used for commenting the nodes of the specified
+     * run, built from the command line and the UMLNoteOptions class, if
+     * available.
+     */
+    public static Options getCommentOptions(RootDoc root) {
+	synchronized (commentOptions) {
+	    Options opt = commentOptions.get(root);
+	    if (opt == null) {
+		opt = new Options();
+		opt.setOptions(root.options());
+		opt.setOptions(findClass(root, "UMLNoteOptions"));
+		opt.shape = Shape.NOTE;
+		// the weakly held root must not be reachable from its options
+		opt.tagIndex.clear();
+		commentOptions.put(root, opt);
+	    }
+	    return opt;
+	}
     }
 
     /**
      * Creates the base Options object.
      * This contains both the options specified on the command
      * line and the ones specified in the UMLOptions class, if available.
-     * Also create the globally accessible commentOptions object.
      */
     public static Options buildOptions(RootDoc root) {
-	commentOptions = new Options();
-	commentOptions.setOptions(root.options());
-	commentOptions.setOptions(findClass(root, "UMLNoteOptions"));
-	commentOptions.shape = Shape.NOTE;
-
 	Options opt = new Options();
 	opt.setOptions(root.options());
 	opt.setOptions(findClass(root, "UMLOptions"));
@@ -105,24 +127,81 @@ public class UmlGraph {
      * Builds and outputs a single graph according to the view overrides
      */
     public static void buildGraph(RootDoc root, OptionProvider op, Doc contextDoc) throws IOException {
-	if(getCommentOptions() == null)
-	    buildOptions(root);
-	Options opt = op.getGlobalOptions();
+	buildGraph(root, op, contextDoc, null);
+    }
+
+    /**
+     * Builds a single graph according to the view overrides, writing it
+     * to the specified stream instead of the output file, unless it is null
+     */
+    public static void buildGraph(RootDoc root, OptionProvider op, Doc contextDoc, OutputStream os)
+	    throws IOException {
 	root.printNotice("Building " + op.getDisplayName());
-	ClassDoc[] classes = root.classes();
 
+	Object event = FlightEvents.beginDiagram();
+	ClassGraph c = buildGraph(root, op, contextDoc, os, op.getGlobalOptions());
+	if (event != null)
+	    FlightEvents.diagramBuilt(event, op.getDisplayName(), c.printedCount(), c.relationsPrinted(),
+		c.bytesWritten());
+    }
+
+    /** Builds a graph within the node budget, returning the one printed */
+    private static ClassGraph buildGraph(RootDoc root, OptionProvider op, Doc contextDoc, OutputStream os,
+	    Options opt) throws IOException {
 	ClassGraph c = new ClassGraph(root, op, contextDoc);
-	c.prologue();
+	if (opt.nodeBudget <= 0) {
+	    printGraph(root, c, os);
+	    return c;
+	}
+	// Build the graph in memory first, to see whether it fits the node budget
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	printGraph(root, c, buffer);
+	Map<String, String> printed = c.printedClasses();
+	if (printed.size() <= opt.nodeBudget) {
+	    if (os == null)
+		os = ClassGraph.openOutput(opt);
+	    buffer.writeTo(os);
+	    os.close();
+	    return c;
+	}
+	root.printNotice("Collapsing packages of " + op.getDisplayName() + ", as its " + printed.size()
+		+ " classes exceed the node budget of " + opt.nodeBudget);
+	c = new ClassGraph(root, op, contextDoc);
+	c.setCollapsedClasses(PackageCollapser.collapse(printed, opt.nodeBudget));
+	printGraph(root, c, os);
+	return c;
+    }
+
+    /** Prints the classes and relations of the graph to the specified stream, or the output file if null */
+    static void printGraph(RootDoc root, ClassGraph c, OutputStream os) throws IOException {
+	Options opt = c.optionProvider.getGlobalOptions();
+	ClassDoc[] classes = root.classes();
+	c.prologue(os);
 	for (ClassDoc cd : classes)
 	    c.printClass(cd, true);
 	for (ClassDoc cd : classes)
 	    c.printRelations(cd);
-	if(opt.inferRelationships)
+	if(opt.inferRelationships) {
+	    Object event = FlightEvents.beginInference();
+	    int printed = c.relationsPrinted();
 	    for (ClassDoc cd : classes)
 		c.printInferredRelations(cd);
-        if(opt.inferDependencies)
+	    FlightEvents.relationsInferred(event, c.optionProvider.getDisplayName(), "relations",
+		classes.length, c.relationsPrinted() - printed);
+	}
+        if(opt.inferDependencies) {
+	    Object event = FlightEvents.beginInference();
+	    int printed = c.relationsPrinted();
 	    for (ClassDoc cd : classes)
 		c.printInferredDependencies(cd);
+	    FlightEvents.relationsInferred(event, c.optionProvider.getDisplayName(), "dependencies",
+		classes.length, c.relationsPrinted() - printed);
+	}
+	if (opt.inferDepReduce) {
+	    int dropped = c.printReducedDependencies();
+	    if (dropped > 0)
+		root.printNotice("Transitive reduction left out " + dropped + " inferred dependencies");
+	}
 
 	c.printExtraClasses(root);
 	c.epilogue();
@@ -142,7 +221,7 @@ public class UmlGraph {
 		System.out.println("View " + opt.viewName + " not found! Exiting without generating any output.");
 		return null;
 	    }
-	    if(viewClass.tags("view").length == 0) {
+	    if(!opt.tagIndex.has(viewClass, "view")) {
 		System.out.println(viewClass + " is not a view!");
 		return null;
 	    }
@@ -157,7 +236,7 @@ public class UmlGraph {
 
 	    // find view classes
 	    for (int i = 0; i < classes.length; i++)
-		if (classes[i].tags("view").length > 0 && !classes[i].isAbstract())
+		if (opt.tagIndex.has(classes[i], "view") && !classes[i].isAbstract())
 		    views.add(buildView(srcRootDoc, classes[i], opt));
 
 	    return views.toArray(new View[views.size()]);
@@ -170,7 +249,7 @@ public class UmlGraph {
      */
     private static View buildView(RootDoc root, ClassDoc viewClass, OptionProvider provider) {
 	ClassDoc superClass = viewClass.superclass();
-	if(superClass == null || superClass.tags("view").length == 0)
+	if(superClass == null || !provider.getGlobalOptions().tagIndex.has(superClass, "view"))
 	    return new View(root, viewClass, provider);
 
 	return new View(root, viewClass, buildView(root, superClass, provider));
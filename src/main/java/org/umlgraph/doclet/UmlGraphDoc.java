@@ -1,20 +1,25 @@
 package org.umlgraph.doclet;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.util.HashSet;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Comparator;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.Doc;
 import com.sun.javadoc.LanguageVersion;
 import com.sun.javadoc.PackageDoc;
 import com.sun.javadoc.RootDoc;
@@ -47,12 +52,16 @@ public class UmlGraphDoc {
      * @return
      */
     public static boolean start(RootDoc root) {
+	RunReport report = new RunReport();
 	root.printNotice("UmlGraphDoc version " + Version.VERSION +  ", running the standard doclet");
+	RunReport.Sample sample = report.start("standard", null);
 	Standard.start(root);
+	sample.stop();
 	root.printNotice("UmlGraphDoc version " + Version.VERSION + ", altering javadocs");
 	try {
 	    String outputFolder = findOutputPath(root.options());
 
+	    sample = report.start("options", null);
         Options opt = UmlGraph.buildOptions(root);
 	    opt.setOptions(root.options());
 	    // in javadoc enumerations are always printed
@@ -61,9 +70,27 @@ public class UmlGraphDoc {
 	    // enable strict matching for hide expressions
 	    opt.strictMatching = true;
 //	    root.printNotice(opt.toString());
+	    sample.stop();
 
-	    generatePackageDiagrams(root, opt, outputFolder);
-	    generateContextDiagrams(root, opt, outputFolder);
+	    HotPathCounters.start(opt);
+	    try {
+		GraphvizRunner graphviz = new GraphvizRunner(opt, root, outputFolder, report);
+		HtmlPatcher patcher = new HtmlPatcher(opt, outputFolder, root, report);
+		generatePackageDiagrams(root, opt, outputFolder, graphviz, patcher, report);
+		if (opt.contextViewer)
+		    generateContextViewer(root, opt, outputFolder, patcher, report);
+		else
+		    generateContextDiagrams(root, opt, outputFolder, graphviz, patcher, report);
+		if (opt.packageOverview)
+		    generatePackageOverview(root, opt, outputFolder, graphviz, patcher, report);
+		graphviz.finish();
+		graphviz.printSummary();
+		patcher.finish();
+		if (opt.timingReport)
+		    root.printNotice(report.write(outputFolder, graphviz.renderedCount()));
+	    } finally {
+		HotPathCounters.finish(root, opt);
+	    }
 	} catch(Throwable t) {
 	    root.printWarning("Error: " + t.toString());
 	    t.printStackTrace();
@@ -84,18 +111,18 @@ public class UmlGraphDoc {
      * Generates the package diagrams for all of the packages that contain classes among those 
      * returned by RootDoc.class() 
      */
-    private static void generatePackageDiagrams(RootDoc root, Options opt, String outputFolder)
-	    throws IOException {
+    private static void generatePackageDiagrams(RootDoc root, Options opt, String outputFolder,
+	    GraphvizRunner graphviz, HtmlPatcher patcher, RunReport report) throws IOException {
 	Set<String> packages = new HashSet<String>();
 	for (ClassDoc classDoc : root.classes()) {
 	    PackageDoc packageDoc = classDoc.containingPackage();
 	    if(!packages.contains(packageDoc.name())) {
 		packages.add(packageDoc.name());
     	    OptionProvider view = new PackageView(outputFolder, packageDoc, root, opt);
-    	    UmlGraph.buildGraph(root, view, packageDoc);
-    	    runGraphviz(opt.dotExecutable, outputFolder, packageDoc.name(), packageDoc.name(), root);
-    	    alterHtmlDocs(opt, outputFolder, packageDoc.name(), packageDoc.name(),
-    		    "package-summary.html", Pattern.compile("(</[Hh]2>)|(<h1 title=\"Package\").*"), root);
+    	    buildDiagram(root, view, packageDoc, graphviz,
+    		    GraphvizRunner.dotFile(outputFolder, packageDoc.name(), packageDoc.name()),
+    		    patcher, new HtmlPatcher.Patch("package", packageDoc.name(), packageDoc.name(),
+    		    "package-summary.html", Pattern.compile("(</[Hh]2>)|(<h1 title=\"Package\").*"), null), report);
 	    }
 	}
     }
@@ -103,8 +130,8 @@ public class UmlGraphDoc {
     /**
      * Generates the context diagram for a single class
      */
-    private static void generateContextDiagrams(RootDoc root, Options opt, String outputFolder)
-	    throws IOException {
+    private static void generateContextDiagrams(RootDoc root, Options opt, String outputFolder,
+	    GraphvizRunner graphviz, HtmlPatcher patcher, RunReport report) throws IOException {
         Set<ClassDoc> classDocs = new TreeSet<ClassDoc>(new Comparator<ClassDoc>() {
             public int compare(ClassDoc cd1, ClassDoc cd2) {
                 return cd1.name().compareTo(cd2.name());
@@ -120,10 +147,10 @@ public class UmlGraphDoc {
 		    view = new ContextView(outputFolder, classDoc, root, opt);
 		else
 		    view.setContextCenter(classDoc);
-		UmlGraph.buildGraph(root, view, classDoc);
-		runGraphviz(opt.dotExecutable, outputFolder, classDoc.containingPackage().name(), classDoc.name(), root);
-		alterHtmlDocs(opt, outputFolder, classDoc.containingPackage().name(), classDoc.name(),
-			classDoc.name() + ".html", Pattern.compile(".*(Class|Interface|Enum) " + classDoc.name() + ".*") , root);
+		buildDiagram(root, view, classDoc, graphviz,
+			GraphvizRunner.dotFile(outputFolder, classDoc.containingPackage().name(), classDoc.name()),
+			patcher, new HtmlPatcher.Patch("context", classDoc.containingPackage().name(), classDoc.name(),
+			classDoc.name() + ".html", classPagePattern(classDoc), null), report);
 	    } catch (Exception e) {
 		throw new RuntimeException("Error generating " + classDoc.name(), e);
 	    }
@@ -131,47 +158,155 @@ public class UmlGraphDoc {
     }
 
     /**
-     * Runs Graphviz dot building both a diagram (in png format) and a client side map for it.
+     * Writes the model of the classes, from which a script draws the
+     * context of each class in its page, instead of the context diagrams
      */
-    private static void runGraphviz(String dotExecutable, String outputFolder, String packageName, String name, RootDoc root) {
-    if (dotExecutable == null) {
-      dotExecutable = "dot";
+    private static void generateContextViewer(RootDoc root, Options opt, String outputFolder,
+	    HtmlPatcher patcher, RunReport report) throws IOException {
+	root.printNotice("Writing the class model for the context viewer");
+	RunReport.Sample sample = report.start("build", "viewer");
+	ContextModel.write(root, opt, outputFolder);
+	sample.stop();
+	for (ClassDoc classDoc : root.classes()) {
+	    String packageName = classDoc.containingPackage().name();
+	    // the path from the package folder to the javadoc root
+	    String rootPath = packageName.replaceAll("[^.]+\\.?", "../");
+	    patcher.add(new HtmlPatcher.Patch("viewer", packageName, classDoc.name(), classDoc.name() + ".html",
+		    classPagePattern(classDoc), String.format(CONTEXT_VIEWER_TAG, classDoc.qualifiedName(), rootPath)));
+	}
     }
-	File dotFile = new File(outputFolder, packageName.replace(".", "/") + "/" + name + ".dot");
-  File svgFile = new File(outputFolder, packageName.replace(".", "/") + "/" + name + ".svg");
 
-	try {
-	    Process p = Runtime.getRuntime().exec(new String [] {
-		dotExecutable,
-    "-Tsvg",
-		"-o",
-		svgFile.getAbsolutePath(),
-		dotFile.getAbsolutePath()
-	    });
-	    BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-	    String line;
-	    while((line = reader.readLine()) != null)
-		root.printWarning(line);
-	    int result = p.waitFor();
-	    if (result != 0)
-		root.printWarning("Errors running Graphviz on " + dotFile);
-	} catch (Exception e) {
-	    e.printStackTrace();
-	    System.err.println("Ensure that dot is in your path and that its path does not contain spaces");
-	}
+    /** Return the pattern matching the line of a class page after which its diagram is placed */
+    private static Pattern classPagePattern(ClassDoc classDoc) {
+	return Pattern.compile(".*(Class|Interface|Enum) " + classDoc.name() + ".*");
+    }
+
+    /**
+     * Generates the diagram of the dependencies between the documented packages,
+     * aggregated from the relations of their classes, for the overview page
+     */
+    private static void generatePackageOverview(RootDoc root, Options opt, String outputFolder,
+	    GraphvizRunner graphviz, HtmlPatcher patcher, RunReport report) throws IOException {
+	PackageDependencies dependencies = new PackageDependencies();
+	for (ClassDoc classDoc : root.classes())
+	    dependencies.addClass(classDoc.containingPackage().name());
+	// javadoc only writes an overview page when documenting several packages
+	if (dependencies.size() < 2)
+	    return;
+	root.printNotice("Building package dependency overview");
+	RunReport.Sample sample = report.start("build", "overview");
+
+	// Gather the class relations, including the inferred dependencies
+	Options overviewOpt = (Options) opt.clone();
+	overviewOpt.inferDependencies = true;
+	overviewOpt.inferDepReduce = false;
+	ClassGraph c = new ClassGraph(root, overviewOpt, null);
+	c.setPackageDependencies(dependencies);
+	UmlGraph.printGraph(root, c, new OutputStream() {
+	    public void write(int b) {}
+	});
+	for (List<String> cycle : dependencies.cycles())
+	    root.printWarning("Cyclic dependencies between the packages " + cycle);
+
+	File dotFile = new File(outputFolder, "overview-packages.dot");
+	HtmlPatcher.Patch p = new HtmlPatcher.Patch("overview", "", "overview-packages",
+		"overview-summary.html", Pattern.compile(".*<div class=\"contentContainer\">.*"), null,
+		"Package dependency diagram");
+	Runnable patch = patchAction(patcher, p);
+	OutputStream os = graphviz.open(dotFile, p.kind, patch);
+	PrintWriter w = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(
+		os != null ? os : new FileOutputStream(dotFile)), opt.outputEncoding));
+	dependencies.print(w, opt);
+	w.close();
+	sample.stop();
+	if (os == null)
+	    graphviz.render(dotFile, p.kind, patch);
+    }
+
+    /**
+     * Builds a diagram and hands it to the rendering stage, either piping the
+     * dot text to Graphviz or through the dot file; the javadoc page is
+     * patched once the diagram is rendered
+     */
+    private static void buildDiagram(RootDoc root, OptionProvider view, Doc contextDoc,
+	    GraphvizRunner graphviz, File dotFile, HtmlPatcher patcher, HtmlPatcher.Patch p,
+	    RunReport report) throws IOException {
+	Runnable patch = patchAction(patcher, p);
+	RunReport.Sample sample = report.start("build", p.kind);
+	OutputStream os = graphviz.open(dotFile, p.kind, patch);
+	UmlGraph.buildGraph(root, view, contextDoc, os);
+	sample.stop();
+	if (os == null)
+	    graphviz.render(dotFile, p.kind, patch);
+    }
+
+    /** Return the action handing a page to the patching stage */
+    private static Runnable patchAction(final HtmlPatcher patcher, final HtmlPatcher.Patch p) {
+	return new Runnable() {
+	    public void run() {
+		patcher.add(p);
+	    }
+	};
     }
 
-    //Format string for the uml image div tag.
     private static final String UML_DIV_TAG = 
 	"<div align=\"center\">" +
-	    "<object width=\"100%%\" height=\"100%%\" type=\"image/svg+xml\" data=\"%1$s.svg\" alt=\"Package class diagram package %1$s\" border=0></object>" +
+	    "<object width=\"100%%\" height=\"100%%\" type=\"image/svg+xml\" data=\"%1$s.%2$s\" alt=\"%5$s\" border=0></object>" +
 	"</div>";
     
     private static final String UML_AUTO_SIZED_DIV_TAG = 
     "<div align=\"center\">" +
-        "<object type=\"image/svg+xml\" data=\"%1$s.svg\" alt=\"Package class diagram package %1$s\" border=0></object>" +
+        "<object type=\"image/svg+xml\" data=\"%1$s.%2$s\" alt=\"%5$s\" border=0></object>" +
     "</div>";
     
+    /**
+     * Format string for the lazily loaded diagram: a placeholder of the
+     * diagram's size, replaced by the diagram when it is scrolled into view
+     * or clicked.
+     */
+    private static final String LAZY_UML_DIV_TAG =
+	"<div align=\"center\">" +
+	    "<div id=\"uml-lazy\" title=\"Click to load the UML class diagram\" " +
+	    "style=\"display: inline-block; width: %3$dpx; height: %4$dpx; cursor: pointer; background: #f8f8f8;\"></div>" +
+	    "<noscript><object width=\"%3$d\" height=\"%4$d\" type=\"image/svg+xml\" data=\"%1$s.%2$s\" alt=\"%5$s\" border=0></object></noscript>" +
+	"</div>\n" +
+	"<script type=\"text/javascript\">\n" +
+	"(function() {\n" +
+	"    var p = document.getElementById(\"uml-lazy\");\n" +
+	"    var observer = null;\n" +
+	"    function load() {\n" +
+	"        if (observer)\n" +
+	"            observer.disconnect();\n" +
+	"        if (!p.parentNode)\n" +
+	"            return;\n" +
+	"        var o = document.createElement(\"object\");\n" +
+	"        o.type = \"image/svg+xml\";\n" +
+	"        o.width = \"%3$d\";\n" +
+	"        o.height = \"%4$d\";\n" +
+	"        o.data = \"%1$s.%2$s\";\n" +
+	"        p.parentNode.replaceChild(o, p);\n" +
+	"    }\n" +
+	"    p.onclick = load;\n" +
+	"    if (!(\"IntersectionObserver\" in window))\n" +
+	"        return load();\n" +
+	"    observer = new IntersectionObserver(function(entries) {\n" +
+	"        if (entries[0].isIntersecting)\n" +
+	"            load();\n" +
+	"    });\n" +
+	"    observer.observe(p);\n" +
+	"})();\n" +
+	"</script>";
+
+    /** Format string for the context of a class drawn by the viewer script */
+    private static final String CONTEXT_VIEWER_TAG =
+	"<div align=\"center\" class=\"umlgraph-viewer\" data-class=\"%1$s\"></div>\n" +
+	"<script type=\"text/javascript\" src=\"%2$s" + ContextModel.MODEL_FILE + "\"></script>\n" +
+	"<script type=\"text/javascript\" src=\"%2$s" + ContextModel.VIEWER_FILE + "\"></script>";
+
+    /** The size attributes of the root element of an SVG file */
+    private static final Pattern SVG_SIZE = Pattern.compile(
+	"<svg\\s[^>]*?\\b(width|height)=\"([0-9.]+)(pt|px)?\"[^>]*?\\b(width|height)=\"([0-9.]+)(pt|px)?\"");
+
     private static final String EXPANDABLE_UML_STYLE = "font-family: Arial,Helvetica,sans-serif;font-size: 1.5em; display: block; width: 250px; height: 20px; background: #009933; padding: 5px; text-align: center; border-radius: 8px; color: white; font-weight: bold;";
 
     //Format string for the java script tag.
@@ -193,68 +328,68 @@ public class UmlGraphDoc {
 	"</div>";
     
     /**
-     * Takes an HTML file, looks for the first instance of the specified insertion point, and
-     * inserts the diagram image reference and a client side map in that point.
+     * Return the tag embedding the diagram of a class or package in its
+     * javadoc page, with the specified alternative text, or the default one
+     * if null
      */
-    private static void alterHtmlDocs(Options opt, String outputFolder, String packageName, String className,
-	    String htmlFileName, Pattern insertPointPattern, RootDoc root) throws IOException {
-	// setup files
-	File output = new File(outputFolder, packageName.replace(".", "/"));
-	File htmlFile = new File(output, htmlFileName);
-	File alteredFile = new File(htmlFile.getAbsolutePath() + ".uml");
-	if (!htmlFile.exists()) {
-	    System.err.println("Expected file not found: " + htmlFile.getAbsolutePath());
-	    return;
-	}
+    static String diagramTag(Options opt, File output, String className, String alt) {
+	if (alt == null)
+	    alt = "Package class diagram package " + className;
+	String tag;
+	String extension = opt.svgz ? "svgz" : "svg";
+	// collapsible diagrams are only loaded when shown anyway
+	int[] size = opt.lazyDiagrams && !opt.collapsibleDiagrams
+	    ? svgSize(new File(output, className + ".svg")) : null;
+	if (size != null)
+	    tag = String.format(LAZY_UML_DIV_TAG, className, extension, size[0], size[1], alt);
+	else if (opt.autoSize)
+	    tag = String.format(UML_AUTO_SIZED_DIV_TAG, className, extension, 0, 0, alt);
+	else
+	    tag = String.format(UML_DIV_TAG, className, extension, 0, 0, alt);
+	if (opt.collapsibleDiagrams)
+	    tag = String.format(EXPANDABLE_UML, tag, "Show UML class diagram", "Hide UML class diagram");
+	return tag;
+    }
 
-	// parse & rewrite
-	BufferedWriter writer = null;
+    /**
+     * Return the width and height of an SVG diagram in pixels, or null
+     * if they cannot be found
+     */
+    private static int[] svgSize(File svgFile) {
+	if (!svgFile.exists())
+	    return null;
 	BufferedReader reader = null;
-	boolean matched = false;
 	try {
-	    writer = new BufferedWriter(new OutputStreamWriter(new
-		    FileOutputStream(alteredFile), opt.outputEncoding));
-	    reader = new BufferedReader(new InputStreamReader(new
-		    FileInputStream(htmlFile), opt.outputEncoding));
-
+	    reader = new BufferedReader(new InputStreamReader(new FileInputStream(svgFile), "UTF-8"));
+	    // the root element's attributes are found at the start of the file
+	    StringBuilder head = new StringBuilder();
 	    String line;
-	    while ((line = reader.readLine()) != null) {
-		writer.write(line);
-		writer.newLine();
-		if (!matched && insertPointPattern.matcher(line).matches()) {
-		    matched = true;
-			
-		    String tag;
-		    if (opt.autoSize)
-		        tag = String.format(UML_AUTO_SIZED_DIV_TAG, className);
-		    else
-                tag = String.format(UML_DIV_TAG, className);
-		    if (opt.collapsibleDiagrams)
-		    	tag = String.format(EXPANDABLE_UML, tag, "Show UML class diagram", "Hide UML class diagram");
-		    writer.write("<!-- UML diagram added by UMLGraph version " +
-		    		Version.VERSION + 
-				" (http://www.spinellis.gr/umlgraph/) -->");
-		    writer.newLine();
-		    writer.write(tag);
-		    writer.newLine();
+	    while ((line = reader.readLine()) != null && head.length() < 4096) {
+		head.append(line).append(' ');
+		Matcher m = SVG_SIZE.matcher(head);
+		if (m.find()) {
+		    int[] size = new int[2];
+		    for (int i = 1; i <= 4; i += 3) {
+			double v = Double.parseDouble(m.group(i + 1));
+			// Graphviz gives the size in points
+			if (!"px".equals(m.group(i + 2)))
+			    v = v * 4 / 3;
+			size[m.group(i).equals("width") ? 0 : 1] = (int) Math.ceil(v);
+		    }
+		    return size;
 		}
 	    }
+	} catch (IOException e) {
+	    System.err.println("Error reading " + svgFile + ": " + e);
+	} catch (NumberFormatException e) {
+	    System.err.println("Invalid size in " + svgFile);
 	} finally {
-	    if (writer != null)
-		writer.close();
 	    if (reader != null)
-		reader.close();
-	}
-
-	// if altered, delete old file and rename new one to the old file name
-	if (matched) {
-	    htmlFile.delete();
-	    alteredFile.renameTo(htmlFile);
-	} else {
-	    root.printNotice("Warning, could not find a line that matches the pattern '" + insertPointPattern.pattern() 
-		    + "'.\n Class diagram reference not inserted");
-	    alteredFile.delete();
+		try {
+		    reader.close();
+		} catch (IOException e) {}
 	}
+	return null;
     }
 
     /**
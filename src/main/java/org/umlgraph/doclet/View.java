@@ -20,7 +20,6 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import com.sun.javadoc.ClassDoc;
@@ -92,17 +91,17 @@ public class View implements OptionProvider {
 	
 	try {
 	    if (strings[0].equals("class")) {
-		return new PatternMatcher(Pattern.compile(strings[1]));
+		return new PatternMatcher(PatternCache.compile(strings[1]));
 	    } else if (strings[0].equals("context")) {
-		return new ContextMatcher(root, Pattern.compile(strings[1]), getGlobalOptions(), 
+		return new ContextMatcher(root, PatternCache.compile(strings[1]), getGlobalOptions(), 
 			false);
 	    } else if (strings[0].equals("outgoingContext")) {
-		return new ContextMatcher(root, Pattern.compile(strings[1]), getGlobalOptions(), 
+		return new ContextMatcher(root, PatternCache.compile(strings[1]), getGlobalOptions(), 
 			false);
 	    } else if (strings[0].equals("interface")) {
-		return new InterfaceMatcher(root, Pattern.compile(strings[1]));
+		return new InterfaceMatcher(root, PatternCache.compile(strings[1]));
 	    } else if (strings[0].equals("subclass")) {
-		return new SubclassMatcher(root, Pattern.compile(strings[1]));
+		return new SubclassMatcher(root, PatternCache.compile(strings[1]));
 	    } else {
 		System.err.println("Skipping @match tag, unknown match type, in view " + viewDoc);
 	    }
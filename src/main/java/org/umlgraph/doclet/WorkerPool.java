@@ -0,0 +1,52 @@
+package org.umlgraph.doclet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the thread pools running the stages of UmlGraphDoc. The tasks
+ * of a stage wait in a bounded queue, and submitting a task blocks while
+ * the queue is full, so that a stage cannot run far ahead of the next one.
+ */
+class WorkerPool {
+    private WorkerPool() {}
+
+    /**
+     * Return a pool of the specified number of daemon threads (so that a
+     * failing run does not keep javadoc alive), fed through a queue of the
+     * specified capacity.
+     */
+    static ExecutorService create(final String name, int workers, int capacity) {
+	ThreadFactory factory = new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	    }
+	};
+	RejectedExecutionHandler block = new RejectedExecutionHandler() {
+	    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+		if (executor.isShutdown())
+		    throw new RejectedExecutionException(name + " is shut down");
+		try {
+		    executor.getQueue().put(r);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new RejectedExecutionException("Interrupted while waiting for " + name, e);
+		}
+	    }
+	};
+	return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+	    new ArrayBlockingQueue<Runnable>(capacity), factory, block);
+    }
+
+    /** Return the number of workers to use when not specified */
+    static int defaultWorkers() {
+	return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Draws the context of a class (the classes it is directly related to) in
+ * its javadoc page, using the class model written by UmlGraphDoc with the
+ * -contextviewer option (umlgraph-model.js, loaded before this script).
+ *
+ * The general classes are placed above the class, the specialized ones
+ * below it, and the other related classes on its left (relations towards
+ * the class) and right (relations from the class).
+ */
+(function() {
+    var SVG = "http://www.w3.org/2000/svg";
+    var FONT_SIZE = 10, LINE = 13, PAD = 4, HGAP = 30, VGAP = 50, MARGIN = 8;
+    var STYLES = {
+	depend: { dashed: true, end: "open" },
+	navassoc: { end: "open" },
+	assoc: {},
+	navhas: { start: "ediamond", end: "open" },
+	has: { start: "ediamond" },
+	navcomposed: { start: "diamond", end: "open" },
+	composed: { start: "diamond" },
+	"implements": { dashed: true, end: "empty", general: true },
+	"extends": { end: "empty", general: true }
+    };
+
+    var model = window.umlgraphModel;
+    var scripts = document.getElementsByTagName("script");
+    var script = document.currentScript || scripts[scripts.length - 1];
+    // the model URLs are relative to the javadoc root, where this script is
+    var docRoot = script.src.replace(/[^\/]*$/, "");
+
+    function element(name, attributes, parent) {
+	var e = document.createElementNS(SVG, name);
+	for (var a in attributes)
+	    e.setAttribute(a, attributes[a]);
+	if (parent)
+	    parent.appendChild(e);
+	return e;
+    }
+
+    function markers(svg) {
+	var defs = element("defs", {}, svg);
+	var shapes = {
+	    open: { d: "M0,0 L10,5 L0,10", fill: "none", refX: 10, width: 10 },
+	    empty: { d: "M0,0 L12,6 L0,12 z", fill: "white", refX: 12, width: 12 },
+	    diamond: { d: "M0,5 L8,0 L16,5 L8,10 z", fill: "black", refX: 0, width: 16 },
+	    ediamond: { d: "M0,5 L8,0 L16,5 L8,10 z", fill: "white", refX: 0, width: 16 }
+	};
+	for (var name in shapes) {
+	    var s = shapes[name];
+	    var h = name == "empty" ? 12 : 10;
+	    var m = element("marker", { id: "umlgraph-" + name, markerWidth: s.width + 1, markerHeight: h + 1,
+		refX: s.refX, refY: h / 2, orient: "auto", markerUnits: "userSpaceOnUse" }, defs);
+	    element("path", { d: s.d, fill: s.fill, stroke: "black" }, m);
+	}
+    }
+
+    function resolve(url) {
+	return /^([a-z]+:|\/)/i.test(url) ? url : docRoot + url;
+    }
+
+    /** Draws a class box at the origin, returning it with its size */
+    function box(svg, node, center) {
+	var parent = svg;
+	if (node.url && !center)
+	    parent = element("a", { href: resolve(node.url) }, svg);
+	var g = element("g", {}, parent);
+	var rect = element("rect", { fill: center ? "lemonchiffon" : "white", stroke: "black" }, g);
+	var y = 0, width = 0, separators = [];
+	for (var i = 0; i < node.compartments.length; i++) {
+	    var lines = node.compartments[i];
+	    if (i > 0)
+		separators.push(y);
+	    y += PAD;
+	    for (var j = 0; j < lines.length; j++) {
+		y += LINE;
+		var t = element("text", { y: y - 3, "font-family": "Helvetica,sans-Serif", "font-size": FONT_SIZE,
+		    "text-anchor": i == 0 ? "middle" : "start" }, g);
+		t.textContent = lines[j];
+		width = Math.max(width, t.getComputedTextLength());
+	    }
+	    y += PAD;
+	}
+	width += 2 * PAD;
+	var texts = g.getElementsByTagName("text");
+	for (var k = 0; k < texts.length; k++)
+	    texts[k].setAttribute("x", texts[k].getAttribute("text-anchor") == "middle" ? width / 2 : PAD);
+	rect.setAttribute("width", width);
+	rect.setAttribute("height", y);
+	for (var s = 0; s < separators.length; s++)
+	    element("line", { x1: 0, y1: separators[s], x2: width, y2: separators[s], stroke: "black" }, g);
+	return { g: g, width: width, height: y };
+    }
+
+    /** Return the point where the line from the box center towards (x, y) leaves the box */
+    function border(b, x, y) {
+	var cx = b.x + b.width / 2, cy = b.y + b.height / 2;
+	var dx = x - cx, dy = y - cy;
+	if (dx == 0 && dy == 0)
+	    return { x: cx, y: cy };
+	var t = Math.min(dx == 0 ? Infinity : b.width / 2 / Math.abs(dx),
+		dy == 0 ? Infinity : b.height / 2 / Math.abs(dy));
+	return { x: cx + t * dx, y: cy + t * dy };
+    }
+
+    function label(svg, text, x, y) {
+	if (!text)
+	    return;
+	var t = element("text", { x: x, y: y, "font-family": "Helvetica,sans-Serif", "font-size": FONT_SIZE,
+	    "text-anchor": "middle" }, svg);
+	t.textContent = text;
+    }
+
+    function draw(div) {
+	var byName = {};
+	for (var i = 0; i < model.nodes.length; i++)
+	    byName[model.nodes[i].name] = i;
+	var center = byName[div.getAttribute("data-class")];
+	if (center === undefined)
+	    return;
+
+	// Assign the related classes to the rows around the class
+	var rows = { top: [], left: [], right: [], bottom: [] };
+	var placed = {};
+	placed[center] = true;
+	for (var e = 0; e < model.edges.length; e++) {
+	    var edge = model.edges[e];
+	    if (edge.from != center && edge.to != center)
+		continue;
+	    var other = edge.from == center ? edge.to : edge.from;
+	    if (placed[other])
+		continue;
+	    placed[other] = true;
+	    if (STYLES[edge.type].general)
+		rows[edge.from == center ? "top" : "bottom"].push(other);
+	    else
+		rows[edge.from == center ? "right" : "left"].push(other);
+	}
+
+	var svg = element("svg", {}, div);
+	markers(svg);
+	var boxes = {};
+	for (var n in placed)
+	    boxes[n] = box(svg, model.nodes[n], n == center);
+
+	// Lay out the rows above and below the class, and the columns beside it
+	function extent(list, horizontal) {
+	    var length = 0, breadth = 0;
+	    for (var k = 0; k < list.length; k++) {
+		var b = boxes[list[k]];
+		length += (horizontal ? b.width : b.height) + (k > 0 ? (horizontal ? HGAP : VGAP / 2) : 0);
+		breadth = Math.max(breadth, horizontal ? b.height : b.width);
+	    }
+	    return { length: length, breadth: breadth };
+	}
+	function place(list, horizontal, x, y, align) {
+	    for (var k = 0; k < list.length; k++) {
+		var b = boxes[list[k]];
+		if (horizontal) {
+		    b.x = x;
+		    b.y = y;
+		    x += b.width + HGAP;
+		} else {
+		    b.x = x + align * b.width;
+		    b.y = y;
+		    y += b.height + VGAP / 2;
+		}
+	    }
+	}
+	var c = boxes[center];
+	var top = extent(rows.top, true), bottom = extent(rows.bottom, true);
+	var left = extent(rows.left, false), right = extent(rows.right, false);
+	var middleWidth = left.breadth + (left.length > 0 ? 2 * HGAP : 0) + c.width
+	    + (right.length > 0 ? 2 * HGAP : 0) + right.breadth;
+	var middleHeight = Math.max(c.height, left.length, right.length);
+	var width = Math.max(top.length, bottom.length, middleWidth);
+	var x = MARGIN + (width - middleWidth) / 2, y = MARGIN;
+	place(rows.top, true, MARGIN + (width - top.length) / 2, y);
+	if (rows.top.length > 0)
+	    y += top.breadth + VGAP;
+	place(rows.left, false, x + left.breadth, y + (middleHeight - left.length) / 2, -1);
+	c.x = x + left.breadth + (left.length > 0 ? 2 * HGAP : 0);
+	c.y = y + (middleHeight - c.height) / 2;
+	place(rows.right, false, c.x + c.width + 2 * HGAP, y + (middleHeight - right.length) / 2, 0);
+	y += middleHeight;
+	if (rows.bottom.length > 0)
+	    y += VGAP;
+	place(rows.bottom, true, MARGIN + (width - bottom.length) / 2, y);
+	y += bottom.breadth;
+	for (n in boxes)
+	    boxes[n].g.setAttribute("transform", "translate(" + boxes[n].x + "," + boxes[n].y + ")");
+	svg.setAttribute("width", width + 2 * MARGIN);
+	svg.setAttribute("height", y + MARGIN);
+
+	// Draw the relations between the classes shown
+	for (e = 0; e < model.edges.length; e++) {
+	    edge = model.edges[e];
+	    var from = boxes[edge.from], to = boxes[edge.to];
+	    if (!from || !to || from == to)
+		continue;
+	    var style = STYLES[edge.type];
+	    var p1 = border(from, to.x + to.width / 2, to.y + to.height / 2);
+	    var p2 = border(to, from.x + from.width / 2, from.y + from.height / 2);
+	    var attributes = { x1: p1.x, y1: p1.y, x2: p2.x, y2: p2.y, stroke: "black" };
+	    if (style.dashed)
+		attributes["stroke-dasharray"] = "5,3";
+	    if (style.start)
+		attributes["marker-start"] = "url(#umlgraph-" + style.start + ")";
+	    if (style.end)
+		attributes["marker-end"] = "url(#umlgraph-" + style.end + ")";
+	    svg.insertBefore(element("line", attributes), svg.firstChild.nextSibling);
+	    label(svg, edge.fromLabel, p1.x + (p2.x - p1.x) * 0.15, p1.y + (p2.y - p1.y) * 0.15 - 3);
+	    label(svg, edge.label, (p1.x + p2.x) / 2, (p1.y + p2.y) / 2 - 3);
+	    label(svg, edge.toLabel, p2.x + (p1.x - p2.x) * 0.15, p2.y + (p1.y - p2.y) * 0.15 - 3);
+	}
+    }
+
+    if (!model)
+	return;
+    var divs = document.querySelectorAll("div.umlgraph-viewer");
+    for (var d = 0; d < divs.length; d++)
+	draw(divs[d]);
+})();
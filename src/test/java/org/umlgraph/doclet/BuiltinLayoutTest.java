@@ -0,0 +1,234 @@
+/*
+ * UmlGraph class diagram testing framework
+ *
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.doclet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.umlgraph.test.TestUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Built-in layout regression tests.
+ * <p>
+ * Renders each reference dot file of the UmlGraph tests with the built-in
+ * layout (see {@link DotGraph}, {@link LayeredLayout} and
+ * {@link SvgWriter}), and checks that the SVG produced is well formed,
+ * that it has a group for each node and edge of the dot file, and that
+ * the URLs and edge labels of the dot file appear in it. The expected
+ * nodes, edges, URLs and labels are read from the dot text itself, not
+ * from the parsed graph. The layout is not compared with that of dot.
+ * <p>
+ * It also checks that UmlGraphDoc leaves all the diagrams to dot when the
+ * built-in layout is not enabled, even if the graphs are inspected for the
+ * large graph options.
+ * <p>
+ * This test lives in the doclet package, as the renderer is not public.
+ */
+public class BuiltinLayoutTest {
+
+    static final String testRefFolder = "testdata/dot-ref";
+
+    static final String testSourceFolder = "testdata/umldoc-src";
+
+    static final String testDestFolder = "testdata/builtin-out";
+
+    /** A node statement, not a default attribute one */
+    private static final Pattern NODE = Pattern.compile("^\\s*(\\w+)\\s*\\[");
+    private static final Pattern URL = Pattern.compile("(?:URL|href)=\"([^\"]*)\"");
+    private static final Pattern EDGE_LABEL = Pattern.compile("(?:label|taillabel|headlabel)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    static PrintWriter pw = new PrintWriter(System.out);
+
+    public static void main(String[] args) throws IOException {
+	List<String> differences = new ArrayList<String>();
+
+	File[] dotFiles = new File(testRefFolder).listFiles(new java.io.FileFilter() {
+	    public boolean accept(File f) {
+		return f.getName().endsWith(".dot");
+	    }
+	});
+	Arrays.sort(dotFiles);
+	for (File f : dotFiles) {
+	    pw.println("Rendering " + f.getName() + " with the built-in layout");
+	    checkRendering(f, differences);
+	}
+	checkDisabled(differences);
+
+	if (differences.size() > 0) {
+	    pw.println("ERROR, some diagrams are not rendered correctly:");
+	    for (String difference : differences)
+		pw.println(difference);
+	} else {
+	    pw.println("GOOD, all diagrams are rendered correctly");
+	}
+	pw.println();
+	pw.println();
+	pw.flush();
+	System.exit(differences.size() > 0 ? 1 : 0);
+    }
+
+    /** Renders a dot file, adding the problems found in the SVG to differences */
+    private static void checkRendering(File dotFile, List<String> differences) throws IOException {
+	String name = dotFile.getName();
+	String text = read(dotFile);
+
+	DotGraph graph = DotGraph.parse(text);
+	LayeredLayout layout = new LayeredLayout(graph);
+	layout.layout();
+	StringWriter svg = new StringWriter();
+	new SvgWriter(graph, layout, new PrintWriter(svg)).write("UTF-8");
+
+	Document doc;
+	try {
+	    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+	    factory.setNamespaceAware(true);
+	    doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(svg.toString())));
+	} catch (Exception e) {
+	    differences.add(name + ": the SVG is not well formed: " + e.getMessage());
+	    return;
+	}
+
+	// the nodes and edges, and what the dot file says should be shown
+	int nodes = 0, edges = 0;
+	Set<String> urls = new HashSet<String>();
+	Set<String> labels = new HashSet<String>();
+	for (String line : text.split("\n")) {
+	    if (line.trim().startsWith("//") || line.startsWith("#"))
+		continue;
+	    Matcher m = URL.matcher(line);
+	    while (m.find())
+		urls.add(m.group(1).replace("&amp;", "&"));
+	    if (line.contains("->")) {
+		edges++;
+		m = EDGE_LABEL.matcher(line);
+		while (m.find())
+		    for (String l : m.group(1).split("\\\\[nlr]"))
+			if (l.trim().length() > 0)
+			    labels.add(HtmlLabel.plainText(l.replace("\\\"", "\"").trim()));
+	    } else {
+		m = NODE.matcher(line);
+		if (m.find() && !m.group(1).matches("node|edge|graph"))
+		    nodes++;
+	    }
+	}
+
+	// what the SVG shows
+	int nodeGroups = 0, edgeGroups = 0;
+	NodeList groups = doc.getElementsByTagName("g");
+	for (int i = 0; i < groups.getLength(); i++) {
+	    String kind = ((Element) groups.item(i)).getAttribute("class");
+	    if (kind.equals("node"))
+		nodeGroups++;
+	    else if (kind.equals("edge"))
+		edgeGroups++;
+	}
+	Set<String> svgUrls = new HashSet<String>();
+	NodeList anchors = doc.getElementsByTagName("a");
+	for (int i = 0; i < anchors.getLength(); i++)
+	    svgUrls.add(((Element) anchors.item(i)).getAttributeNS("http://www.w3.org/1999/xlink", "href"));
+	Set<String> svgTexts = new HashSet<String>();
+	NodeList texts = doc.getElementsByTagName("text");
+	for (int i = 0; i < texts.getLength(); i++)
+	    svgTexts.add(texts.item(i).getTextContent().trim());
+
+	if (nodeGroups != nodes)
+	    differences.add(name + ": " + nodeGroups + " node groups for " + nodes + " nodes");
+	if (edgeGroups != edges)
+	    differences.add(name + ": " + edgeGroups + " edge groups for " + edges + " edges");
+	for (String url : urls)
+	    if (!svgUrls.contains(url))
+		differences.add(name + ": URL " + url + " is missing");
+	for (String label : labels)
+	    if (!svgTexts.contains(label))
+		differences.add(name + ": edge label \"" + label + "\" is missing");
+    }
+
+    /**
+     * Runs UmlGraphDoc with the dotlargenodes option and without the
+     * builtinlayout one, hiding all classes so that the diagrams are empty,
+     * and with a dot executable that does not exist: as the built-in layout
+     * must not be used, no SVG file should be written.
+     */
+    private static void checkDisabled(List<String> differences) {
+	File outFolder = new File(testDestFolder);
+	if (!outFolder.exists())
+	    outFolder.mkdirs();
+	TestUtils.cleanFolder(outFolder, true);
+
+	String[] options = new String[] { "-docletpath", "build", "-private", "-d",
+		outFolder.getAbsolutePath(), "-sourcepath", testSourceFolder,
+		"-subpackages", "gr.spinellis", "-hide", ".*", "-dotlargenodes", "50",
+		"-dotexecutable", new File(outFolder, "no-dot").getAbsolutePath(), "-Xdoclint:none" };
+	pw.println("Rendering " + testSourceFolder + " without the built-in layout");
+	pw.flush();
+	com.sun.tools.javadoc.Main.execute("UMLDoc test", pw, pw, pw,
+		"org.umlgraph.doclet.UmlGraphDoc", options);
+
+	List<File> dotFiles = new ArrayList<File>(), svgFiles = new ArrayList<File>();
+	list(outFolder, dotFiles, svgFiles);
+	if (dotFiles.isEmpty())
+	    differences.add(testDestFolder + ": no diagrams were written");
+	for (File f : svgFiles)
+	    differences.add(f.getPath() + " was rendered with the built-in layout, which is disabled");
+    }
+
+    /** Adds the dot and SVG files of a folder and its subfolders to the lists */
+    private static void list(File folder, List<File> dotFiles, List<File> svgFiles) {
+	for (File f : folder.listFiles()) {
+	    if (f.isDirectory())
+		list(f, dotFiles, svgFiles);
+	    else if (f.getName().endsWith(".dot"))
+		dotFiles.add(f);
+	    else if (f.getName().endsWith(".svg"))
+		svgFiles.add(f);
+	}
+    }
+
+    private static String read(File f) throws IOException {
+	BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+	try {
+	    StringBuilder sb = new StringBuilder();
+	    String line;
+	    while ((line = in.readLine()) != null)
+		sb.append(line).append('\n');
+	    return sb.toString();
+	} finally {
+	    in.close();
+	}
+    }
+}
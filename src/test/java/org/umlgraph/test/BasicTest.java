@@ -22,12 +22,18 @@ package org.umlgraph.test;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import org.umlgraph.doclet.DotDiff;
+
 /**
- * UmlGraph regression tests
+ * UmlGraph regression tests.
+ * The test of each source file, and that of the views, run concurrently,
+ * each one writing its own dot files.
  * @author wolf
  * 
  */
@@ -42,7 +48,7 @@ public class BasicTest {
     static PrintWriter pw = new PrintWriter(System.out);
 
     public static void main(String[] args) throws IOException {
-	List<String> differences = new ArrayList<String>();
+	List<String> differences = Collections.synchronizedList(new ArrayList<String>());
 
 	File outFolder = new File(testDestFolder);
 	if (!outFolder.exists())
@@ -51,8 +57,11 @@ public class BasicTest {
 	TestUtils.cleanFolder(outFolder, true);
 
 	// run tests
-	performBasicTests(differences);
-	performViewTests(differences, outFolder);
+	List<RegressionCase> cases = new ArrayList<RegressionCase>();
+	addBasicTests(cases);
+	addViewTests(cases, outFolder);
+	addHashTests(cases);
+	RegressionCase.runAll(cases, pw, differences);
 	if (differences.size() > 0) {
 	    pw.println("ERROR, some files are not structurally equal or some files are missing:");
 	    for (String className : differences) {
@@ -67,12 +76,56 @@ public class BasicTest {
 	System.exit(differences.size() > 0 ? 1 : 0);
     }
 
-    private static void performViewTests(List<String> differences, File outFolder)
+    private static void addViewTests(List<RegressionCase> cases, final File outFolder) {
+	cases.add(new RegressionCase("views") {
+	    void run(PrintWriter pw, List<String> differences) throws IOException {
+		performViewTests(pw, differences, outFolder);
+	    }
+	});
+    }
+
+    private static void addHashTests(List<RegressionCase> cases) {
+	cases.add(new RegressionCase("hash") {
+	    void run(PrintWriter pw, List<String> differences) throws IOException {
+		performHashTests(pw, differences);
+	    }
+	});
+    }
+
+    /**
+     * Makes sure the hash of a reference graph, which decides whether a
+     * diagram is rendered again with the reusediagrams option, changes when
+     * an attribute, a label or an edge of the graph changes
+     */
+    private static void performHashTests(PrintWriter pw, List<String> differences)
+	    throws IOException {
+	File refFile = new File(testRefFolder, "assoc.dot");
+	String ref = TestUtils.readText(refFile);
+	long refHash = DotDiff.hash(new StringReader(ref));
+	String[][] changes = new String[][] {
+	    { "an attribute", "arrowhead=open", "arrowhead=none" },
+	    { "a node label", "> Password </td>", "> Passphrase </td>" },
+	    { "an edge label", "+key\"", "+lock\"" },
+	    { "the direction of an edge", "c13 -> c14", "c14 -> c13" },
+	    { "the head of an edge", "c12 -> c13", "c12 -> c14" },
+	};
+	for (String[] change : changes) {
+	    pw.println("Changing " + change[0] + " of " + refFile + ": " + change[1] + " to " + change[2]);
+	    if (!ref.contains(change[1])) {
+		differences.add(refFile.getName() + " does not contain " + change[1]);
+	    } else if (DotDiff.hash(new StringReader(ref.replace(change[1], change[2]))) == refHash) {
+		pw.println("Error, the hash has not changed");
+		differences.add("Changing " + change[0] + " of " + refFile.getName() + " keeps its hash");
+	    }
+	}
+    }
+
+    private static void performViewTests(PrintWriter pw, List<String> differences, File outFolder)
 	    throws IOException {
 	String[] options = new String[] { "-docletpath", "build", "-private", "-d",
 		outFolder.getAbsolutePath(), "-sourcepath", "testdata/java", "-compact",
 		"-subpackages", "gr.spinellis", "-views" };
-	runDoclet(options);
+	runDoclet(pw, options);
 
 	List<String> viewFiles = new ArrayList<String>();
 	viewFiles.addAll(getViewList(new File(testSourceFolder, "gr/spinellis/basic/views")));
@@ -90,7 +143,7 @@ public class BasicTest {
 		    differences.add(dotFile.getName() + " should not be there");
 		}
 	    } else {
-		compare(differences, dotFile, refFile);
+		compare(pw, differences, dotFile, refFile);
 	    }
 	}
     }
@@ -108,31 +161,39 @@ public class BasicTest {
 	return Arrays.asList(viewFolder.list(new SimpleFileFilter(".java")));
     }
 
-    private static boolean performBasicTests(List<String> differences) throws IOException {
+    private static void addBasicTests(List<RegressionCase> cases) {
 	String[] javaFiles = new File(testSourceFolder).list(new SimpleFileFilter(".java"));
-	boolean equal = true;
-	for (int i = 0; i < javaFiles.length; i++) {
-	    String javaFileName = javaFiles[i].substring(0, javaFiles[i].length() - 5);
-	    String outFileName = javaFileName + ".dot";
-	    File dotFile = new File(testDestFolder, outFileName);
-	    dotFile.delete();
-	    File refFile = new File(testRefFolder, outFileName);
-	    String javaPath = new File(testSourceFolder, javaFiles[i]).getAbsolutePath();
-	    String[] options = new String[] { "-docletpath", "build", "-hide", "Hidden",
-		    "-compact", "-private", "-d", testDestFolder, "-output", outFileName, javaPath };
-
-	    runDoclet(options);
-	    compare(differences, dotFile, refFile);
+	Arrays.sort(javaFiles);
+	for (final String javaFile : javaFiles) {
+	    cases.add(new RegressionCase(javaFile) {
+		void run(PrintWriter pw, List<String> differences) throws IOException {
+		    performBasicTest(pw, differences, javaFile);
+		}
+	    });
 	}
-	return equal;
     }
 
-    private static void runDoclet(String[] options) {
+    private static void performBasicTest(PrintWriter pw, List<String> differences, String javaFile)
+	    throws IOException {
+	String javaFileName = javaFile.substring(0, javaFile.length() - 5);
+	String outFileName = javaFileName + ".dot";
+	File dotFile = new File(testDestFolder, outFileName);
+	dotFile.delete();
+	File refFile = new File(testRefFolder, outFileName);
+	String javaPath = new File(testSourceFolder, javaFile).getAbsolutePath();
+	String[] options = new String[] { "-docletpath", "build", "-hide", "Hidden",
+		"-compact", "-private", "-d", testDestFolder, "-output", outFileName, javaPath };
+
+	runDoclet(pw, options);
+	compare(pw, differences, dotFile, refFile);
+    }
+
+    private static void runDoclet(PrintWriter pw, String[] options) {
 	com.sun.tools.javadoc.Main.execute("UMLGraph test", pw, pw, pw,
 		"org.umlgraph.doclet.UmlGraph", options);
     }
 
-    private static void compare(List<String> differences, File dotFile, File refFile)
+    private static void compare(PrintWriter pw, List<String> differences, File dotFile, File refFile)
 	    throws IOException {
 	if (!dotFile.exists()) {
 	    pw.println("Error, output file " + dotFile + " has not been generated");
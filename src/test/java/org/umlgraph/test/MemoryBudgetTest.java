@@ -0,0 +1,298 @@
+/*
+ * UmlGraph class diagram testing framework
+ *
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Memory budget regression tests.
+ * <p>
+ * Runs the doclets on representative inputs, measuring the bytes allocated
+ * during each run and the heap still retained once it is over, and fails
+ * if either exceeds the budget of the scenario, stored in
+ * <code>testdata/memory-budgets.properties</code> (in MB).
+ * <p>
+ * The allocated bytes are those counted by the ThreadMXBean for the threads
+ * of the run, including the UmlGraphDoc workers; as these are only seen
+ * while they are alive, their allocations are sampled during the run, so
+ * that those of their last milliseconds may be missed. The retained heap is
+ * the growth of the used heap across the run, after a full collection.
+ * Each scenario is run once before being measured, so that the one-time
+ * initializations of javadoc and the doclets are not counted. Note that
+ * the JDK 8 standard doclet keeps part of the model of each run, which the
+ * retained heap budgets of the UmlGraphDoc scenarios allow for.
+ * <p>
+ * With the <code>budget.update</code> system property set, the budgets
+ * are rewritten with the measurements plus the headroom, instead of being
+ * checked; do this, and review the result, after an intended change.
+ */
+public class MemoryBudgetTest {
+
+    static final String budgetFile = "testdata/memory-budgets.properties";
+
+    static final String testSourceFolder = "testdata/memory-src";
+
+    static final String testDestFolder = "testdata/memory-out";
+
+    static PrintWriter pw = new PrintWriter(System.out);
+
+    /** The headroom of the budgets written by budget.update */
+    static final double HEADROOM = 1.5;
+
+    /** The smallest retained heap budget, as collections leave some noise, in MB */
+    static final int MIN_RETAINED = 4;
+
+    static final double MB = 1024 * 1024;
+
+    /** A doclet run whose memory use is checked */
+    private static class Scenario {
+	final String name, doclet;
+	final String[] options;
+	double allocated, retained;
+
+	Scenario(String name, String doclet, String... options) {
+	    this.name = name;
+	    this.doclet = doclet;
+	    this.options = options;
+	}
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	com.sun.management.ThreadMXBean threads;
+	try {
+	    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	} catch (ClassCastException e) {
+	    threads = null;
+	}
+	if (threads == null || !threads.isThreadAllocatedMemorySupported()) {
+	    pw.println("SKIPPED, the JVM does not measure the memory allocated by threads");
+	    pw.flush();
+	    return;
+	}
+	threads.setThreadAllocatedMemoryEnabled(true);
+
+	File outFolder = new File(testDestFolder);
+	if (outFolder.exists())
+	    TestUtils.cleanFolder(outFolder, true);
+	File srcFolder = new File(testSourceFolder);
+	if (srcFolder.exists())
+	    TestUtils.cleanFolder(srcFolder, true);
+	new SourceGenerator(8, 20, 3, 4, 0.3, 4).generate(srcFolder);
+
+	List<Scenario> scenarios = scenarios(outFolder, srcFolder);
+	List<String> differences = new ArrayList<String>();
+	for (Scenario s : scenarios) {
+	    // the first run pays for the initializations
+	    run(s, differences);
+	    measure(threads, s, differences);
+	}
+
+	Properties budgets = new Properties();
+	if (new File(budgetFile).exists()) {
+	    InputStream is = new FileInputStream(budgetFile);
+	    try {
+		budgets.load(is);
+	    } finally {
+		is.close();
+	    }
+	}
+	pw.println();
+	pw.println("Scenario          allocated MB  budget   retained MB  budget");
+	for (Scenario s : scenarios) {
+	    int allocatedBudget = budget(budgets, s.name + ".allocated");
+	    int retainedBudget = budget(budgets, s.name + ".retained");
+	    pw.println(String.format(Locale.ROOT, "%-16s %13.1f %7d %13.1f %7d", s.name,
+		s.allocated / MB, allocatedBudget, s.retained / MB, retainedBudget));
+	    if (Boolean.getBoolean("budget.update"))
+		continue;
+	    if (allocatedBudget < 0 || retainedBudget < 0)
+		differences.add(s.name + " has no budget in " + budgetFile);
+	    if (allocatedBudget >= 0 && s.allocated > allocatedBudget * MB)
+		differences.add(String.format(Locale.ROOT, "%s allocated %.1f MB, over its budget of %d MB",
+		    s.name, s.allocated / MB, allocatedBudget));
+	    if (retainedBudget >= 0 && s.retained > retainedBudget * MB)
+		differences.add(String.format(Locale.ROOT, "%s retained %.1f MB, over its budget of %d MB",
+		    s.name, s.retained / MB, retainedBudget));
+	}
+	if (Boolean.getBoolean("budget.update")) {
+	    writeBudgets(scenarios);
+	    pw.println("Wrote the new budgets to " + budgetFile);
+	}
+
+	if (differences.size() > 0) {
+	    pw.println("ERROR, some runs failed or exceed their memory budget:");
+	    for (String difference : differences) {
+		pw.println(difference);
+	    }
+	} else {
+	    pw.println("GOOD, all runs are within their memory budget");
+	}
+	pw.println();
+	pw.println();
+	pw.flush();
+	System.exit(differences.size() > 0 ? 1 : 0);
+    }
+
+    /** The scenarios measured: class, view and javadoc diagrams, of small and larger trees */
+    private static List<Scenario> scenarios(File outFolder, File srcFolder) {
+	List<Scenario> scenarios = new ArrayList<Scenario>();
+	String umlGraph = "org.umlgraph.doclet.UmlGraph", umlGraphDoc = "org.umlgraph.doclet.UmlGraphDoc";
+	scenarios.add(new Scenario("schema", umlGraph, "-docletpath", "build", "-hide", "Hidden",
+	    "-compact", "-private", "-d", outFolder.getPath(), "-output", "schema.dot",
+	    "testdata/java/schema.java"));
+	scenarios.add(new Scenario("views", umlGraph, "-docletpath", "build", "-private", "-d",
+	    new File(outFolder, "views").getPath(), "-sourcepath", "testdata/java", "-compact",
+	    "-subpackages", "gr.spinellis", "-views"));
+	scenarios.add(new Scenario("umldoc", umlGraphDoc, "-docletpath", "build", "-private", "-d",
+	    new File(outFolder, "umldoc").getPath(), "-sourcepath", "testdata/umldoc-src",
+	    "-subpackages", "gr.spinellis", "-builtinlayout", "1000000", "-Xdoclint:none"));
+	scenarios.add(new Scenario("generated", umlGraph, "-docletpath", "build", "-private", "-d",
+	    new File(outFolder, "generated").getPath(), "-sourcepath", srcFolder.getPath(),
+	    "-subpackages", "scale", "-views", "-inferrel", "-inferdep", "-collpackages", "java.util.*"));
+	scenarios.add(new Scenario("generated-doc", umlGraphDoc, "-docletpath", "build", "-private", "-d",
+	    new File(outFolder, "generated-doc").getPath(), "-sourcepath", srcFolder.getPath(),
+	    "-subpackages", "scale", "-inferrel", "-inferdep", "-collpackages", "java.util.*",
+	    "-builtinlayout", "1000000", "-Xdoclint:none"));
+	return scenarios;
+    }
+
+    /** Runs the scenario, silencing the doclet warnings and notices */
+    private static void run(Scenario s, List<String> differences) {
+	PrintWriter quiet = new PrintWriter(new Writer() {
+	    public void write(char[] cbuf, int off, int len) {}
+
+	    public void flush() {}
+
+	    public void close() {}
+	});
+	int result = com.sun.tools.javadoc.Main.execute("UMLGraph memory test", pw, quiet, quiet,
+		s.doclet, s.options);
+	if (result != 0 && !differences.contains(s.name + " failed"))
+	    differences.add(s.name + " failed");
+    }
+
+    /** Runs the scenario, recording the bytes its threads allocate and the heap it retains */
+    private static void measure(final com.sun.management.ThreadMXBean threads, Scenario s,
+	    List<String> differences) throws InterruptedException {
+	long heapBefore = usedHeap();
+	final Map<Long, Long> before = allocations(threads, -1);
+	final Map<Long, Long> last = new HashMap<Long, Long>(before);
+	final boolean[] done = new boolean[1];
+	Thread sampler = new Thread("Allocation sampler") {
+	    public void run() {
+		long self = Thread.currentThread().getId();
+		for (;;) {
+		    Map<Long, Long> now = allocations(threads, self);
+		    synchronized (last) {
+			last.putAll(now);
+			if (done[0])
+			    return;
+		    }
+		    try {
+			Thread.sleep(2);
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		}
+	    }
+	};
+	sampler.setDaemon(true);
+	sampler.start();
+	run(s, differences);
+	Map<Long, Long> after = allocations(threads, sampler.getId());
+	synchronized (last) {
+	    done[0] = true;
+	    last.putAll(after);
+	}
+	sampler.join();
+
+	long allocated = 0;
+	for (Map.Entry<Long, Long> e : last.entrySet()) {
+	    Long start = before.get(e.getKey());
+	    allocated += e.getValue() - (start == null ? 0 : start);
+	}
+	s.allocated = allocated;
+	s.retained = Math.max(usedHeap() - heapBefore, 0);
+    }
+
+    /** Return the bytes allocated so far by each live thread, but the excluded one */
+    private static Map<Long, Long> allocations(com.sun.management.ThreadMXBean threads, long exclude) {
+	long[] ids = threads.getAllThreadIds();
+	long[] bytes = threads.getThreadAllocatedBytes(ids);
+	Map<Long, Long> m = new HashMap<Long, Long>();
+	for (int i = 0; i < ids.length; i++)
+	    if (ids[i] != exclude && bytes[i] >= 0)
+		m.put(ids[i], bytes[i]);
+	return m;
+    }
+
+    /** Return the heap used once the garbage is collected */
+    private static long usedHeap() throws InterruptedException {
+	// finalization may release more objects, collected by the second run
+	for (int i = 0; i < 2; i++) {
+	    System.gc();
+	    System.runFinalization();
+	    Thread.sleep(50);
+	}
+	return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /** Return the budget in MB of the key, or -1 if it has none */
+    private static int budget(Properties budgets, String key) {
+	String value = budgets.getProperty(key);
+	if (value == null)
+	    return -1;
+	try {
+	    return Integer.parseInt(value.trim());
+	} catch (NumberFormatException e) {
+	    pw.println("Invalid budget " + key + "=" + value);
+	    return -1;
+	}
+    }
+
+    /** Writes the measurements plus the headroom as the new budgets */
+    private static void writeBudgets(List<Scenario> scenarios) throws IOException {
+	PrintWriter w = new PrintWriter(new FileWriter(budgetFile));
+	try {
+	    w.println("# Memory budgets of the MemoryBudgetTest scenarios, in MB: the bytes");
+	    w.println("# allocated by each run, and the heap retained once it is over.");
+	    w.println("# Written by running the test with -Dbudget.update=true");
+	    for (Scenario s : scenarios) {
+		w.println(s.name + ".allocated=" + (int) Math.ceil(s.allocated * HEADROOM / MB));
+		w.println(s.name + ".retained="
+		    + Math.max((int) Math.ceil(s.retained * HEADROOM / MB), MIN_RETAINED));
+	    }
+	} finally {
+	    w.close();
+	}
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * UmlGraph class diagram testing framework
+ *
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A regression test case, run concurrently with the other cases of a
+ * test. Each case writes its own output files, and its messages are kept
+ * apart and printed once it is done, followed by the time it took.
+ * <p>
+ * The number of cases run at once is set by the <code>test.threads</code>
+ * system property, and defaults to the number of processors.
+ */
+public abstract class RegressionCase {
+    final String name;
+    long millis;
+
+    public RegressionCase(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Runs the case, printing its messages to the specified writer, and
+     * adding the differences found to the specified synchronized list
+     */
+    abstract void run(PrintWriter pw, List<String> differences) throws IOException;
+
+    /** Runs the specified cases, and prints their messages and times to pw */
+    public static void runAll(List<RegressionCase> cases, final PrintWriter pw,
+	    final List<String> differences) {
+	int threads = Math.max(Integer.getInteger("test.threads",
+	    Runtime.getRuntime().availableProcessors()), 1);
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	List<Future<?>> futures = new ArrayList<Future<?>>();
+	long start = System.nanoTime();
+	for (final RegressionCase c : cases) {
+	    futures.add(executor.submit(new Runnable() {
+		public void run() {
+		    StringWriter messages = new StringWriter();
+		    PrintWriter cpw = new PrintWriter(messages);
+		    long caseStart = System.nanoTime();
+		    try {
+			c.run(cpw, differences);
+		    } catch (Exception e) {
+			e.printStackTrace(cpw);
+			differences.add(c.name + " failed with " + e);
+		    }
+		    c.millis = (System.nanoTime() - caseStart) / 1000000;
+		    cpw.println("Case " + c.name + " took " + c.millis + " ms");
+		    cpw.flush();
+		    synchronized (pw) {
+			pw.print(messages);
+			pw.flush();
+		    }
+		}
+	    }));
+	}
+	executor.shutdown();
+	for (Future<?> f : futures) {
+	    try {
+		f.get();
+	    } catch (Exception e) {
+		differences.add("Interrupted while running the cases: " + e);
+	    }
+	}
+	long total = (System.nanoTime() - start) / 1000000;
+
+	// slowest cases first
+	List<RegressionCase> sorted = new ArrayList<RegressionCase>(cases);
+	Collections.sort(sorted, new Comparator<RegressionCase>() {
+	    public int compare(RegressionCase a, RegressionCase b) {
+		return a.millis < b.millis ? 1 : a.millis > b.millis ? -1 : 0;
+	    }
+	});
+	long sum = 0;
+	pw.println();
+	pw.println("Case timings:");
+	for (RegressionCase c : sorted) {
+	    pw.println(String.format("%8d ms  %s", c.millis, c.name));
+	    sum += c.millis;
+	}
+	pw.println(String.format("%8d ms  in total, %d ms for the %d cases on %d threads", total, sum,
+	    cases.size(), threads));
+	pw.println();
+	pw.flush();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * UmlGraph class diagram testing framework
+ *
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * UmlGraph and UmlGraphDoc scalability tests.
+ * <p>
+ * Runs both doclets on synthetic source trees of increasing size (see
+ * {@link SourceGenerator}), recording the time and the peak heap usage of
+ * each run, and fails if either grows faster than the configured power
+ * of the number of classes. The growth is the slope of the least squares
+ * fit of the logarithms of the measurements against those of the sizes,
+ * so that 1 means linear growth and 2 quadratic growth.
+ * <p>
+ * The test is configured through the following system properties:
+ * <dl>
+ * <dt>scale.sizes</dt><dd>the numbers of packages of the trees (2,4,8,16)</dd>
+ * <dt>scale.classes</dt><dd>the number of classes of each package (20)</dd>
+ * <dt>scale.timebound</dt><dd>the largest growth allowed for the time (1.5)</dd>
+ * <dt>scale.heapbound</dt><dd>the largest growth allowed for the peak heap (1.5)</dd>
+ * </dl>
+ * The peak heap is the sum of the peaks of the heap memory pools, which
+ * overestimates the actual peak, and includes the space of the garbage
+ * not yet collected. UmlGraphDoc lays out all diagrams with its built-in
+ * engine, so that the measurements do not depend on Graphviz.
+ */
+public class ScalabilityTest {
+
+    static final String testSourceFolder = "testdata/scale-src";
+
+    static final String testDestFolder = "testdata/scale-out";
+
+    static PrintWriter pw = new PrintWriter(System.out);
+
+    /** The depth, fan-out, generic density and views of the generated trees */
+    static final int DEPTH = 3, FAN_OUT = 4, VIEWS = 4;
+    static final double GENERICS = 0.3;
+
+    public static void main(String[] args) throws IOException {
+	String[] sizeList = System.getProperty("scale.sizes", "2,4,8,16").split(",");
+	int[] sizes = new int[sizeList.length];
+	for (int i = 0; i < sizes.length; i++)
+	    sizes[i] = Integer.parseInt(sizeList[i].trim());
+	int classes = Integer.getInteger("scale.classes", 20);
+	double timeBound = Double.parseDouble(System.getProperty("scale.timebound", "1.5"));
+	double heapBound = Double.parseDouble(System.getProperty("scale.heapbound", "1.5"));
+
+	File srcFolder = new File(testSourceFolder);
+	File outFolder = new File(testDestFolder);
+	List<String> differences = new ArrayList<String>();
+
+	// generate the trees
+	File[] trees = new File[sizes.length];
+	double[] classCounts = new double[sizes.length];
+	for (int i = 0; i < sizes.length; i++) {
+	    SourceGenerator g = new SourceGenerator(sizes[i], classes, DEPTH, FAN_OUT, GENERICS, VIEWS);
+	    trees[i] = new File(srcFolder, "s" + sizes[i]);
+	    if (trees[i].exists())
+		TestUtils.cleanFolder(trees[i], true);
+	    g.generate(trees[i]);
+	    classCounts[i] = g.classCount();
+	}
+	if (outFolder.exists())
+	    TestUtils.cleanFolder(outFolder, true);
+
+	// warm up the JVM on the smallest tree, so that it does not slow down the first run
+	runUmlGraph(trees[0], new File(outFolder, "warmup"), differences);
+	runUmlGraphDoc(trees[0], new File(outFolder, "warmup-doc"), differences);
+
+	double[][] umlGraph = new double[2][sizes.length], umlGraphDoc = new double[2][sizes.length];
+	for (int i = 0; i < sizes.length; i++) {
+	    File out = new File(outFolder, "s" + sizes[i]);
+	    Measurement m = runUmlGraph(trees[i], out, differences);
+	    umlGraph[0][i] = m.millis;
+	    umlGraph[1][i] = m.peakHeap;
+	    m = runUmlGraphDoc(trees[i], new File(out, "doc"), differences);
+	    umlGraphDoc[0][i] = m.millis;
+	    umlGraphDoc[1][i] = m.peakHeap;
+	}
+
+	pw.println();
+	pw.println("Classes   UmlGraph ms  heap MB   UmlGraphDoc ms  heap MB");
+	for (int i = 0; i < sizes.length; i++)
+	    pw.println(String.format(Locale.ROOT, "%7d %12.0f %8.1f %16.0f %8.1f", (int) classCounts[i],
+		umlGraph[0][i], umlGraph[1][i] / 1e6, umlGraphDoc[0][i], umlGraphDoc[1][i] / 1e6));
+	checkGrowth(differences, "UmlGraph time", classCounts, umlGraph[0], timeBound);
+	checkGrowth(differences, "UmlGraph peak heap", classCounts, umlGraph[1], heapBound);
+	checkGrowth(differences, "UmlGraphDoc time", classCounts, umlGraphDoc[0], timeBound);
+	checkGrowth(differences, "UmlGraphDoc peak heap", classCounts, umlGraphDoc[1], heapBound);
+
+	if (differences.size() > 0) {
+	    pw.println("ERROR, some runs failed or grow too fast:");
+	    for (String difference : differences) {
+		pw.println(difference);
+	    }
+	} else {
+	    pw.println("GOOD, all runs scale within the bounds");
+	}
+	pw.println();
+	pw.println();
+	pw.flush();
+	System.exit(differences.size() > 0 ? 1 : 0);
+    }
+
+    /** The time and peak heap of a doclet run */
+    private static class Measurement {
+	double millis, peakHeap;
+    }
+
+    private static Measurement runUmlGraph(File tree, File out, List<String> differences) {
+	return runDoclet("org.umlgraph.doclet.UmlGraph", tree, differences, "-docletpath", "build",
+	    "-private", "-d", out.getPath(), "-sourcepath", tree.getPath(), "-subpackages", "scale",
+	    "-views", "-inferrel", "-inferdep", "-collpackages", "java.util.*");
+    }
+
+    private static Measurement runUmlGraphDoc(File tree, File out, List<String> differences) {
+	return runDoclet("org.umlgraph.doclet.UmlGraphDoc", tree, differences, "-docletpath", "build",
+	    "-private", "-d", out.getPath(), "-sourcepath", tree.getPath(), "-subpackages", "scale",
+	    "-inferrel", "-inferdep", "-collpackages", "java.util.*", "-builtinlayout", "1000000",
+	    "-Xdoclint:none");
+    }
+
+    /** Runs the doclet on the tree, silencing its warnings and notices, and returns its measurements */
+    private static Measurement runDoclet(String doclet, File tree, List<String> differences,
+	    String... options) {
+	List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getType() == MemoryType.HEAP)
+		pools.add(pool);
+	System.gc();
+	for (MemoryPoolMXBean pool : pools)
+	    pool.resetPeakUsage();
+
+	long start = System.nanoTime();
+	PrintWriter quiet = new PrintWriter(new Writer() {
+	    public void write(char[] cbuf, int off, int len) {}
+
+	    public void flush() {}
+
+	    public void close() {}
+	});
+	int result = com.sun.tools.javadoc.Main.execute("UMLGraph scalability test", pw, quiet, quiet,
+		doclet, options);
+	Measurement m = new Measurement();
+	m.millis = (System.nanoTime() - start) / 1e6;
+	for (MemoryPoolMXBean pool : pools)
+	    m.peakHeap += pool.getPeakUsage().getUsed();
+	if (result != 0)
+	    differences.add(doclet + " failed on " + tree);
+	return m;
+    }
+
+    /**
+     * Checks that the growth of the measurements with the size does not
+     * exceed the specified power
+     */
+    private static void checkGrowth(List<String> differences, String name, double[] sizes,
+	    double[] values, double bound) {
+	if (sizes.length < 2)
+	    return;
+	double growth = growth(sizes, values);
+	String result = String.format(Locale.ROOT, "%s grows as n^%.2f (bound %.2f)", name, growth, bound);
+	pw.println(result);
+	if (growth > bound)
+	    differences.add(result);
+    }
+
+    /** Return the slope of the least squares fit of log(values) to log(sizes) */
+    static double growth(double[] sizes, double[] values) {
+	int n = sizes.length;
+	double sx = 0, sy = 0, sxx = 0, sxy = 0;
+	for (int i = 0; i < n; i++) {
+	    double x = Math.log(sizes[i]), y = Math.log(Math.max(values[i], 1));
+	    sx += x;
+	    sy += y;
+	    sxx += x * x;
+	    sxy += x * y;
+	}
+	return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * UmlGraph class diagram testing framework
+ *
+ * (C) Copyright 2005 Diomidis Spinellis
+ *
+ * Permission to use, copy, and distribute this software and its
+ * documentation for any purpose and without fee is hereby granted,
+ * provided that the above copyright notice appear in all copies and that
+ * both that copyright notice and this permission notice appear in
+ * supporting documentation.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF
+ * MERCHANTIBILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *
+ */
+
+package org.umlgraph.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Generates a synthetic source tree, to run the doclets on code bases of
+ * any size.
+ * <p>
+ * The tree has the specified number of packages (<code>scale.p0</code>,
+ * <code>scale.p1</code>, ...), each holding an interface and the specified
+ * number of classes. The classes of a package form inheritance chains of
+ * the specified depth, and every class refers to the specified number of
+ * classes of other packages: through fields (generic collections with the
+ * specified probability), method parameters, and @assoc, @navassoc,
+ * @depend and @has tags, some classes also having @opt and @stereotype
+ * tags. The <code>scale.views</code> package holds the specified number of
+ * view classes, each one focusing on a package. The same parameters always
+ * generate the same tree.
+ * <p>
+ * Usage: SourceGenerator dir packages classes depth fanout generics views
+ */
+public class SourceGenerator {
+    final int packages, classes, depth, fanOut, views;
+    final double genericDensity;
+
+    /**
+     * @param packages the number of packages
+     * @param classes the number of classes in each package
+     * @param depth the length of the inheritance chains
+     * @param fanOut the number of classes each class refers to
+     * @param genericDensity the probability of a reference being a generic collection
+     * @param views the number of views
+     */
+    public SourceGenerator(int packages, int classes, int depth, int fanOut,
+	    double genericDensity, int views) {
+	this.packages = packages;
+	this.classes = classes;
+	this.depth = Math.max(depth, 1);
+	this.fanOut = fanOut;
+	this.genericDensity = genericDensity;
+	this.views = views;
+    }
+
+    public static void main(String[] args) throws IOException {
+	if (args.length != 7) {
+	    System.err.println("Usage: SourceGenerator dir packages classes depth fanout generics views");
+	    System.exit(1);
+	}
+	SourceGenerator g = new SourceGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+		Integer.parseInt(args[3]), Integer.parseInt(args[4]), Double.parseDouble(args[5]),
+		Integer.parseInt(args[6]));
+	File dir = new File(args[0]);
+	g.generate(dir);
+	System.out.println("Generated " + g.classCount() + " classes in " + dir);
+    }
+
+    /** Return the number of classes and interfaces generated, without the views */
+    public int classCount() {
+	return packages * (classes + 1);
+    }
+
+    /** Generates the source tree under the specified folder */
+    public void generate(File dir) throws IOException {
+	Random random = new Random(42);
+	for (int p = 0; p < packages; p++) {
+	    File packageDir = new File(dir, "scale/p" + p);
+	    packageDir.mkdirs();
+	    writeInterface(packageDir, p);
+	    for (int c = 0; c < classes; c++)
+		writeClass(packageDir, p, c, random);
+	}
+	if (views > 0) {
+	    File viewDir = new File(dir, "scale/views");
+	    viewDir.mkdirs();
+	    for (int v = 0; v < views; v++)
+		writeView(viewDir, v);
+	}
+    }
+
+    private static String className(int p, int c) {
+	return "C" + p + "_" + c;
+    }
+
+    private static String qualifiedName(int p, int c) {
+	return "scale.p" + p + "." + className(p, c);
+    }
+
+    private void writeInterface(File packageDir, int p) throws IOException {
+	PrintWriter w = new PrintWriter(new FileWriter(new File(packageDir, "Service" + p + ".java")));
+	try {
+	    w.println("package scale.p" + p + ";");
+	    w.println();
+	    w.println("/** The service of package " + p + " */");
+	    w.println("public interface Service" + p + "<T> {");
+	    w.println("    T serve(T request);");
+	    w.println("    int load();");
+	    w.println("}");
+	} finally {
+	    w.close();
+	}
+    }
+
+    private void writeClass(File packageDir, int p, int c, Random random) throws IOException {
+	String name = className(p, c);
+	// the classes referred to, in other packages when there are any
+	String[] targets = new String[fanOut];
+	for (int i = 0; i < fanOut; i++) {
+	    int tp = packages > 1 ? (p + 1 + random.nextInt(packages - 1)) % packages : p;
+	    targets[i] = qualifiedName(tp, random.nextInt(classes));
+	}
+
+	PrintWriter w = new PrintWriter(new FileWriter(new File(packageDir, name + ".java")));
+	try {
+	    w.println("package scale.p" + p + ";");
+	    w.println();
+	    w.println("import java.util.List;");
+	    w.println("import java.util.Map;");
+	    w.println();
+	    w.println("/**");
+	    w.println(" * Class " + c + " of package " + p);
+	    for (int i = 0; i < fanOut; i++) {
+		switch (i % 4) {
+		case 0: w.println(" * @assoc 1 uses * " + targets[i]); break;
+		case 1: w.println(" * @navassoc - - - " + targets[i]); break;
+		case 2: w.println(" * @depend - - - " + targets[i]); break;
+		default: w.println(" * @has 1 - 1 " + targets[i]); break;
+		}
+	    }
+	    if (c % 5 == 0)
+		w.println(" * @stereotype entity");
+	    if (c % 7 == 0)
+		w.println(" * @opt nodefillcolor LightGray");
+	    w.println(" */");
+	    String superclass = c % depth == 0 ? "" : " extends " + className(p, c - 1);
+	    String iface = c % depth == 0 ? " implements Service" + p + "<String>" : "";
+	    w.println("public class " + name + superclass + iface + " {");
+	    for (int i = 0; i < fanOut; i++) {
+		if (random.nextDouble() < genericDensity)
+		    w.println("    private " + (i % 2 == 0 ? "List<" + targets[i] + ">"
+			: "Map<String, " + targets[i] + ">") + " field" + i + ";");
+		else
+		    w.println("    protected " + targets[i] + " field" + i + ";");
+	    }
+	    w.println("    private int count;");
+	    w.println();
+	    w.println("    public " + name + "() {}");
+	    for (int i = 0; i < fanOut; i++)
+		w.println("    public int method" + i + "(" + targets[(i + 1) % fanOut] + " arg) { return count; }");
+	    if (c % depth == 0) {
+		w.println("    public String serve(String request) { return request; }");
+		w.println("    public int load() { return count; }");
+	    }
+	    w.println("}");
+	} finally {
+	    w.close();
+	}
+    }
+
+    private void writeView(File viewDir, int v) throws IOException {
+	int p = v % packages;
+	PrintWriter w = new PrintWriter(new FileWriter(new File(viewDir, "View" + v + ".java")));
+	try {
+	    w.println("package scale.views;");
+	    w.println();
+	    w.println("/**");
+	    w.println(" * @view");
+	    w.println(" * @opt hide");
+	    if (v % 2 == 0) {
+		w.println(" * @match class scale.p" + p + ".*");
+		w.println(" * @opt !hide");
+		w.println(" * @opt attributes");
+		w.println(" * @opt operations");
+	    } else {
+		w.println(" * @match context scale.p" + p + "." + className(p, 0));
+		w.println(" * @opt !hide");
+		w.println(" * @opt nodefillcolor LemonChiffon");
+	    }
+	    w.println(" */");
+	    w.println("public class View" + v + " {}");
+	} finally {
+	    w.close();
+	}
+    }
+}
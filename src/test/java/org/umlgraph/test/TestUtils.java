@@ -21,11 +21,17 @@ package org.umlgraph.test;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.umlgraph.doclet.DotDiff;
+
 /**
  * Collection of utility methods used by the test classes
  * @author wolf
@@ -100,6 +106,7 @@ public class TestUtils {
 	boolean equal = differ.graphEquals();
 	if (equal) {
 	    pw.println("File contents are structurally equal");
+	    equal = hashesEqual(pw, dotPath, refPath);
 	} else {
 	    pw.println("File contents are structurally not equal");
 	    printList(pw, "# Lines in out but not in ref", differ.getExtraLines1());
@@ -113,6 +120,58 @@ public class TestUtils {
 	return equal;
     }
 
+    /**
+     * Checks that structurally equal dot files have the same hash, as used
+     * by the reusediagrams option, also once the statements of the output
+     * are reordered
+     */
+    private static boolean hashesEqual(PrintWriter pw, String dotPath, String refPath)
+	    throws IOException {
+	long refHash = DotDiff.hash(new File(refPath));
+	if (DotDiff.hash(new File(dotPath)) != refHash) {
+	    pw.println("File hashes are not equal");
+	    return false;
+	}
+	String reordered = reorder(readText(new File(dotPath)));
+	if (DotDiff.hash(new StringReader(reordered)) != refHash) {
+	    pw.println("File hashes are not equal once the statements are reordered:");
+	    pw.println(reordered);
+	    return false;
+	}
+	return true;
+    }
+
+    /** Return the dot text with its node and edge statements in reverse order */
+    private static String reorder(String dot) {
+	String[] lines = dot.split("\n");
+	List<Integer> statements = new ArrayList<Integer>();
+	for (int i = 0; i < lines.length; i++)
+	    if (lines[i].matches("\\s*\\w+\\s*(\\[|->).*")
+		    && !lines[i].matches("\\s*(node|edge|graph)\\b.*"))
+		statements.add(i);
+	String[] reordered = lines.clone();
+	for (int i = 0; i < statements.size(); i++)
+	    reordered[statements.get(i)] = lines[statements.get(statements.size() - 1 - i)];
+	StringBuilder sb = new StringBuilder();
+	for (String line : reordered)
+	    sb.append(line).append('\n');
+	return sb.toString();
+    }
+
+    /** Return the contents of a UTF-8 text file */
+    public static String readText(File f) throws IOException {
+	BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+	try {
+	    StringBuilder sb = new StringBuilder();
+	    String line;
+	    while ((line = in.readLine()) != null)
+		sb.append(line).append('\n');
+	    return sb.toString();
+	} finally {
+	    in.close();
+	}
+    }
+
     public static void printList(PrintWriter pw, String message, List<?> extraOut) {
 	if (extraOut.size() > 0) {
 	    pw.println(message);
@@ -150,8 +150,11 @@ public class UmlDocTest {
 	for (String o : options)
 	    pw.print(" " + o);
 	pw.println();
+	long start = System.nanoTime();
 	com.sun.tools.javadoc.Main.execute("UMLDoc test", pw, pw, pw,
 		doclet, options);
+	pw.println("UmlGraphDoc run took " + (System.nanoTime() - start) / 1000000 + " ms");
+	pw.flush();
 	System.exit(0);
     }
 
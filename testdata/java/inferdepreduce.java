@@ -0,0 +1,40 @@
+/**
+ * @opt inferdep
+ * @opt inferdepinpackage
+ * @opt inferdepreduce
+ * @hidden
+ */
+class UMLOptions {}
+
+/* A -> B -> C makes A -> C redundant */
+class A {
+    public B b() { return null; }
+    public C c() { return null; }
+}
+
+class B {
+    public C c() { return null; }
+}
+
+class C {}
+
+/*
+ * In the cycle P -> Q -> R -> S -> P only the chord P -> R is implied;
+ * every dependency of the cycle is kept, so that all classes stay reachable
+ */
+class P {
+    public Q q() { return null; }
+    public R r() { return null; }
+}
+
+class Q {
+    public R r() { return null; }
+}
+
+class R {
+    public S s() { return null; }
+}
+
+class S {
+    public P p() { return null; }
+}
@@ -0,0 +1,62 @@
+package bank;
+
+/**
+ * @opt attributes
+ * @opt operations
+ * @opt constructors
+ * @opt visibility
+ * @opt types
+ * @opt enumerations
+ * @opt enumconstants
+ * @opt memberbudget 3
+ * @opt apidocroot http://www.example.org/api
+ * @hidden
+ */
+class UMLOptions {}
+
+/* More members than the budget: the most visible ones are kept, in order */
+class Account {
+    private long id;
+    String owner;
+    protected double balance;
+    public String currency;
+    private boolean frozen;
+    public Account(String owner) {}
+    Account() {}
+    public void deposit(double amount) {}
+    private void audit() {}
+    protected void freeze() {}
+    public double getBalance() { return balance; }
+}
+
+/* Within the budget: all members are shown */
+class Transfer {
+    public Account from;
+    public Account to;
+    public void execute() {}
+}
+
+/**
+ * A tighter budget for this class only
+ * @opt memberbudget 1
+ */
+class Ledger {
+    private int entries;
+    protected String name;
+    public void post() {}
+    void close() {}
+}
+
+/* The enumeration constants have a budget of their own */
+enum Currency { EUR, USD, GBP, JPY, CHF }
+
+/**
+ * No budget for this class
+ * @opt !memberbudget
+ */
+class Statement {
+    private int number;
+    String period;
+    protected double opening;
+    public double closing;
+}
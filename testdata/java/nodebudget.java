@@ -0,0 +1,29 @@
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @opt nodebudget 7
+ * @hidden
+ */
+class UMLOptions {}
+
+/**
+ * The default package and java.io fit the budget, java.util is collapsed
+ * @navassoc - - - List
+ * @navassoc - - - HashMap
+ */
+class Catalog implements Serializable, Closeable {
+    public void close() {}
+}
+
+/**
+ * @navassoc - - - List
+ * @navassoc - - - ArrayList
+ */
+class Shelf implements Serializable {}
+
+/** @depend - - - ArrayList */
+class Clerk {}